@@ -195,10 +195,15 @@ public class FrameGrab {
         return buf;
     }
 
-    private int detectKeyFrame(int start) throws IOException {
+    private int detectKeyFrame(int start) throws IOException, JCodecException {
         int[] seekFrames = videoTrack.getMeta().getSeekFrames();
         if (seekFrames == null)
             return start;
+        if (seekFrames.length == 0) {
+            SeekableDemuxerTrack sdt = sdt();
+            sdt.gotoSyncFrame(start);
+            return (int) sdt.getCurFrame();
+        }
         int prev = seekFrames[0];
         for (int i = 1; i < seekFrames.length; i++) {
             if (seekFrames[i] > start)
@@ -6,6 +6,18 @@ import java.util.List;
 import org.jcodec.common.model.ColorSpace;
 import org.jcodec.common.model.Picture;
 
+/**
+ * This class is part of JCodec ( www.jcodec.org ) This software is distributed
+ * under FreeBSD License
+ * 
+ * Pixel store shared by the decoders and the filters. The buffers and the
+ * reference counts of the loaned pictures are only changed with the store
+ * locked, so the pictures can be passed between the threads of a pipelined
+ * transcoder.
+ * 
+ * @author The JCodec project
+ * 
+ */
 public class PixelStoreImpl implements PixelStore {
     private List<Picture> buffers;
 
@@ -14,7 +26,7 @@ public class PixelStoreImpl implements PixelStore {
     }
 
     @Override
-    public LoanerPicture getPicture(int width, int height, ColorSpace color) {
+    public synchronized LoanerPicture getPicture(int width, int height, ColorSpace color) {
         for (Picture picture : buffers) {
             if (picture.getWidth() == width && picture.getHeight() == height
                     && picture.getColor() == color) {
@@ -26,7 +38,7 @@ public class PixelStoreImpl implements PixelStore {
     }
 
     @Override
-    public void putBack(LoanerPicture frame) {
+    public synchronized void putBack(LoanerPicture frame) {
         frame.decRefCnt();
         if (frame.unused()) {
             Picture pixels = frame.getPicture();
@@ -36,7 +48,7 @@ public class PixelStoreImpl implements PixelStore {
     }
 
     @Override
-    public void retake(LoanerPicture frame) {
+    public synchronized void retake(LoanerPicture frame) {
         frame.incRefCnt();
     }
 }
\ No newline at end of file
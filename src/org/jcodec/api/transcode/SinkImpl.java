@@ -38,6 +38,7 @@ import org.jcodec.common.model.Size;
 import org.jcodec.containers.imgseq.ImageSequenceMuxer;
 import org.jcodec.containers.mkv.muxer.MKVMuxer;
 import org.jcodec.containers.mp4.muxer.MP4Muxer;
+import org.jcodec.containers.mps.MTSMuxer;
 import org.jcodec.containers.raw.RawMuxer;
 
 /**
@@ -102,6 +103,8 @@ public class SinkImpl implements Sink, PacketSink {
             muxer = new WavMuxer(destStream);
         } else if (Y4M == outputFormat) {
             muxer = new Y4MMuxer(destStream);
+        } else if (MPEG_TS == outputFormat) {
+            muxer = new MTSMuxer(destStream);
         } else if (Format.RAW == outputFormat) {
             muxer = new RawMuxer(destStream);
         } else {
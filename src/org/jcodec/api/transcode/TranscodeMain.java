@@ -69,9 +69,12 @@ public class TranscodeMain {
     private static final Flag FLAG_VIDEO_FILTER = Flag.flag("videoFilter", "vf",
             "Contains a comma separated list of video filters with arguments.");
 
+    private static final Flag FLAG_PIPELINE = Flag.flag("pipeline", null,
+            "Decode, filter and encode on separate threads with the queues of this length [default=0, off].");
+
     private static final Flag[] ALL_FLAGS = new Flag[] { FLAG_INPUT, FLAG_FORMAT, FLAG_VIDEO_CODEC, FLAG_AUDIO_CODEC,
             FLAG_SEEK_FRAMES, FLAG_MAX_FRAMES, FLAG_PROFILE, FLAG_INTERLACED, FLAG_DUMPMV, FLAG_DUMPMVJS,
-            FLAG_DOWNSCALE, FLAG_MAP_VIDEO, FLAG_MAP_AUDIO, FLAG_VIDEO_FILTER };
+            FLAG_DOWNSCALE, FLAG_MAP_VIDEO, FLAG_MAP_AUDIO, FLAG_VIDEO_FILTER, FLAG_PIPELINE };
 
     private static Map<String, Format> extensionToF = new HashMap<String, Format>();
     private static Map<String, Codec> extensionToC = new HashMap<String, Codec>();
@@ -145,6 +148,8 @@ public class TranscodeMain {
 
         videoCodecsForF.put(Format.MPEG_PS, Codec.MPEG2);
         audioCodecsForF.put(Format.MPEG_PS, Codec.MP2);
+        videoCodecsForF.put(Format.MPEG_TS, Codec.H264);
+        audioCodecsForF.put(Format.MPEG_TS, Codec.AAC);
         videoCodecsForF.put(Format.MOV, Codec.H264);
         audioCodecsForF.put(Format.MOV, Codec.AAC);
         videoCodecsForF.put(Format.MKV, Codec.VP8);
@@ -362,6 +367,7 @@ public class TranscodeMain {
             return;
         }
 
+        builder.setPipelineDepth(cmd.getIntegerFlagD(FLAG_PIPELINE, 0));
         Transcoder transcoder = builder.create();
 
         transcoder.transcode();
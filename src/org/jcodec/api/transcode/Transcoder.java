@@ -4,12 +4,23 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import org.jcodec.api.transcode.PixelStore.LoanerPicture;
 import org.jcodec.api.transcode.filters.ColorTransformFilter;
 import org.jcodec.common.AudioCodecMeta;
 import org.jcodec.common.IntArrayList;
 import org.jcodec.common.VideoCodecMeta;
+import org.jcodec.common.logging.Logger;
+import org.jcodec.common.model.AudioBuffer;
 import org.jcodec.common.model.ColorSpace;
 import org.jcodec.common.model.Packet;
 
@@ -23,11 +34,21 @@ import org.jcodec.common.model.Packet;
  * Transcoder.newTranscoder(source, sink).create(); The source and the sink are
  * essential to the transcoder and must be provided.
  * 
+ * With a pipeline depth set the transcoder runs pipelined: every source is
+ * decoded on its own thread, the filter chain and the encoder of every sink
+ * run on two more threads. The stages are connected by the queues of that
+ * length, a slow stage blocks the ones before it. The pixel buffers are shared
+ * between the threads through the same pixel store and the same reference
+ * counts as in the sequential mode, so an ABR ladder with one input and many
+ * outputs encodes all the outputs at the same time. The output is the same as
+ * of the sequential mode.
+ * 
  * @author The JCodec project
  * 
  */
 public class Transcoder {
     static final int REORDER_BUFFER_SIZE = 7;
+    private static final int SHUTDOWN_TIMEOUT_SEC = 5;
 
     private Source[] sources;
     private Sink[] sinks;
@@ -36,6 +57,7 @@ public class Transcoder {
     private int[] maxFrames;
     private Mapping[] videoMappings;
     private Mapping[] audioMappings;
+    private int pipelineDepth;
 
     /**
      * Use TranscoderBuilder (method newTranscoder below) to create a transcoder
@@ -47,8 +69,9 @@ public class Transcoder {
      * @param extraFilters
      */
     private Transcoder(Source[] source, Sink[] sink, Mapping[] videoMappings, Mapping[] audioMappings,
-            List<Filter>[] extraFilters, int[] seekFrames, int[] maxFrames) {
+            List<Filter>[] extraFilters, int[] seekFrames, int[] maxFrames, int pipelineDepth) {
         this.extraFilters = extraFilters;
+        this.pipelineDepth = pipelineDepth;
         this.videoMappings = videoMappings;
         this.audioMappings = audioMappings;
 
@@ -140,24 +163,55 @@ public class Transcoder {
                     break;
                 audioQueue.remove(0);
 
-                if (audioCopy && (sink instanceof PacketSink)) {
-                    ((PacketSink) sink).outputAudioPacket(audioFrame.getPacket(), audioCodecMeta);
-                } else {
-                    sink.outputAudioFrame(audioFrame);
-                }
+                outputAudio(audioFrame, audioCodecMeta);
             }
             videoQueue.remove(firstVideoFrame);
-            if (videoCopy && (sink instanceof PacketSink)) {
-                ((PacketSink) sink).outputVideoPacket(firstVideoFrame.getPacket(), videoCodecMeta);
+            outputVideo(firstVideoFrame, videoCodecMeta);
+        }
+
+        boolean copiesVideo() {
+            return videoCopy && (sink instanceof PacketSink);
+        }
+
+        boolean copiesAudio() {
+            return audioCopy && (sink instanceof PacketSink);
+        }
+
+        void outputVideo(VideoFrameWithPacket videoFrame, VideoCodecMeta meta) throws IOException {
+            if (copiesVideo()) {
+                writeVideo(videoFrame, meta);
             } else {
                 // Filtering the pixels
-                LoanerPicture frame = filterFrame(firstVideoFrame);
-                sink.outputVideoFrame(new VideoFrameWithPacket(firstVideoFrame.getPacket(), frame));
-                pixelStore.putBack(frame);
+                writeVideo(new VideoFrameWithPacket(videoFrame.getPacket(), filterFrame(videoFrame)), meta);
+            }
+        }
+
+        void outputAudio(AudioFrameWithPacket audioFrame, AudioCodecMeta meta) throws IOException {
+            writeAudio(audioFrame, meta);
+        }
+
+        /**
+         * Gives the filtered frame ( or the packet ) to the sink, the frame
+         * goes back to the pixel store
+         */
+        void writeVideo(VideoFrameWithPacket videoFrame, VideoCodecMeta meta) throws IOException {
+            if (copiesVideo()) {
+                ((PacketSink) sink).outputVideoPacket(videoFrame.getPacket(), meta);
+            } else {
+                sink.outputVideoFrame(videoFrame);
+                pixelStore.putBack(videoFrame.getFrame());
+            }
+        }
+
+        void writeAudio(AudioFrameWithPacket audioFrame, AudioCodecMeta meta) throws IOException {
+            if (copiesAudio()) {
+                ((PacketSink) sink).outputAudioPacket(audioFrame.getPacket(), meta);
+            } else {
+                sink.outputAudioFrame(audioFrame);
             }
         }
 
-        private LoanerPicture filterFrame(VideoFrameWithPacket firstVideoFrame) {
+        LoanerPicture filterFrame(VideoFrameWithPacket firstVideoFrame) {
             LoanerPicture frame = firstVideoFrame.getFrame();
             for (Filter filter : filters) {
                 LoanerPicture old = frame;
@@ -184,30 +238,15 @@ public class Transcoder {
                     // Don't output audio when there's no video any more
                     if (audioFrame.getPacket().getPtsD() > lastVideoFrame.getPacket().getPtsD())
                         break;
-                    if (audioCopy && (sink instanceof PacketSink)) {
-                        ((PacketSink) sink).outputAudioPacket(audioFrame.getPacket(), audioCodecMeta);
-                    } else {
-                        sink.outputAudioFrame(audioFrame);
-                    }
+                    outputAudio(audioFrame, audioCodecMeta);
                 }
                 for (VideoFrameWithPacket videoFrame : videoQueue) {
-                    if (videoFrame != null) {
-                        if (videoCopy && (sink instanceof PacketSink)) {
-                            ((PacketSink) sink).outputVideoPacket(videoFrame.getPacket(), videoCodecMeta);
-                        } else {
-                            LoanerPicture frame = filterFrame(videoFrame);
-                            sink.outputVideoFrame(new VideoFrameWithPacket(videoFrame.getPacket(), frame));
-                            pixelStore.putBack(frame);
-                        }
-                    }
+                    if (videoFrame != null)
+                        outputVideo(videoFrame, videoCodecMeta);
                 }
             } else {
                 for (AudioFrameWithPacket audioFrame : audioQueue) {
-                    if (audioCopy && (sink instanceof PacketSink)) {
-                        ((PacketSink) sink).outputAudioPacket(audioFrame.getPacket(), audioCodecMeta);
-                    } else {
-                        sink.outputAudioFrame(audioFrame);
-                    }
+                    outputAudio(audioFrame, audioCodecMeta);
                 }
             }
         }
@@ -245,8 +284,336 @@ public class Transcoder {
         }
     }
 
+    /**
+     * A stream that filters and encodes on two worker threads, the frames are
+     * handed to them in the output order through the bounded queues
+     */
+    private static class PipelinedStream extends Stream {
+        private static final Output END = new Output(null, null, null, null);
+
+        private BlockingQueue<Output> filterQueue;
+        private BlockingQueue<Output> encodeQueue;
+        private Future<Void> filtering;
+        private Future<Void> encoding;
+
+        public PipelinedStream(Sink sink, boolean videoCopy, boolean audioCopy, List<Filter> extraFilters,
+                PixelStore pixelStore, int depth) {
+            super(sink, videoCopy, audioCopy, extraFilters, pixelStore);
+            filterQueue = new ArrayBlockingQueue<Output>(depth);
+            encodeQueue = new ArrayBlockingQueue<Output>(depth);
+        }
+
+        public void start(ExecutorService executor) {
+            encoding = executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException, InterruptedException {
+                    Output output;
+                    while ((output = encodeQueue.take()) != END) {
+                        if (output.videoFrame != null)
+                            writeVideo(output.videoFrame, output.videoMeta);
+                        else
+                            writeAudio(output.audioFrame, output.audioMeta);
+                    }
+                    return null;
+                }
+            });
+            filtering = executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException, InterruptedException {
+                    Output output;
+                    while ((output = filterQueue.take()) != END) {
+                        if (output.videoFrame != null && !copiesVideo()) {
+                            VideoFrameWithPacket videoFrame = output.videoFrame;
+                            output = new Output(new VideoFrameWithPacket(videoFrame.getPacket(),
+                                    filterFrame(videoFrame)), output.videoMeta, null, null);
+                        }
+                        put(encodeQueue, output, encoding);
+                    }
+                    put(encodeQueue, END, encoding);
+                    return null;
+                }
+            });
+        }
+
+        @Override
+        void outputVideo(VideoFrameWithPacket videoFrame, VideoCodecMeta meta) throws IOException {
+            if (copiesVideo())
+                videoFrame = new VideoFrameWithPacket(duplicate(videoFrame.getPacket()), null);
+            put(filterQueue, new Output(videoFrame, meta, null, null), filtering);
+        }
+
+        @Override
+        void outputAudio(AudioFrameWithPacket audioFrame, AudioCodecMeta meta) throws IOException {
+            // The sinks encode the same audio at the same time, each of them
+            // gets its own view of the samples
+            AudioBuffer audio = audioFrame.getAudio();
+            if (audio != null)
+                audio = new AudioBuffer(audio.getData().duplicate(), audio.getFormat(), audio.getNFrames());
+            put(filterQueue, new Output(null, null, new AudioFrameWithPacket(audio,
+                    duplicate(audioFrame.getPacket())), meta), filtering);
+        }
+
+        /**
+         * Waits until everything that was output reaches the sink
+         */
+        public void finish() throws IOException {
+            put(filterQueue, END, filtering);
+            join(filtering);
+            join(encoding);
+        }
+
+        private static Packet duplicate(Packet packet) {
+            if (packet == null || packet.getData() == null)
+                return packet;
+            return Packet.createPacketWithData(packet, packet.getData().duplicate());
+        }
+    }
+
+    private static class Output {
+        private VideoFrameWithPacket videoFrame;
+        private VideoCodecMeta videoMeta;
+        private AudioFrameWithPacket audioFrame;
+        private AudioCodecMeta audioMeta;
+
+        public Output(VideoFrameWithPacket videoFrame, VideoCodecMeta videoMeta, AudioFrameWithPacket audioFrame,
+                AudioCodecMeta audioMeta) {
+            this.videoFrame = videoFrame;
+            this.videoMeta = videoMeta;
+            this.audioFrame = audioFrame;
+            this.audioMeta = audioMeta;
+        }
+    }
+
+    /**
+     * Reads the frames of a source, decoded or as packets
+     */
+    private static class SourceReader {
+        protected Source source;
+        protected boolean decodeVideo;
+        protected boolean decodeAudio;
+
+        public SourceReader(Source source, boolean decodeVideo, boolean decodeAudio) {
+            this.source = source;
+            this.decodeVideo = decodeVideo || !(source instanceof PacketSource);
+            this.decodeAudio = decodeAudio || !(source instanceof PacketSource);
+        }
+
+        public VideoFrameWithPacket readVideo() throws IOException {
+            if (decodeVideo)
+                return source.getNextVideoFrame();
+            Packet packet = ((PacketSource) source).inputVideoPacket();
+            return packet == null ? null : new VideoFrameWithPacket(packet, null);
+        }
+
+        public AudioFrameWithPacket readAudio() throws IOException {
+            if (decodeAudio)
+                return source.getNextAudioFrame();
+            Packet packet = ((PacketSource) source).inputAudioPacket();
+            return packet == null ? null : new AudioFrameWithPacket(null, packet);
+        }
+
+        public boolean decodesVideo() {
+            return decodeVideo;
+        }
+
+        /**
+         * @return Codec meta of the source as of the last frame read
+         */
+        public VideoCodecMeta getVideoCodecMeta() {
+            return source.getVideoCodecMeta();
+        }
+
+        public AudioCodecMeta getAudioCodecMeta() {
+            return source.getAudioCodecMeta();
+        }
+    }
+
+    /**
+     * Reads the frames of a source on a worker thread ahead of the transcoder
+     * loop. The video and the audio are read into separate queues, the one
+     * that is shorter is filled first.
+     */
+    private static class PrefetchingReader extends SourceReader implements Callable<Void> {
+        private LinkedList<VideoFrameWithPacket> videoFrames;
+        private LinkedList<AudioFrameWithPacket> audioFrames;
+        private LinkedList<VideoCodecMeta> videoMetas;
+        private LinkedList<AudioCodecMeta> audioMetas;
+        private VideoCodecMeta videoMeta;
+        private AudioCodecMeta audioMeta;
+        private boolean videoDone;
+        private boolean audioDone;
+        private Exception error;
+        private int depth;
+        private int maxFrames;
+
+        public PrefetchingReader(Source source, boolean decodeVideo, boolean decodeAudio, boolean readVideo,
+                boolean readAudio, int maxFrames, int depth) {
+            super(source, decodeVideo, decodeAudio);
+            this.maxFrames = maxFrames;
+            this.depth = depth;
+            this.videoDone = !readVideo;
+            this.audioDone = !readAudio;
+            videoFrames = new LinkedList<VideoFrameWithPacket>();
+            audioFrames = new LinkedList<AudioFrameWithPacket>();
+            videoMetas = new LinkedList<VideoCodecMeta>();
+            audioMetas = new LinkedList<AudioCodecMeta>();
+        }
+
+        @Override
+        public Void call() throws Exception {
+            int videoFramesRead = 0;
+            try {
+                while (true) {
+                    boolean video;
+                    synchronized (this) {
+                        while (!canReadVideo() && !canReadAudio()) {
+                            if (videoDone && audioDone)
+                                return null;
+                            wait();
+                        }
+                        video = canReadVideo() && (!canReadAudio() || videoFrames.size() <= audioFrames.size());
+                    }
+                    if (video) {
+                        VideoFrameWithPacket frame = videoFramesRead < maxFrames ? super.readVideo() : null;
+                        VideoCodecMeta meta = frame == null ? null : super.getVideoCodecMeta();
+                        synchronized (this) {
+                            if (frame == null) {
+                                videoDone = true;
+                            } else {
+                                videoFrames.add(frame);
+                                videoMetas.add(meta);
+                                ++videoFramesRead;
+                            }
+                            notifyAll();
+                        }
+                    } else {
+                        AudioFrameWithPacket frame = super.readAudio();
+                        AudioCodecMeta meta = frame == null ? null : super.getAudioCodecMeta();
+                        synchronized (this) {
+                            if (frame == null) {
+                                audioDone = true;
+                            } else {
+                                audioFrames.add(frame);
+                                audioMetas.add(meta);
+                            }
+                            notifyAll();
+                        }
+                    }
+                }
+            } catch (Exception e) {
+                synchronized (this) {
+                    error = e;
+                    videoDone = audioDone = true;
+                    notifyAll();
+                }
+                throw e;
+            }
+        }
+
+        private boolean canReadVideo() {
+            return !videoDone && videoFrames.size() < depth;
+        }
+
+        private boolean canReadAudio() {
+            return !audioDone && audioFrames.size() < depth;
+        }
+
+        @Override
+        public synchronized VideoFrameWithPacket readVideo() throws IOException {
+            while (videoFrames.isEmpty() && !videoDone)
+                waitReader();
+            notifyAll();
+            if (videoFrames.isEmpty())
+                rethrow();
+            videoMeta = videoMetas.poll();
+            return videoFrames.poll();
+        }
+
+        @Override
+        public synchronized AudioFrameWithPacket readAudio() throws IOException {
+            while (audioFrames.isEmpty() && !audioDone)
+                waitReader();
+            notifyAll();
+            if (audioFrames.isEmpty())
+                rethrow();
+            audioMeta = audioMetas.poll();
+            return audioFrames.poll();
+        }
+
+        @Override
+        public synchronized VideoCodecMeta getVideoCodecMeta() {
+            return videoMeta;
+        }
+
+        @Override
+        public synchronized AudioCodecMeta getAudioCodecMeta() {
+            return audioMeta;
+        }
+
+        private void waitReader() {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        private void rethrow() throws IOException {
+            if (error instanceof IOException)
+                throw (IOException) error;
+            if (error != null)
+                throw new RuntimeException(error);
+        }
+    }
+
+    /**
+     * Puts the output into the queue of a pipeline stage, fails if the stage
+     * is not running any more
+     */
+    private static void put(BlockingQueue<Output> queue, Output output, Future<Void> stage) throws IOException {
+        try {
+            while (true) {
+                // The stage only stops by itself when it fails
+                if (stage.isDone()) {
+                    join(stage);
+                    throw new IllegalStateException("Pipeline stage has stopped");
+                }
+                if (queue.offer(output, 100, TimeUnit.MILLISECONDS))
+                    return;
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void join(Future<Void> stage) throws IOException {
+        try {
+            stage.get();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private ExecutorService createExecutor() {
+        int threads = sources.length + 2 * sinks.length;
+        return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r);
+                t.setDaemon(true);
+                t.setName(Transcoder.class.getName());
+                return t;
+            }
+        });
+    }
+
     public void transcode() throws IOException {
         PixelStore pixelStore = new PixelStoreImpl();
+        ExecutorService executor = pipelineDepth > 0 ? createExecutor() : null;
 
         List<Stream>[] videoStreams = new List[sources.length];
         List<Stream>[] audioStreams = new List[sources.length];
@@ -255,6 +622,7 @@ public class Transcoder {
         boolean[] finishedVideo = new boolean[sources.length];
         boolean[] finishedAudio = new boolean[sources.length];
         Stream[] allStreams = new Stream[sinks.length];
+        SourceReader[] readers = new SourceReader[sources.length];
         int[] videoFramesRead = new int[sources.length];
 
         for (int s = 0; s < sources.length; s++) {
@@ -271,8 +639,13 @@ public class Transcoder {
         }
 
         for (int s = 0; s < sinks.length; s++) {
-            Stream stream = new Stream(sinks[s], videoMappings[s].copy, audioMappings[s].copy, extraFilters[s],
-                    pixelStore);
+            Stream stream;
+            if (executor != null)
+                stream = new PipelinedStream(sinks[s], videoMappings[s].copy, audioMappings[s].copy,
+                        extraFilters[s], pixelStore, pipelineDepth);
+            else
+                stream = new Stream(sinks[s], videoMappings[s].copy, audioMappings[s].copy, extraFilters[s],
+                        pixelStore);
             allStreams[s] = stream;
             if (sources[videoMappings[s].source].isVideo()) {
                 videoStreams[videoMappings[s].source].add(stream);
@@ -291,12 +664,25 @@ public class Transcoder {
             }
         }
 
+        for (int s = 0; s < sources.length; s++) {
+            if (executor != null) {
+                PrefetchingReader reader = new PrefetchingReader(sources[s], decodeVideo[s], decodeAudio[s],
+                        !videoStreams[s].isEmpty(), !audioStreams[s].isEmpty(), maxFrames[s], pipelineDepth);
+                executor.submit(reader);
+                readers[s] = reader;
+            } else {
+                readers[s] = new SourceReader(sources[s], decodeVideo[s], decodeAudio[s]);
+            }
+        }
+        for (int s = 0; s < sinks.length && executor != null; s++)
+            ((PipelinedStream) allStreams[s]).start(executor);
+
         try {
             while (true) {
                 // Read video and audio packet from each source and add it to
                 // the appropriate queues
                 for (int s = 0; s < sources.length; s++) {
-                    Source source = sources[s];
+                    SourceReader reader = readers[s];
 
                     // See if we need to read a video frame, if out of the sinks
                     // still doesn't have enough audio don't read the next video
@@ -313,23 +699,16 @@ public class Transcoder {
                         if (videoFramesRead[s] >= maxFrames[s]) {
                             nextVideoFrame = null;
                             finishedVideo[s] = true;
-                        } else if (decodeVideo[s] || !(source instanceof PacketSource)) {
-                            nextVideoFrame = source.getNextVideoFrame();
-                            if (nextVideoFrame == null) {
-                                finishedVideo[s] = true;
-                            } else {
-                                ++videoFramesRead[s];
-                                printLegend((int) nextVideoFrame.getPacket().getFrameNo(), 0,
-                                        nextVideoFrame.getPacket());
-                            }
                         } else {
-                            Packet packet = ((PacketSource) source).inputVideoPacket();
-                            if (packet == null) {
+                            nextVideoFrame = reader.readVideo();
+                            if (nextVideoFrame == null) {
                                 finishedVideo[s] = true;
                             } else {
                                 ++videoFramesRead[s];
+                                if (reader.decodesVideo())
+                                    printLegend((int) nextVideoFrame.getPacket().getFrameNo(), 0,
+                                            nextVideoFrame.getPacket());
                             }
-                            nextVideoFrame = new VideoFrameWithPacket(packet, null);
                         }
 
                         // The video source is empty, clear all video streams
@@ -346,7 +725,7 @@ public class Transcoder {
 
                         if (nextVideoFrame != null) {
                             for (Stream stream : videoStreams[s]) {
-                                stream.addVideoPacket(nextVideoFrame, source.getVideoCodecMeta());
+                                stream.addVideoPacket(nextVideoFrame, reader.getVideoCodecMeta());
                             }
                             // De-reference the frame because it should be
                             // already in the queues by now, if nobody needs it
@@ -360,23 +739,12 @@ public class Transcoder {
                     if (!audioStreams[s].isEmpty()) {
                         // Read the next audio frame (or packet) and give it to all the streams that
                         // want it
-                        AudioFrameWithPacket nextAudioFrame;
-                        if (decodeAudio[s] || !(source instanceof PacketSource)) {
-                            nextAudioFrame = source.getNextAudioFrame();
-                            if (nextAudioFrame == null)
-                                finishedAudio[s] = true;
-                        } else {
-                            Packet packet = ((PacketSource) source).inputAudioPacket();
-                            if (packet == null) {
-                                finishedAudio[s] = true;
-                                nextAudioFrame = null;
-                            } else {
-                                nextAudioFrame = new AudioFrameWithPacket(null, packet);
-                            }
-                        }
+                        AudioFrameWithPacket nextAudioFrame = reader.readAudio();
+                        if (nextAudioFrame == null)
+                            finishedAudio[s] = true;
                         if (nextAudioFrame != null) {
                             for (Stream stream : audioStreams[s]) {
-                                stream.addAudioPacket(nextAudioFrame, source.getAudioCodecMeta());
+                                stream.addAudioPacket(nextAudioFrame, reader.getAudioCodecMeta());
                             }
                         }
                     } else {
@@ -403,7 +771,12 @@ public class Transcoder {
             for (int s = 0; s < allStreams.length; s++) {
                 allStreams[s].finalFlushQueues();
             }
+            for (int s = 0; s < allStreams.length && executor != null; s++) {
+                ((PipelinedStream) allStreams[s]).finish();
+            }
         } finally {
+            if (executor != null)
+                shutdown(executor);
             for (int i = 0; i < sources.length; i++)
                 sources[0].finish();
             for (int i = 0; i < sinks.length; i++)
@@ -411,6 +784,22 @@ public class Transcoder {
         }
     }
 
+    /**
+     * Stops the workers that are still running, for example after an error,
+     * before the sources and the sinks are closed. The wait is bounded, a
+     * worker stuck in a call that ignores the interrupt is left behind so that
+     * the error that stopped the pipeline still reaches the caller.
+     */
+    private static void shutdown(ExecutorService executor) {
+        executor.shutdownNow();
+        try {
+            if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_SEC, TimeUnit.SECONDS))
+                Logger.warn("Pipeline stages didn't stop in " + SHUTDOWN_TIMEOUT_SEC + "s, closing the sinks anyway.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     private void printLegend(int frameNo, int maxFrames, Packet inVideoPacket) {
         if (frameNo % 100 == 0)
             System.out.print(String.format("[%6d]\r", frameNo));
@@ -425,6 +814,7 @@ public class Transcoder {
         private IntArrayList maxFrames;
         private List<Mapping> videoMappings;
         private List<Mapping> audioMappings;
+        private int pipelineDepth;
 
         public TranscoderBuilder() {
             source = new ArrayList<Source>();
@@ -466,6 +856,18 @@ public class Transcoder {
             return this;
         }
 
+        /**
+         * Runs the transcoder pipelined, see the class description
+         * 
+         * @param pipelineDepth
+         *            Length of the queues between the stages, 0 runs
+         *            everything on the calling thread
+         */
+        public TranscoderBuilder setPipelineDepth(int pipelineDepth) {
+            this.pipelineDepth = pipelineDepth;
+            return this;
+        }
+
         public TranscoderBuilder setVideoMapping(int src, int sink, boolean copy) {
             videoMappings.set(sink, new Mapping(src, copy));
             return this;
@@ -479,7 +881,7 @@ public class Transcoder {
         public Transcoder create() {
             return new Transcoder(source.toArray(new Source[] {}), sink.toArray(new Sink[] {}),
                     videoMappings.toArray(new Mapping[] {}), audioMappings.toArray(new Mapping[] {}),
-                    filters.toArray(new List[0]), seekFrames.toArray(), maxFrames.toArray());
+                    filters.toArray(new List[0]), seekFrames.toArray(), maxFrames.toArray(), pipelineDepth);
         }
     }
 
@@ -33,4 +33,20 @@ public class MConst {
     public static final int[] transitLPS = new int[] { 0, 0, 1, 2, 2, 4, 4, 5, 6, 7, 8, 9, 9, 11, 11, 12, 13, 13, 15,
             15, 16, 16, 18, 18, 19, 19, 21, 21, 22, 22, 23, 24, 24, 25, 26, 26, 27, 27, 28, 29, 29, 30, 30, 30, 31, 32,
             32, 33, 33, 33, 34, 34, 35, 35, 35, 36, 36, 36, 37, 37, 37, 38, 38, 63 };
+
+    /**
+     * rangeLPS indexed with (state << 2) | qIdx, keeps the two lookups of a bin
+     * within one array
+     */
+    public static final int[] rangeLPSFlat = new int[64 * 4];
+
+    public static final int[] transitMPS = new int[64];
+
+    static {
+        for (int state = 0; state < 64; state++) {
+            for (int qIdx = 0; qIdx < 4; qIdx++)
+                rangeLPSFlat[(state << 2) | qIdx] = rangeLPS[qIdx][state];
+            transitMPS[state] = state < 62 ? state + 1 : state;
+        }
+    }
 }
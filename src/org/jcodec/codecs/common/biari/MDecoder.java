@@ -18,11 +18,17 @@ public class MDecoder {
     private int code;
     private int nBitsPending;
     private int[][] cm;
+    private int[] state;
+    private int[] mps;
+    private int[] sigPos;
 
     public MDecoder(ByteBuffer _in, int[][] cm) {
         this._in = _in;
         this.range = 510;
         this.cm = cm;
+        this.state = cm[0];
+        this.mps = cm[1];
+        this.sigPos = new int[64];
 
         initCodeRegister();
     }
@@ -62,38 +68,270 @@ public class MDecoder {
     public int decodeBin(int m) {
         int bin;
 
-        int qIdx = (range >> 6) & 0x3;
-        int rLPS = MConst.rangeLPS[qIdx][cm[0][m]];
+        int s = state[m];
+        int rLPS = MConst.rangeLPSFlat[(s << 2) | ((range >> 6) & 0x3)];
         range -= rLPS;
         int rs8 = range << 8;
 
         if (code < rs8) {
             // MPS
-            if (cm[0][m] < 62)
-                cm[0][m]++;
+            state[m] = MConst.transitMPS[s];
 
-            renormalize();
+            // At most one bit for MPS
+            if (range < 256) {
+                range <<= 1;
+                code <<= 1;
+                code &= 0x1ffff;
+
+                --nBitsPending;
+                if (nBitsPending <= 0)
+                    readOneByte();
+            }
 
-            bin = cm[1][m];
+            bin = mps[m];
         } else {
             // LPS
-            range = rLPS;
             code -= rs8;
 
-            renormalize();
+            // Renormalizing all the bits at once, rLPS is never 0
+            int shift = Integer.numberOfLeadingZeros(rLPS) - 23;
+            range = rLPS << shift;
+            code <<= shift;
+            nBitsPending -= shift;
+            if (nBitsPending <= 0 && _in.hasRemaining()) {
+                code |= (_in.get() & 0xff) << -nBitsPending;
+                nBitsPending += 8;
+            }
+            code &= 0x1ffff;
 
-            bin = 1 - cm[1][m];
+            bin = 1 - mps[m];
 
-            if (cm[0][m] == 0)
-                cm[1][m] = 1 - cm[1][m];
+            if (s == 0)
+                mps[m] = bin;
 
-            cm[0][m] = MConst.transitLPS[cm[0][m]];
+            state[m] = MConst.transitLPS[s];
         }
 
 //        System.out.println("CABAC BIT [" + m + "]: " + bin);
         return bin;
     }
 
+    /**
+     * Residual block fast path. Decodes the significance map and the levels of
+     * one block of coefficients keeping the arithmetic decoder state in local
+     * variables, produces exactly the same result as decoding the same syntax
+     * bin by bin with decodeBin/decodeBinBypass.
+     * 
+     * @param sigCtxOff
+     *            Context offset of significant_coeff_flag
+     * @param lastCtxOff
+     *            Context offset of last_significant_coeff_flag
+     * @param levelCtxOff
+     *            Context offset of coeff_abs_level_minus1
+     * @param levelAdjust
+     *            1 for chroma DC blocks, 0 otherwise
+     * @param out
+     * @param first
+     * @param num
+     * @param reorder
+     * @param scMapping
+     * @param lscMapping
+     * @return Number of non-zero coefficients
+     */
+    public int decodeResidual(int sigCtxOff, int lastCtxOff, int levelCtxOff, int levelAdjust, int[] out, int first,
+            int num, int[] reorder, int[] scMapping, int[] lscMapping) {
+        final int[] st = state;
+        final int[] mp = mps;
+        final int[] rangeLPS = MConst.rangeLPSFlat;
+        final int[] transitLPS = MConst.transitLPS;
+        final int[] transitMPS = MConst.transitMPS;
+        final int[] pos = sigPos;
+        int range = this.range;
+        int code = this.code;
+        int pending = this.nBitsPending;
+
+        // Significance map
+        int nSig = 0;
+        int numCoeff;
+        for (numCoeff = 0; numCoeff < num - 1; numCoeff++) {
+            int m = sigCtxOff + scMapping[numCoeff];
+            int s = st[m];
+            int rLPS = rangeLPS[(s << 2) | ((range >> 6) & 0x3)];
+            range -= rLPS;
+            int bin;
+            if (code < (range << 8)) {
+                bin = mp[m];
+                st[m] = transitMPS[s];
+                if (range < 256) {
+                    range <<= 1;
+                    code <<= 1;
+                    if (--pending <= 0) {
+                        code |= nextByte();
+                        pending += 8;
+                    }
+                    code &= 0x1ffff;
+                }
+            } else {
+                code -= range << 8;
+                int shift = Integer.numberOfLeadingZeros(rLPS) - 23;
+                range = rLPS << shift;
+                code <<= shift;
+                pending -= shift;
+                if (pending <= 0) {
+                    code |= nextByte() << -pending;
+                    pending += 8;
+                }
+                code &= 0x1ffff;
+                bin = 1 - mp[m];
+                if (s == 0)
+                    mp[m] = bin;
+                st[m] = transitLPS[s];
+            }
+            if (bin == 0)
+                continue;
+            pos[nSig++] = numCoeff;
+
+            m = lastCtxOff + lscMapping[numCoeff];
+            s = st[m];
+            rLPS = rangeLPS[(s << 2) | ((range >> 6) & 0x3)];
+            range -= rLPS;
+            if (code < (range << 8)) {
+                bin = mp[m];
+                st[m] = transitMPS[s];
+                if (range < 256) {
+                    range <<= 1;
+                    code <<= 1;
+                    if (--pending <= 0) {
+                        code |= nextByte();
+                        pending += 8;
+                    }
+                    code &= 0x1ffff;
+                }
+            } else {
+                code -= range << 8;
+                int shift = Integer.numberOfLeadingZeros(rLPS) - 23;
+                range = rLPS << shift;
+                code <<= shift;
+                pending -= shift;
+                if (pending <= 0) {
+                    code |= nextByte() << -pending;
+                    pending += 8;
+                }
+                code &= 0x1ffff;
+                bin = 1 - mp[m];
+                if (s == 0)
+                    mp[m] = bin;
+                st[m] = transitLPS[s];
+            }
+            if (bin == 1)
+                break;
+        }
+        if (numCoeff == num - 1)
+            pos[nSig++] = numCoeff;
+
+        // Levels, in reverse scan order
+        int numGt1 = 0, numEq1 = 0;
+        int maxIncBN = 4 - levelAdjust;
+        for (int k = nSig - 1; k >= 0; k--) {
+            int m = levelCtxOff + (numGt1 != 0 ? 0 : (numEq1 < 3 ? 1 + numEq1 : 4));
+            int mN = levelCtxOff + 5 + (numGt1 < maxIncBN ? numGt1 : maxIncBN);
+            int val = 0;
+            int bin;
+            do {
+                int s = st[m];
+                int rLPS = rangeLPS[(s << 2) | ((range >> 6) & 0x3)];
+                range -= rLPS;
+                if (code < (range << 8)) {
+                    bin = mp[m];
+                    st[m] = transitMPS[s];
+                    if (range < 256) {
+                        range <<= 1;
+                        code <<= 1;
+                        if (--pending <= 0) {
+                            code |= nextByte();
+                            pending += 8;
+                        }
+                        code &= 0x1ffff;
+                    }
+                } else {
+                    code -= range << 8;
+                    int shift = Integer.numberOfLeadingZeros(rLPS) - 23;
+                    range = rLPS << shift;
+                    code <<= shift;
+                    pending -= shift;
+                    if (pending <= 0) {
+                        code |= nextByte() << -pending;
+                        pending += 8;
+                    }
+                    code &= 0x1ffff;
+                    bin = 1 - mp[m];
+                    if (s == 0)
+                        mp[m] = bin;
+                    st[m] = transitLPS[s];
+                }
+                val += bin;
+                m = mN;
+            } while (bin != 0 && val < 14);
+
+            if (val == 14) {
+                // Exp-Golomb suffix, bypass bins
+                int log = -2, add = 0, sum = 0, b;
+                do {
+                    log++;
+                    code <<= 1;
+                    if (--pending <= 0) {
+                        code |= nextByte();
+                        pending += 8;
+                    }
+                    b = code >= (range << 8) ? 1 : 0;
+                    if (b != 0)
+                        code -= range << 8;
+                } while (b != 0);
+
+                for (; log >= 0; log--) {
+                    code <<= 1;
+                    if (--pending <= 0) {
+                        code |= nextByte();
+                        pending += 8;
+                    }
+                    if (code >= (range << 8)) {
+                        code -= range << 8;
+                        add |= 1 << log;
+                    }
+                    sum += 1 << log;
+                }
+                val += add + sum;
+            }
+            if (val == 0)
+                ++numEq1;
+            else
+                ++numGt1;
+
+            // Sign, bypass bin
+            code <<= 1;
+            if (--pending <= 0) {
+                code |= nextByte();
+                pending += 8;
+            }
+            int absLev = val + 1;
+            if (code >= (range << 8)) {
+                code -= range << 8;
+                absLev = -absLev;
+            }
+            out[reorder[pos[k] + first]] = absLev;
+        }
+
+        this.range = range;
+        this.code = code;
+        this.nBitsPending = pending;
+
+        return nSig;
+    }
+
+    private int nextByte() {
+        return _in.hasRemaining() ? _in.get() & 0xff : 0;
+    }
+
     /**
      * Special decoding process for 'end of slice' flag. Uses probability state
      * 63.
@@ -6,7 +6,11 @@ import static org.jcodec.common.tools.MathUtil.wrap;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
@@ -14,11 +18,15 @@ import java.util.concurrent.ThreadFactory;
 
 import org.jcodec.codecs.h264.H264Utils.MvList2D;
 import org.jcodec.codecs.h264.decode.DeblockerInput;
+import org.jcodec.codecs.h264.decode.FramePool;
+import org.jcodec.codecs.h264.decode.FramePoolImpl;
 import org.jcodec.codecs.h264.decode.FrameReader;
+import org.jcodec.codecs.h264.decode.RefListManager;
 import org.jcodec.codecs.h264.decode.SliceDecoder;
 import org.jcodec.codecs.h264.decode.SliceHeaderReader;
 import org.jcodec.codecs.h264.decode.SliceReader;
 import org.jcodec.codecs.h264.decode.deblock.DeblockingFilter;
+import org.jcodec.codecs.h264.decode.deblock.RowDeblocker;
 import org.jcodec.codecs.h264.io.model.Frame;
 import org.jcodec.codecs.h264.io.model.NALUnit;
 import org.jcodec.codecs.h264.io.model.NALUnitType;
@@ -28,15 +36,18 @@ import org.jcodec.codecs.h264.io.model.RefPicMarkingIDR;
 import org.jcodec.codecs.h264.io.model.SeqParameterSet;
 import org.jcodec.codecs.h264.io.model.SliceHeader;
 import org.jcodec.codecs.h264.io.model.SliceType;
+import org.jcodec.common.BoundedExecutor;
 import org.jcodec.common.IntObjectMap;
 import org.jcodec.common.UsedViaReflection;
 import org.jcodec.common.VideoCodecMeta;
 import org.jcodec.common.VideoDecoder;
 import org.jcodec.common.io.BitReader;
+import org.jcodec.common.io.NIOUtils;
 import org.jcodec.common.logging.Logger;
 import org.jcodec.common.model.ColorSpace;
 import org.jcodec.common.model.Rect;
 import org.jcodec.common.model.Size;
+import org.jcodec.platform.Platform;
 
 /**
  * This class is part of JCodec ( www.jcodec.org ) This software is distributed
@@ -51,20 +62,59 @@ import org.jcodec.common.model.Size;
  */
 public class H264Decoder extends VideoDecoder {
 
+    private static ExecutorService sharedPool;
+
     private Frame[] sRefs;
     private IntObjectMap<Frame> lRefs;
-    private List<Frame> pictureBuffer;
+    private FramePool framePool;
+    private List<DeblockerInput> spareInputs;
     private POCManager poc;
     private FrameReader reader;
     private ExecutorService tp;
     private boolean threaded;
+    private int frameThreads;
+    private LinkedList<FrameInFlight> framesInFlight;
 
+    /**
+     * Creates a decoder that runs its parallel work on the thread pool shared
+     * by all the decoders created this way.
+     */
     public H264Decoder() {
-        pictureBuffer = new ArrayList<Frame>();
+        this(Runtime.getRuntime().availableProcessors() > 1 ? getSharedPool() : null, Runtime.getRuntime()
+                .availableProcessors());
+    }
+
+    /**
+     * Creates a decoder that runs its parallel work on the supplied executor.
+     * The executor may be shared by many decoders and is not shut down by this
+     * decoder. Frame threaded decoding expects the executor to start the tasks
+     * in the order they are submitted.
+     * 
+     * @param executor
+     *            The executor or null for a single threaded decoder
+     * @param maxThreads
+     *            The maximum number of tasks this decoder runs on the executor
+     *            at the same time
+     */
+    public H264Decoder(ExecutorService executor, int maxThreads) {
+        framePool = new FramePoolImpl();
+        spareInputs = new ArrayList<DeblockerInput>();
         poc = new POCManager();
-        this.threaded = Runtime.getRuntime().availableProcessors() > 1;
+        framesInFlight = new LinkedList<FrameInFlight>();
+        this.threaded = executor != null && maxThreads > 0;
         if (threaded) {
-            tp = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+            tp = new BoundedExecutor(executor, maxThreads);
+        }
+        reader = new FrameReader();
+    }
+
+    /**
+     * The default thread pool shared by the decoders, has one daemon thread
+     * per available processor.
+     */
+    public static synchronized ExecutorService getSharedPool() {
+        if (sharedPool == null) {
+            sharedPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
                 public Thread newThread(Runnable r) {
                     Thread t = Executors.defaultThreadFactory().newThread(r);
                     t.setDaemon(true);
@@ -72,7 +122,137 @@ public class H264Decoder extends VideoDecoder {
                 }
             });
         }
-        reader = new FrameReader();
+        return sharedPool;
+    }
+
+    /**
+     * Makes this decoder take its output and reference frames from the given
+     * pool, the pool may be shared between decoders.
+     * 
+     * @param framePool
+     */
+    public void setFramePool(FramePool framePool) {
+        this.framePool = framePool;
+    }
+
+    /**
+     * Hands a frame that was decoded without a caller supplied buffer back to
+     * the decoder. The frame goes back to the pool as soon as it is not used
+     * as a reference anymore.
+     * 
+     * @param frame
+     */
+    public void releaseFrame(Frame frame) {
+        putBack(frame);
+    }
+
+    private void putBack(Frame frame) {
+        if (frame.decRefCnt())
+            framePool.putBack(frame);
+    }
+
+    /**
+     * Takes a frame from the pool for a picture of the given SPS, the frame is
+     * held by the caller
+     */
+    private Frame takeFrame(SeqParameterSet sps) {
+        Frame frame = framePool.getFrame(sps.picWidthInMbsMinus1 + 1 << 4, SeqParameterSet.getPicHeightInMbs(sps) << 4,
+                ColorSpace.YUV420);
+        frame.incRefCnt();
+        return frame;
+    }
+
+    /**
+     * Takes a recycled deblocker input that writes the motion vectors and the
+     * reference table of the given frame.
+     */
+    private DeblockerInput takeInput(SeqParameterSet sps, Frame frame) {
+        frame.getMvs().clear();
+        Arrays.fill(frame.getRefsUsed(), null);
+        synchronized (spareInputs) {
+            for (int i = 0; i < spareInputs.size(); i++) {
+                if (spareInputs.get(i).compatible(sps)) {
+                    DeblockerInput di = spareInputs.remove(i);
+                    di.reuse(frame.getMvs(), frame.getRefsUsed());
+                    return di;
+                }
+            }
+            spareInputs.clear();
+        }
+        return new DeblockerInput(sps, frame.getMvs(), frame.getRefsUsed());
+    }
+
+    private void putBackInput(DeblockerInput di) {
+        synchronized (spareInputs) {
+            spareInputs.add(di);
+        }
+    }
+
+    /**
+     * Enables frame threaded decoding. In this mode the frames are decoded
+     * concurrently, a frame starts decoding as soon as the lines of the
+     * reference frames it needs are reconstructed and deblocked. The frames
+     * are submitted with decodeFrameAsync, only they overlap. A call to the
+     * synchronous decodeFrame waits for the frames in flight and then decodes
+     * its frame on the calling thread.
+     * 
+     * @param depth
+     *            The maximum number of the frames being decoded at the same
+     *            time, 0 disables frame threading
+     */
+    public void setFrameThreads(int depth) {
+        while (!framesInFlight.isEmpty())
+            retireFrame();
+        this.frameThreads = depth;
+        if (depth > 0 && tp == null)
+            tp = new BoundedExecutor(getSharedPool(), depth);
+    }
+
+    /**
+     * Submits a frame for decoding in frame threaded mode, blocks if the
+     * maximum number of frames are already being decoded.
+     * 
+     * The output buffer must not be reused until the returned future is
+     * complete, the frames are decoded in the order they are submitted.
+     * 
+     * @param data
+     * @param buffer
+     *            The output buffer or null to output a frame from the frame
+     *            pool that has to be released with releaseFrame
+     * @return A future of the decoded frame or null if there was nothing to
+     *         decode
+     */
+    public Future<Frame> decodeFrameAsync(ByteBuffer data, byte[][] buffer) {
+        if (frameThreads <= 0)
+            throw new IllegalStateException("Frame threading is not enabled, use setFrameThreads.");
+        return new FrameDecoder(this).decodeFrameAsync(H264Utils.splitFrame(NIOUtils.clone(data)), buffer);
+    }
+
+    /**
+     * Waits for the oldest frame in flight and recycles the reference frames
+     * it was the last one to use
+     */
+    private void retireFrame() {
+        FrameInFlight head = framesInFlight.removeFirst();
+        try {
+            head.future.get();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            // Reported to the owner of the future
+        }
+        for (Frame frame : head.released)
+            putBack(frame);
+    }
+
+    private static final class FrameInFlight {
+        private final Future<Frame> future;
+        private final List<Frame> released;
+
+        private FrameInFlight(Future<Frame> future, List<Frame> released) {
+            this.future = future;
+            this.released = released;
+        }
     }
 
     /**
@@ -83,7 +263,17 @@ public class H264Decoder extends VideoDecoder {
      * @param codecPrivate
      */
     public static H264Decoder createH264DecoderFromCodecPrivate(ByteBuffer codecPrivate) {
-        H264Decoder d = new H264Decoder();
+        return createH264DecoderFromCodecPrivate(codecPrivate, new H264Decoder());
+    }
+
+    /**
+     * Initializes the given decoder from a portion of a stream that contains
+     * AnnexB delimited SPS/PPS NAL units.
+     * 
+     * @param codecPrivate
+     * @param d
+     */
+    public static H264Decoder createH264DecoderFromCodecPrivate(ByteBuffer codecPrivate, H264Decoder d) {
         for (ByteBuffer bb : H264Utils.splitFrame(codecPrivate.duplicate())) {
             NALUnit nu = NALUnit.read(bb);
             if (nu.type == NALUnitType.SPS) {
@@ -95,12 +285,22 @@ public class H264Decoder extends VideoDecoder {
         return d;
     }
 
+    /**
+     * Decodes a frame into the caller supplied buffer or, when the buffer is
+     * null, into a frame from the frame pool. The pooled frame is shared with
+     * the decoded picture buffer, so no copy is made, and has to be handed
+     * back with releaseFrame.
+     */
     @Override
     public Frame decodeFrame(ByteBuffer data, byte[][] buffer) {
         return decodeFrameFromNals(H264Utils.splitFrame(data), buffer);
     }
 
     public Frame decodeFrameFromNals(List<ByteBuffer> nalUnits, byte[][] buffer) {
+        // A synchronous caller gains nothing from frame threading, the frame
+        // would be waited for right away
+        while (!framesInFlight.isEmpty())
+            retireFrame();
         return new FrameDecoder(this).decodeFrame(nalUnits, buffer);
     }
 
@@ -116,8 +316,10 @@ public class H264Decoder extends VideoDecoder {
         }
 
         public void run() {
-            new SliceDecoder(fdec.activeSps, fdec.dec.sRefs, fdec.dec.lRefs, fdec.di, result)
-                    .decodeFromReader(sliceReader);
+            SliceDecoder sliceDecoder = new SliceDecoder(fdec.activeSps, fdec.dec.sRefs, fdec.dec.lRefs, fdec.di,
+                    result);
+            sliceDecoder.setRowDeblocker(fdec.rowDeblocker);
+            sliceDecoder.decodeFromReader(sliceReader);
         }
     }
 
@@ -128,6 +330,9 @@ public class H264Decoder extends VideoDecoder {
         private NALUnit firstNu;
         private H264Decoder dec;
         private DeblockerInput di;
+        private List<Frame> released;
+        private RowDeblocker rowDeblocker;
+        private boolean pooled;
 
         public FrameDecoder(H264Decoder decoder) {
             this.dec = decoder;
@@ -137,30 +342,130 @@ public class H264Decoder extends VideoDecoder {
             List<SliceReader> sliceReaders = dec.reader.readFrame(nalUnits);
             if (sliceReaders == null || sliceReaders.size() == 0)
                 return null;
-            final Frame result = init(sliceReaders.get(0), buffer);
+            final Frame result = init(sliceReaders.get(0), buffer, false);
             if (dec.threaded && sliceReaders.size() > 1) {
+                // Slices are decoded on the pool, this thread runs the
+                // deblocking stage behind them
+                rowDeblocker = createRowDeblocker(result, false);
                 List<Future<?>> futures = new ArrayList<Future<?>>();
                 for (SliceReader sliceReader : sliceReaders) {
                     futures.add(dec.tp.submit(new SliceDecoderRunnable(this, sliceReader, result)));
                 }
 
-                for (Future<?> future : futures) {
-                    waitForSure(future);
+                try {
+                    for (Future<?> future : futures) {
+                        waitForSure(future);
+                    }
+                } catch (RuntimeException e) {
+                    rowDeblocker.abort();
+                    throw e;
+                }
+                rowDeblocker.finish();
+                rowDeblocker.deblockRows();
+            } else if (dec.threaded) {
+                // Deblocking stage runs on the pool one macroblock row behind
+                // the reconstruction
+                rowDeblocker = createRowDeblocker(result, false);
+                Future<?> deblocking = dec.tp.submit(new Runnable() {
+                    public void run() {
+                        rowDeblocker.deblockRows();
+                    }
+                });
+                try {
+                    for (SliceReader sliceReader : sliceReaders) {
+                        SliceDecoder sliceDecoder = new SliceDecoder(activeSps, dec.sRefs, dec.lRefs, di, result);
+                        sliceDecoder.setRowDeblocker(rowDeblocker);
+                        sliceDecoder.decodeFromReader(sliceReader);
+                    }
+                    rowDeblocker.finish();
+                } catch (RuntimeException e) {
+                    rowDeblocker.abort();
+                    throw e;
+                } finally {
+                    waitForSure(deblocking);
                 }
-
             } else {
                 for (SliceReader sliceReader : sliceReaders) {
                     new SliceDecoder(activeSps, dec.sRefs, dec.lRefs, di, result).decodeFromReader(sliceReader);
                 }
+                filter.deblockFrame(result);
+                if (extendEdges())
+                    result.extendEdges(0, Integer.MAX_VALUE);
             }
 
-            filter.deblockFrame(result);
-
             updateReferences(result);
+            if (buffer == null)
+                dec.putBackInput(di);
 
             return result;
         }
 
+        public Future<Frame> decodeFrameAsync(List<ByteBuffer> nalUnits, final byte[][] buffer) {
+            while (!dec.framesInFlight.isEmpty()
+                    && (dec.framesInFlight.size() >= dec.frameThreads || dec.framesInFlight.getFirst().future.isDone()))
+                dec.retireFrame();
+
+            final List<SliceReader> sliceReaders = dec.reader.readFrame(nalUnits);
+            if (sliceReaders == null || sliceReaders.size() == 0)
+                return null;
+            final Frame frame = init(sliceReaders.get(0), buffer, true);
+            frame.startDecoding();
+
+            // Reference lists are built before the marking of this frame
+            // changes the DPB
+            final Frame[][][] refLists = new Frame[sliceReaders.size()][][];
+            for (int i = 0; i < refLists.length; i++) {
+                refLists[i] = new RefListManager(sliceReaders.get(i).getSliceHeader(), dec.sRefs, dec.lRefs, frame)
+                        .getRefList();
+            }
+            released = new ArrayList<Frame>();
+            updateReferences(frame);
+
+            Future<Frame> future = dec.tp.submit(new Callable<Frame>() {
+                public Frame call() {
+                    try {
+                        RowDeblocker rowDeblocker = createRowDeblocker(frame, true);
+                        for (int i = 0; i < refLists.length; i++) {
+                            SliceDecoder sliceDecoder = new SliceDecoder(activeSps, dec.sRefs, dec.lRefs, di, frame);
+                            sliceDecoder.setRowDeblocker(rowDeblocker);
+                            sliceDecoder.decodeFromReader(sliceReaders.get(i), refLists[i]);
+                        }
+                        rowDeblocker.finish();
+                    } finally {
+                        frame.setLinesReady(Integer.MAX_VALUE);
+                    }
+                    dec.putBackInput(di);
+                    if (buffer == null)
+                        return frame;
+                    // The pooled frame's motion vectors and reference table
+                    // are recycled once it's put back, the result keeps copies
+                    Frame[][][] refsUsed = frame.getRefsUsed();
+                    Frame result = createFrame(activeSps, buffer, frame.getFrameNo(), frame.getFrameType(),
+                            frame.getMvs().copy(), Platform.copyOfObj(refsUsed, refsUsed.length), frame.getPOC());
+                    result.copyFrom(frame);
+                    result.setShortTerm(frame.isShortTerm());
+                    dec.putBack(frame);
+                    return result;
+                }
+            });
+            dec.framesInFlight.add(new FrameInFlight(future, released));
+            return future;
+        }
+
+        private RowDeblocker createRowDeblocker(Frame frame, boolean inline) {
+            return new RowDeblocker(filter, frame, activeSps.picWidthInMbsMinus1 + 1,
+                    SeqParameterSet.getPicHeightInMbs(activeSps), inline, extendEdges());
+        }
+
+        /**
+         * Pooled reference frames are used for prediction as they are, so they
+         * get their edges extended as they are decoded. The references copied
+         * out of the caller's buffer are padded when they are saved.
+         */
+        private boolean extendEdges() {
+            return pooled && firstNu.nal_ref_idc != 0;
+        }
+
         private void waitForSure(Future<?> future) {
             while (true) {
                 try {
@@ -182,7 +487,13 @@ public class H264Decoder extends VideoDecoder {
             }
         }
 
-        private Frame init(SliceReader sliceReader, byte[][] buffer) {
+        /**
+         * Sets up the decoding of a frame. The frame is decoded into the
+         * supplied buffer unless the decoding is asynchronous or there's no
+         * buffer, then a frame from the pool is used together with a recycled
+         * deblocker input.
+         */
+        private Frame init(SliceReader sliceReader, byte[][] buffer, boolean async) {
             firstNu = sliceReader.getNALUnit();
 
             firstSliceHeader = sliceReader.getSliceHeader();
@@ -197,10 +508,19 @@ public class H264Decoder extends VideoDecoder {
                 dec.lRefs = new IntObjectMap<Frame>();
             }
 
-            di = new DeblockerInput(activeSps);
-
-            Frame result = createFrame(activeSps, buffer, firstSliceHeader.frameNum, firstSliceHeader.sliceType,
-                    di.mvs, di.refsUsed, dec.poc.calcPOC(firstSliceHeader, firstNu));
+            int poc = dec.poc.calcPOC(firstSliceHeader, firstNu);
+            Frame result;
+            if (buffer != null && !async) {
+                di = new DeblockerInput(activeSps);
+                result = createFrame(activeSps, buffer, firstSliceHeader.frameNum, firstSliceHeader.sliceType,
+                        di.mvs, di.refsUsed, poc);
+            } else {
+                pooled = true;
+                result = dec.takeFrame(activeSps);
+                di = dec.takeInput(activeSps, result);
+                result.reuse(firstSliceHeader.frameNum, firstSliceHeader.sliceType, di.mvs, di.refsUsed, poc,
+                        getCrop(activeSps));
+            }
 
             filter = new DeblockingFilter(picWidthInMbs, activeSps.bitDepthChromaMinus8 + 8, di);
 
@@ -228,7 +548,6 @@ public class H264Decoder extends VideoDecoder {
 
         public void performIDRMarking(RefPicMarkingIDR refPicMarkingIDR, Frame picture) {
             clearAll();
-            dec.pictureBuffer.clear();
 
             Frame saved = saveRef(picture);
             if (refPicMarkingIDR.isUseForlongTerm()) {
@@ -239,15 +558,26 @@ public class H264Decoder extends VideoDecoder {
         }
 
         private Frame saveRef(Frame decoded) {
-            Frame frame = dec.pictureBuffer.size() > 0 ? dec.pictureBuffer.remove(0) : Frame.createFrame(decoded);
+            // Pooled frames are used as the references as they are
+            if (pooled) {
+                decoded.incRefCnt();
+                return decoded;
+            }
+            Frame frame = dec.framePool.getFrame(decoded.getWidth(), decoded.getHeight(), decoded.getColor());
+            frame.incRefCnt();
             frame.copyFromFrame(decoded);
+            frame.extendEdges(0, Integer.MAX_VALUE);
             return frame;
         }
 
         private void releaseRef(Frame picture) {
-            if (picture != null) {
-                dec.pictureBuffer.add(picture);
-            }
+            if (picture == null)
+                return;
+            // Frames in flight may still be reading from this picture
+            if (released != null)
+                released.add(picture);
+            else
+                dec.putBack(picture);
         }
 
         public void clearAll() {
@@ -369,15 +699,20 @@ public class H264Decoder extends VideoDecoder {
         int width = sps.picWidthInMbsMinus1 + 1 << 4;
         int height = SeqParameterSet.getPicHeightInMbs(sps) << 4;
 
-        Rect crop = null;
-        if (sps.frameCroppingFlag) {
-            int sX = sps.frameCropLeftOffset << 1;
-            int sY = sps.frameCropTopOffset << 1;
-            int w = width - (sps.frameCropRightOffset << 1) - sX;
-            int h = height - (sps.frameCropBottomOffset << 1) - sY;
-            crop = new Rect(sX, sY, w, h);
-        }
-        return new Frame(width, height, buffer, ColorSpace.YUV420, crop, frameNum, frameType, mvs, refsUsed, POC);
+        return new Frame(width, height, buffer, ColorSpace.YUV420, getCrop(sps), frameNum, frameType, mvs, refsUsed,
+                POC);
+    }
+
+    private static Rect getCrop(SeqParameterSet sps) {
+        if (!sps.frameCroppingFlag)
+            return null;
+        int width = sps.picWidthInMbsMinus1 + 1 << 4;
+        int height = SeqParameterSet.getPicHeightInMbs(sps) << 4;
+        int sX = sps.frameCropLeftOffset << 1;
+        int sY = sps.frameCropTopOffset << 1;
+        int w = width - (sps.frameCropRightOffset << 1) - sX;
+        int h = height - (sps.frameCropBottomOffset << 1) - sY;
+        return new Rect(sX, sY, w, h);
     }
 
     public void addSps(List<ByteBuffer> spsList) {
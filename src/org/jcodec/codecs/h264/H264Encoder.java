@@ -8,6 +8,8 @@ import org.jcodec.codecs.h264.encode.MBEncoderHelper;
 import org.jcodec.codecs.h264.encode.MBEncoderI16x16;
 import org.jcodec.codecs.h264.encode.MBEncoderP16x16;
 import org.jcodec.codecs.h264.encode.MotionEstimator;
+import org.jcodec.codecs.h264.encode.MotionSearch;
+import org.jcodec.codecs.h264.encode.PictureRateControl;
 import org.jcodec.codecs.h264.encode.RateControl;
 import org.jcodec.codecs.h264.io.CAVLC;
 import org.jcodec.codecs.h264.io.model.MBType;
@@ -29,6 +31,11 @@ import org.jcodec.common.model.Size;
 import org.jcodec.common.tools.MathUtil;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * This class is part of JCodec ( www.jcodec.org ) This software is distributed
@@ -51,13 +58,12 @@ public class H264Encoder extends VideoEncoder {
         return new H264Encoder(new DumbRateControl());
     }
 
-    private CAVLC[] cavlc;
-    private byte[][] leftRow;
-    private byte[][] topLine;
     private RateControl rc;
     private int frameNumber;
     private int keyInterval;
     private int motionSearchRange;
+    private MotionSearch motionSearch;
+    private boolean subPelMotion;
 
     private int maxPOC;
 
@@ -67,20 +73,39 @@ public class H264Encoder extends VideoEncoder {
 
     private PictureParameterSet pps;
 
-    private MBEncoderI16x16 mbEncoderI16x16;
-
-    private MBEncoderP16x16 mbEncoderP16x16;
-
     private Picture ref;
     private Picture picOut;
-    private EncodedMB[] topEncoded;
 
-    private EncodedMB outMB;
+    private int numSlices;
+    private ExecutorService executor;
+    private SliceEncoder[] slices;
 
     public H264Encoder(RateControl rc) {
         this.rc = rc;
         this.keyInterval = KEY_INTERVAL_DEFAULT;
         this.motionSearchRange = MOTION_SEARCH_RANGE_DEFAULT;
+        this.numSlices = 1;
+    }
+
+    /**
+     * Splits the frames into the given number of slices, each slice is a band
+     * of whole macroblock rows. The slices are encoded in parallel on the
+     * executor or one after another on the calling thread when the executor
+     * is null. Takes effect with the next IDR frame.
+     * 
+     * With more then one slice the rate control only selects the QP of the
+     * picture. Within a slice the QP follows the slice's share of the picture
+     * size limit, so the stream doesn't depend on the order the slices are
+     * scheduled in.
+     * 
+     * @param numSlices
+     * @param executor
+     */
+    public void setSlices(int numSlices, ExecutorService executor) {
+        if (numSlices < 1)
+            throw new IllegalArgumentException("At least one slice is needed.");
+        this.numSlices = numSlices;
+        this.executor = executor;
     }
 
     public int getKeyInterval() {
@@ -99,6 +124,21 @@ public class H264Encoder extends VideoEncoder {
         this.motionSearchRange = motionSearchRange;
     }
 
+    /**
+     * Selects the motion search strategy. With a strategy the search is
+     * seeded with the predicted motion vectors and the result is optionally
+     * refined to quarter pel. The default is the greedy full pel search from
+     * the co-located block.
+     * 
+     * @param motionSearch
+     *            The strategy or null for the default search
+     * @param subPel
+     */
+    public void setMotionSearch(MotionSearch motionSearch, boolean subPel) {
+        this.motionSearch = motionSearch;
+        this.subPelMotion = subPel;
+    }
+
     /**
      * Encode this picture into h.264 frame. Frame type will be selected by
      * encoder.
@@ -147,6 +187,7 @@ public class H264Encoder extends VideoEncoder {
 
     public ByteBuffer doEncodeFrame(Picture pic, ByteBuffer _out, boolean idr, int frameNumber, SliceType frameType) {
         ByteBuffer dup = _out.duplicate();
+        int start = dup.position();
         int maxSize = Math.min(dup.remaining(), pic.getWidth() * pic.getHeight());
         maxSize -= (maxSize >>> 6); // 1.5% to account for escaping
         int qp = rc.startPicture(pic.getSize(), maxSize, frameType);
@@ -172,25 +213,78 @@ public class H264Encoder extends VideoEncoder {
         int mbWidth = sps.picWidthInMbsMinus1 + 1;
         int mbHeight = sps.picHeightInMapUnitsMinus1 + 1;
 
-        leftRow = new byte[][] { new byte[16], new byte[8], new byte[8] };
-        topLine = new byte[][] { new byte[mbWidth << 4], new byte[mbWidth << 3], new byte[mbWidth << 3] };
-        picOut = Picture.create(mbWidth << 4, mbHeight << 4, ColorSpace.YUV420J);
-
-        outMB = new EncodedMB();
-        topEncoded = new EncodedMB[mbWidth];
-        for (int i = 0; i < mbWidth; i++)
-            topEncoded[i] = new EncodedMB();
+        if (idr)
+            initSlices(mbWidth, mbHeight);
+        if (picOut == null || picOut.getWidth() != mbWidth << 4 || picOut.getHeight() != mbHeight << 4)
+            picOut = Picture.create(mbWidth << 4, mbHeight << 4, ColorSpace.YUV420J);
 
-        encodeSlice(sps, pps, pic, dup, idr, frameNumber, frameType, qp);
+        if (idr && frameType != SliceType.I) {
+            idr = false;
+            Logger.warn("Illegal value of idr = true when sliceType != I");
+        }
+        encodeSlices(pic, idr, frameNumber, frameType, qp, maxSize);
+        for (SliceEncoder slice : slices) {
+            dup.putInt(0x1);
+            new NALUnit(idr ? NALUnitType.IDR_SLICE : NALUnitType.NON_IDR_SLICE, 3).write(dup);
+            escapeNAL(slice.buf, dup);
+        }
 
-        putLastMBLine();
+        if (rc instanceof PictureRateControl)
+            ((PictureRateControl) rc).endPicture((dup.position() - start) << 3);
 
+        // The reference of the previous frame is recycled as the output of
+        // the next one
+        Picture tmp = ref;
         ref = picOut;
+        picOut = tmp;
 
         dup.flip();
         return dup;
     }
 
+    private void initSlices(int mbWidth, int mbHeight) {
+        int n = Math.min(numSlices, mbHeight);
+        if (slices != null && slices.length == n && slices[0].topEncoded.length == mbWidth
+                && slices[n - 1].lastRow == mbHeight)
+            return;
+        slices = new SliceEncoder[n];
+        for (int i = 0; i < n; i++)
+            slices[i] = new SliceEncoder(mbWidth, (mbHeight * i) / n, (mbHeight * (i + 1)) / n,
+                    n == 1 ? rc : new DumbRateControl());
+    }
+
+    private void encodeSlices(final Picture pic, final boolean idr, final int frameNum, final SliceType sliceType,
+            final int qp, int maxSize) {
+        if (slices.length > 1) {
+            // Every slice gets it's budget before any of them starts
+            int mbHeight = slices[slices.length - 1].lastRow;
+            for (SliceEncoder slice : slices)
+                slice.startBand(pic.getWidth(), maxSize, mbHeight, sliceType);
+        }
+        if (slices.length == 1 || executor == null) {
+            for (SliceEncoder slice : slices)
+                slice.encodeSlice(pic, idr, frameNum, sliceType, qp);
+            return;
+        }
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (final SliceEncoder slice : slices) {
+            futures.add(executor.submit(new Runnable() {
+                public void run() {
+                    slice.encodeSlice(pic, idr, frameNum, sliceType, qp);
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            }
+        }
+    }
+
     private void writePPS(ByteBuffer dup, PictureParameterSet pps) {
         ByteBuffer tmp = ByteBuffer.allocate(1024);
         pps.write(tmp);
@@ -208,6 +302,9 @@ public class H264Encoder extends VideoEncoder {
     public PictureParameterSet initPPS() {
         PictureParameterSet pps = new PictureParameterSet();
         pps.picInitQpMinus26 = 0; // start with qp = 26
+        // Multiple slices are encoded independently, so they are not filtered
+        // across the slice boundaries
+        pps.deblockingFilterControlPresentFlag = numSlices > 1;
         return pps;
     }
 
@@ -231,106 +328,205 @@ public class H264Encoder extends VideoEncoder {
         return sps;
     }
 
-    private void encodeSlice(SeqParameterSet sps, PictureParameterSet pps, Picture pic, ByteBuffer dup, boolean idr,
-            int frameNum, SliceType sliceType, int qp) {
-        if (idr && sliceType != SliceType.I) {
-            idr = false;
-            Logger.warn("Illegal value of idr = true when sliceType != I");
+    /**
+     * Encodes one band of macroblock rows as a slice, keeps it's working
+     * buffers between the frames
+     */
+    private class SliceEncoder {
+        private int firstRow;
+        private int lastRow;
+        private byte[][] leftRow;
+        private byte[][] topLine;
+        private EncodedMB[] topEncoded;
+        private EncodedMB outMB;
+        private Picture band;
+        private ByteBuffer buf;
+        private MBEncoderI16x16 mbEncoderI16x16;
+        private MBEncoderP16x16 mbEncoderP16x16;
+        private MotionEstimator me;
+        private MotionSearch meSearch;
+        private RateControl bandRc;
+
+        public SliceEncoder(int mbWidth, int firstRow, int lastRow, RateControl bandRc) {
+            this.firstRow = firstRow;
+            this.lastRow = lastRow;
+            this.bandRc = bandRc;
+            leftRow = new byte[][] { new byte[16], new byte[8], new byte[8] };
+            topLine = new byte[][] { new byte[mbWidth << 4], new byte[mbWidth << 3], new byte[mbWidth << 3] };
+            outMB = new EncodedMB();
+            topEncoded = new EncodedMB[mbWidth];
+            for (int i = 0; i < mbWidth; i++)
+                topEncoded[i] = new EncodedMB();
+            buf = ByteBuffer.allocate((mbWidth << 4) * ((lastRow - firstRow) << 4) + 1024);
         }
-        cavlc = new CAVLC[] { new CAVLC(sps, pps, 2, 2), new CAVLC(sps, pps, 1, 1), new CAVLC(sps, pps, 1, 1) };
-        mbEncoderI16x16 = new MBEncoderI16x16(cavlc, leftRow, topLine);
-        mbEncoderP16x16 = new MBEncoderP16x16(sps, ref, cavlc, new MotionEstimator(motionSearchRange));
-
-        dup.putInt(0x1);
-        new NALUnit(idr ? NALUnitType.IDR_SLICE : NALUnitType.NON_IDR_SLICE, 3).write(dup);
-        SliceHeader sh = new SliceHeader();
-        sh.sliceType = sliceType;
-        if (idr)
-            sh.refPicMarkingIDR = new RefPicMarkingIDR(false, false);
-        sh.pps = pps;
-        sh.sps = sps;
-        sh.picOrderCntLsb = (frameNum << 1) % maxPOC;
-        sh.frameNum = frameNum % maxFrameNumber;
-        sh.sliceQpDelta = qp - (pps.picInitQpMinus26 + 26);
-
-        ByteBuffer buf = ByteBuffer.allocate(pic.getWidth() * pic.getHeight());
-        BitWriter sliceData = new BitWriter(buf);
-        SliceHeaderWriter.write(sh, idr, 2, sliceData);
-
-        for (int mbY = 0, mbAddr = 0; mbY < sps.picHeightInMapUnitsMinus1 + 1; mbY++) {
-            for (int mbX = 0; mbX < sps.picWidthInMbsMinus1 + 1; mbX++, mbAddr++) {
-                if (sliceType == SliceType.P) {
-                    CAVLCWriter.writeUE(sliceData, 0); // number of skipped mbs
-                }
-                
-                MBType mbType = selectMBType(sliceType);
-
-                if (mbType == MBType.I_16x16) {
-                    // I16x16 carries part of layout information in the
-                    // macroblock type
-                    // itself for this reason we'll have to decide it now to
-                    // embed into
-                    // macroblock type
-                    int predMode = mbEncoderI16x16.getPredMode(pic, mbX, mbY);
-                    int cbpChroma = mbEncoderI16x16.getCbpChroma(pic, mbX, mbY);
-                    int cbpLuma = mbEncoderI16x16.getCbpLuma(pic, mbX, mbY);
-
-                    int i16x16TypeOffset = (cbpLuma / 15) * 12 + cbpChroma * 4 + predMode;
-                    int mbTypeOffset = sliceType == SliceType.P ? 5 : 0;
-
-                    CAVLCWriter.writeUE(sliceData, mbTypeOffset + mbType.code() + i16x16TypeOffset);
-                } else {
-                    CAVLCWriter.writeUE(sliceData, mbType.code());
+
+        /**
+         * Gives the slice it's share of the picture size limit, the QP of the
+         * picture is kept and only adjusted per macroblock
+         */
+        private void startBand(int width, int maxSize, int mbHeight, SliceType sliceType) {
+            int rows = lastRow - firstRow;
+            bandRc.startPicture(new Size(width, rows << 4), (int) ((long) maxSize * rows / mbHeight), sliceType);
+        }
+
+        /**
+         * The part of the input picture covered by this slice, the first
+         * macroblock row of the slice becomes row 0 so the neighbours from
+         * the other slices are not available.
+         */
+        private Picture takeBand(Picture pic) {
+            if (firstRow == 0)
+                return pic;
+            int y = firstRow << 4;
+            int h = Math.min(lastRow << 4, pic.getHeight()) - y;
+            if (band == null || band.getWidth() != pic.getWidth() || band.getHeight() != h)
+                band = Picture.create(pic.getWidth(), h, ColorSpace.YUV420J);
+            for (int plane = 0; plane < 3; plane++) {
+                int shift = plane == 0 ? 0 : 1;
+                int stride = pic.getPlaneWidth(plane);
+                arraycopy(pic.getPlaneData(plane), (y >> shift) * stride, band.getPlaneData(plane), 0,
+                        (h >> shift) * stride);
+            }
+            return band;
+        }
+
+        public void encodeSlice(Picture pic, boolean idr, int frameNum, SliceType sliceType, int qp) {
+            Picture src = takeBand(pic);
+            int mbWidth = sps.picWidthInMbsMinus1 + 1;
+            CAVLC[] cavlc = new CAVLC[] { new CAVLC(sps, pps, 2, 2), new CAVLC(sps, pps, 1, 1),
+                    new CAVLC(sps, pps, 1, 1) };
+            mbEncoderI16x16 = new MBEncoderI16x16(cavlc, leftRow, topLine);
+            mbEncoderP16x16 = new MBEncoderP16x16(sps, ref, cavlc, getMotionEstimator(), firstRow);
+
+            SliceHeader sh = new SliceHeader();
+            sh.sliceType = sliceType;
+            if (idr)
+                sh.refPicMarkingIDR = new RefPicMarkingIDR(false, false);
+            sh.pps = pps;
+            sh.sps = sps;
+            sh.firstMbInSlice = firstRow * mbWidth;
+            sh.picOrderCntLsb = (frameNum << 1) % maxPOC;
+            sh.frameNum = frameNum % maxFrameNumber;
+            sh.sliceQpDelta = qp - (pps.picInitQpMinus26 + 26);
+            if (pps.deblockingFilterControlPresentFlag)
+                sh.disableDeblockingFilterIdc = 2;
+
+            buf.clear();
+            BitWriter sliceData = new BitWriter(buf);
+            SliceHeaderWriter.write(sh, idr, 2, sliceData);
+
+            for (int mbY = 0; mbY < lastRow - firstRow; mbY++) {
+                for (int mbX = 0; mbX < mbWidth; mbX++) {
+                    if (sliceType == SliceType.P) {
+                        CAVLCWriter.writeUE(sliceData, 0); // number of skipped mbs
+                    }
+
+                    MBType mbType = selectMBType(sliceType);
+
+                    if (mbType == MBType.I_16x16) {
+                        // I16x16 carries part of layout information in the
+                        // macroblock type
+                        // itself for this reason we'll have to decide it now to
+                        // embed into
+                        // macroblock type
+                        int predMode = mbEncoderI16x16.getPredMode(src, mbX, mbY);
+                        int cbpChroma = mbEncoderI16x16.getCbpChroma(src, mbX, mbY);
+                        int cbpLuma = mbEncoderI16x16.getCbpLuma(src, mbX, mbY);
+
+                        int i16x16TypeOffset = (cbpLuma / 15) * 12 + cbpChroma * 4 + predMode;
+                        int mbTypeOffset = sliceType == SliceType.P ? 5 : 0;
+
+                        CAVLCWriter.writeUE(sliceData, mbTypeOffset + mbType.code() + i16x16TypeOffset);
+                    } else {
+                        CAVLCWriter.writeUE(sliceData, mbType.code());
+                    }
+
+                    BitWriter candidate;
+                    int totalQpDelta = 0;
+                    int qpDelta = bandRc.initialQpDelta();
+                    do {
+                        candidate = sliceData.fork();
+                        totalQpDelta += qpDelta;
+                        encodeMacroblock(mbType, src, mbX, mbY, candidate, qp, totalQpDelta);
+                        qpDelta = bandRc.accept(candidate.position() - sliceData.position());
+                        if (qpDelta != 0)
+                            restoreMacroblock(mbType);
+                    } while (qpDelta != 0);
+                    sliceData = candidate;
+                    qp += totalQpDelta;
+
+                    collectPredictors(outMB.getPixels(), mbX);
+                    addToReference(mbX, mbY);
                 }
+            }
+            sliceData.write1Bit(1);
+            sliceData.flush();
+            buf = sliceData.getBuffer();
+            buf.flip();
+
+            putLastMBLine();
+        }
 
-                BitWriter candidate;
-                int totalQpDelta = 0;
-                int qpDelta = rc.initialQpDelta();
-                do {
-                    candidate = sliceData.fork();
-                    totalQpDelta += qpDelta;
-                    encodeMacroblock(mbType, pic, mbX, mbY, candidate, qp, totalQpDelta);
-                    qpDelta = rc.accept(candidate.position() - sliceData.position());
-                    if (qpDelta != 0)
-                        restoreMacroblock(mbType);
-                } while (qpDelta != 0);
-                sliceData = candidate;
-                qp += totalQpDelta;
-
-                collectPredictors(outMB.getPixels(), mbX);
-                addToReference(mbX, mbY);
+        /**
+         * The estimator is kept between the frames as long as the settings
+         * don't change, it remembers the motion of the previous frame
+         */
+        private MotionEstimator getMotionEstimator() {
+            if (me == null || me.getMaxSearchRange() != motionSearchRange || meSearch != motionSearch) {
+                meSearch = motionSearch;
+                me = motionSearch == null ? new MotionEstimator(motionSearchRange) : new MotionEstimator(
+                        motionSearchRange, motionSearch, subPelMotion);
             }
+            return me;
         }
-        sliceData.write1Bit(1);
-        sliceData.flush();
-        buf = sliceData.getBuffer();
-        buf.flip();
 
-        escapeNAL(buf, dup);
-    }
+        private void encodeMacroblock(MBType mbType, Picture pic, int mbX, int mbY, BitWriter candidate, int qp,
+                int qpDelta) {
+            if (mbType == MBType.I_16x16) {
+                mbEncoderI16x16.save();
+                mbEncoderI16x16.encodeMacroblock(pic, mbX, mbY, candidate, outMB, mbX > 0 ? topEncoded[mbX - 1]
+                        : null, mbY > 0 ? topEncoded[mbX] : null, qp + qpDelta, qpDelta);
+            } else if (mbType == MBType.P_16x16) {
+                mbEncoderP16x16.save();
+                mbEncoderP16x16.encodeMacroblock(pic, mbX, mbY, candidate, outMB, mbX > 0 ? topEncoded[mbX - 1]
+                        : null, mbY > 0 ? topEncoded[mbX] : null, qp + qpDelta, qpDelta);
+            } else
+                throw new RuntimeException("Macroblock of type " + mbType + " is not supported.");
+        }
 
-    private void encodeMacroblock(MBType mbType, Picture pic, int mbX, int mbY, BitWriter candidate, int qp, int qpDelta) {
-        if (mbType == MBType.I_16x16) {
-            mbEncoderI16x16.save();
-            mbEncoderI16x16.encodeMacroblock(pic, mbX, mbY, candidate, outMB, mbX > 0 ? topEncoded[mbX - 1] : null,
-                    mbY > 0 ? topEncoded[mbX] : null, qp + qpDelta, qpDelta);
-        } else if (mbType == MBType.P_16x16) {
-            mbEncoderP16x16.save();
-            mbEncoderP16x16.encodeMacroblock(pic, mbX, mbY, candidate, outMB, mbX > 0 ? topEncoded[mbX - 1] : null,
-                    mbY > 0 ? topEncoded[mbX] : null, qp + qpDelta, qpDelta);
-        } else
-            throw new RuntimeException("Macroblock of type " + mbType + " is not supported.");
-    }
-    
-    private void restoreMacroblock(MBType mbType) {
-        if (mbType == MBType.I_16x16) {
-            mbEncoderI16x16.restore();
-        } else if (mbType == MBType.P_16x16) {
-            mbEncoderP16x16.restore();
-        } else
-            throw new RuntimeException("Macroblock of type " + mbType + " is not supported.");
+        private void restoreMacroblock(MBType mbType) {
+            if (mbType == MBType.I_16x16) {
+                mbEncoderI16x16.restore();
+            } else if (mbType == MBType.P_16x16) {
+                mbEncoderP16x16.restore();
+            } else
+                throw new RuntimeException("Macroblock of type " + mbType + " is not supported.");
+        }
+
+        private void addToReference(int mbX, int mbY) {
+            if (mbY > 0)
+                MBEncoderHelper.putBlkPic(picOut, topEncoded[mbX].getPixels(), mbX << 4, (firstRow + mbY - 1) << 4);
+            EncodedMB tmp = topEncoded[mbX];
+            topEncoded[mbX] = outMB;
+            outMB = tmp;
+        }
+
+        private void putLastMBLine() {
+            for (int mbX = 0; mbX < topEncoded.length; mbX++)
+                MBEncoderHelper.putBlkPic(picOut, topEncoded[mbX].getPixels(), mbX << 4, (lastRow - 1) << 4);
+        }
+
+        private void collectPredictors(Picture outMB, int mbX) {
+            arraycopy(outMB.getPlaneData(0), 240, topLine[0], mbX << 4, 16);
+            arraycopy(outMB.getPlaneData(1), 56, topLine[1], mbX << 3, 8);
+            arraycopy(outMB.getPlaneData(2), 56, topLine[2], mbX << 3, 8);
+
+            copyCol(outMB.getPlaneData(0), 15, 16, leftRow[0]);
+            copyCol(outMB.getPlaneData(1), 7, 8, leftRow[1]);
+            copyCol(outMB.getPlaneData(2), 7, 8, leftRow[2]);
+        }
     }
-    
+
     private MBType selectMBType(SliceType sliceType) {
         if (sliceType == SliceType.I)
             return MBType.I_16x16;
@@ -340,32 +536,7 @@ public class H264Encoder extends VideoEncoder {
             throw new RuntimeException("Unsupported slice type");
     }
 
-    private void addToReference(int mbX, int mbY) {
-        if (mbY > 0)
-            MBEncoderHelper.putBlkPic(picOut, topEncoded[mbX].getPixels(), mbX << 4, (mbY - 1) << 4);
-        EncodedMB tmp = topEncoded[mbX];
-        topEncoded[mbX] = outMB;
-        outMB = tmp;
-    }
-
-    private void putLastMBLine() {
-        int mbWidth = sps.picWidthInMbsMinus1 + 1;
-        int mbHeight = sps.picHeightInMapUnitsMinus1 + 1;
-        for (int mbX = 0; mbX < mbWidth; mbX++)
-            MBEncoderHelper.putBlkPic(picOut, topEncoded[mbX].getPixels(), mbX << 4, (mbHeight - 1) << 4);
-    }
-
-    private void collectPredictors(Picture outMB, int mbX) {
-        arraycopy(outMB.getPlaneData(0), 240, topLine[0], mbX << 4, 16);
-        arraycopy(outMB.getPlaneData(1), 56, topLine[1], mbX << 3, 8);
-        arraycopy(outMB.getPlaneData(2), 56, topLine[2], mbX << 3, 8);
-
-        copyCol(outMB.getPlaneData(0), 15, 16, leftRow[0]);
-        copyCol(outMB.getPlaneData(1), 7, 8, leftRow[1]);
-        copyCol(outMB.getPlaneData(2), 7, 8, leftRow[2]);
-    }
-
-    private void copyCol(byte[] planeData, int off, int stride, byte[] out) {
+    private static void copyCol(byte[] planeData, int off, int stride, byte[] out) {
         for (int i = 0; i < out.length; i++) {
             out[i] = planeData[off];
             off += stride;
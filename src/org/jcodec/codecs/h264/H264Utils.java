@@ -311,6 +311,9 @@ public class H264Utils {
      */
     public static ByteBuffer decodeMOVPacket(ByteBuffer result, AvcCBox avcC) {
         if (avcC.getNalLengthSize() == 4) {
+            // Read only packets are slices of a mapped file
+            if (result.isReadOnly())
+                result = NIOUtils.clone(result);
             decodeMOVPacketInplace(result, avcC);
             return result;
         }
@@ -1107,5 +1110,15 @@ public class H264Utils {
         public int getWidth() {
             return width;
         }
+
+        /**
+         * @return A copy of the motion vectors that doesn't share the storage
+         *         with this list
+         */
+        public MvList2D copy() {
+            MvList2D copy = new MvList2D(width, height);
+            System.arraycopy(list, 0, copy.list, 0, list.length);
+            return copy;
+        }
     }
 }
\ No newline at end of file
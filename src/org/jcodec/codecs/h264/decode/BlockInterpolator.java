@@ -2,6 +2,7 @@ package org.jcodec.codecs.h264.decode;
 import static java.lang.System.arraycopy;
 import static org.jcodec.common.tools.MathUtil.clip;
 
+import org.jcodec.codecs.h264.io.model.Frame;
 import org.jcodec.common.model.Picture;
 
 /**
@@ -37,6 +38,23 @@ public class BlockInterpolator {
 
         int xFp = x >> 2;
         int yFp = y >> 2;
+        if (pic instanceof Frame) {
+            Frame frame = (Frame) pic;
+            // Blocks further out than the border see nothing but the
+            // replicated edge, those are moved to the border
+            int picW = pic.getWidth(), picH = pic.getHeight();
+            int xPad = clip(xFp, -w - 3, picW + 2);
+            int yPad = clip(yFp, -h - 3, picH + 2);
+            int lines = Math.max(yPad + h + 3, 1);
+            frame.waitForLines(lines);
+            byte[][] padded = frame.getPadded(lines);
+            if (padded != null) {
+                safe[(yInd << 2) + xInd].getLuma(padded[0], picW + (Frame.PAD << 1), picH + (Frame.PAD << 1),
+                        out.getPlaneData(0), off, out.getPlaneWidth(0), xPad + Frame.PAD, yPad + Frame.PAD, w, h);
+                return;
+            }
+            frame.waitForLines(yFp + h + 3);
+        }
         if (xFp < 2 || yFp < 2 || xFp > pic.getWidth() - w - 5 || yFp > pic.getHeight() - h - 5) {
             unsafe[(yInd << 2) + xInd].getLuma(pic.getData()[0], pic.getWidth(), pic.getHeight(), out.getPlaneData(0),
                     off, out.getPlaneWidth(0), xFp, yFp, w, h);
@@ -46,6 +64,29 @@ public class BlockInterpolator {
         }
     }
 
+    /**
+     * Get block of ( possibly interpolated ) chroma pixels from a reference
+     * frame, uses the padded planes of the frame when they are available
+     */
+    public static void getBlockChroma(Frame ref, int comp, byte[] blk, int blkOff, int blkStride, int x, int y,
+            int blkW, int blkH) {
+        int picW = ref.getPlaneWidth(comp);
+        int picH = ref.getPlaneHeight(comp);
+        int xFull = clip(x >> 3, -blkW - 1, picW - 1);
+        int yFull = clip(y >> 3, -blkH - 1, picH - 1);
+        int lines = Math.max(yFull + blkH + 1, 1) << 1;
+        ref.waitForLines(lines);
+        byte[][] padded = ref.getPadded(lines);
+        if (padded == null) {
+            ref.waitForLines(((y >> 3) + blkH + 1) << 1);
+            getBlockChroma(ref.getPlaneData(comp), picW, picH, blk, blkOff, blkStride, x, y, blkW, blkH);
+            return;
+        }
+        int pad = Frame.PAD >> 1;
+        getBlockChroma(padded[comp], picW + (pad << 1), picH + (pad << 1), blk, blkOff, blkStride,
+                ((xFull + pad) << 3) | (x & 0x7), ((yFull + pad) << 3) | (y & 0x7), blkW, blkH);
+    }
+
     public static void getBlockChroma(byte[] pels, int picW, int picH, byte[] blk, int blkOff, int blkStride, int x, int y,
             int blkW, int blkH) {
         int xInd = x & 0x7;
@@ -2,6 +2,8 @@ package org.jcodec.codecs.h264.decode;
 
 import static org.jcodec.codecs.h264.io.model.SeqParameterSet.getPicHeightInMbs;
 
+import java.util.Arrays;
+
 import org.jcodec.codecs.h264.H264Utils;
 import org.jcodec.codecs.h264.io.model.Frame;
 import org.jcodec.codecs.h264.io.model.MBType;
@@ -27,15 +29,44 @@ public class DeblockerInput {
     public SliceHeader[] shs;
 
     public DeblockerInput(SeqParameterSet activeSps) {
+        this(activeSps, new H264Utils.MvList2D(activeSps.picWidthInMbsMinus1 + 1 << 2,
+                getPicHeightInMbs(activeSps) << 2), new Frame[(activeSps.picWidthInMbsMinus1 + 1)
+                * getPicHeightInMbs(activeSps)][][]);
+    }
+
+    /**
+     * Creates a deblocker input that fills in the motion vectors and the
+     * reference table of the frame being decoded
+     */
+    public DeblockerInput(SeqParameterSet activeSps, H264Utils.MvList2D mvs, Frame[][][] refsUsed) {
         int picWidthInMbs = activeSps.picWidthInMbsMinus1 + 1;
         int picHeightInMbs = getPicHeightInMbs(activeSps);
 
         nCoeff = new int[picHeightInMbs << 2][picWidthInMbs << 2];
-        mvs = new H264Utils.MvList2D(picWidthInMbs << 2, picHeightInMbs << 2);
+        this.mvs = mvs;
         mbTypes = new MBType[picHeightInMbs * picWidthInMbs];
         tr8x8Used = new boolean[picHeightInMbs * picWidthInMbs];
         mbQps = new int[3][picHeightInMbs * picWidthInMbs];
         shs = new SliceHeader[picHeightInMbs * picWidthInMbs];
-        refsUsed = new Frame[picHeightInMbs * picWidthInMbs][][];
+        this.refsUsed = refsUsed;
+    }
+
+    public boolean compatible(SeqParameterSet activeSps) {
+        return nCoeff.length == getPicHeightInMbs(activeSps) << 2
+                && nCoeff[0].length == activeSps.picWidthInMbsMinus1 + 1 << 2;
+    }
+
+    /**
+     * Recycles this deblocker input for the next frame, the motion vectors and
+     * the reference table are expected to be cleared by the caller
+     */
+    public void reuse(H264Utils.MvList2D mvs, Frame[][][] refsUsed) {
+        this.mvs = mvs;
+        this.refsUsed = refsUsed;
+        Arrays.fill(mbTypes, null);
+        Arrays.fill(tr8x8Used, false);
+        Arrays.fill(shs, null);
+        for (int i = 0; i < mbQps.length; i++)
+            Arrays.fill(mbQps[i], 0);
     }
 }
@@ -0,0 +1,29 @@
+package org.jcodec.codecs.h264.decode;
+
+import org.jcodec.codecs.h264.io.model.Frame;
+import org.jcodec.common.model.ColorSpace;
+
+/**
+ * This class is part of JCodec ( www.jcodec.org ) This software is distributed
+ * under FreeBSD License
+ * 
+ * A source of recycled frames for the H.264 decoder. The decoder takes the
+ * frames for the output and the reference pictures from the pool and puts them
+ * back once they are neither in the decoded picture buffer nor held by the
+ * caller.
+ * 
+ * The pool may be shared by several decoders and must be thread safe.
+ * 
+ * @author The JCodec project
+ * 
+ */
+public interface FramePool {
+
+    /**
+     * Returns a frame with the planes, motion vectors and the reference table
+     * sized for a picture of the given dimensions, see Frame.createFrame
+     */
+    Frame getFrame(int width, int height, ColorSpace color);
+
+    void putBack(Frame frame);
+}
@@ -0,0 +1,38 @@
+package org.jcodec.codecs.h264.decode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jcodec.codecs.h264.io.model.Frame;
+import org.jcodec.common.model.ColorSpace;
+
+/**
+ * This class is part of JCodec ( www.jcodec.org ) This software is distributed
+ * under FreeBSD License
+ * 
+ * @author The JCodec project
+ * 
+ */
+public class FramePoolImpl implements FramePool {
+    private List<Frame> frames;
+
+    public FramePoolImpl() {
+        frames = new ArrayList<Frame>();
+    }
+
+    @Override
+    public synchronized Frame getFrame(int width, int height, ColorSpace color) {
+        for (int i = 0; i < frames.size(); i++) {
+            Frame frame = frames.get(i);
+            if (frame.getWidth() == width && frame.getHeight() == height && frame.getColor() == color) {
+                return frames.remove(i);
+            }
+        }
+        return Frame.createFrame(width, height, color);
+    }
+
+    @Override
+    public synchronized void putBack(Frame frame) {
+        frames.add(frame);
+    }
+}
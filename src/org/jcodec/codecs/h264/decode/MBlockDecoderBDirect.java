@@ -161,6 +161,7 @@ public class MBlockDecoderBDirect extends MBlockDecoderBase {
         int blkPosX = (mbX << 2) + blkIndX;
         int blkPosY = (mbY << 2) + blkIndY;
 
+        picCol.waitForLines((blkPosY + 1) << 2);
         int mvCol = picCol.getMvs().getMv(blkPosX, blkPosY, 0);
         Frame refL0;
         int refIdxL0;
@@ -317,6 +318,7 @@ public class MBlockDecoderBDirect extends MBlockDecoderBase {
         int blkPosX = (mbX << 2) + blkIndX;
         int blkPosY = (mbY << 2) + blkIndY;
 
+        col.waitForLines((blkPosY + 1) << 2);
         int mvCol = col.getMvs().getMv(blkPosX, blkPosY, 0);
         if (mvRef(mvCol) == -1)
             mvCol = col.getMvs().getMv(blkPosX, blkPosY, 1);
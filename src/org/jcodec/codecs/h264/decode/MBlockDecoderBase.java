@@ -201,10 +201,17 @@ public class MBlockDecoderBase {
             for (int list = 0; list < 2; list++) {
                 if (!H264Const.usesList(predType[blk8x8], list))
                     continue;
-                for (int blk4x4 = 0; blk4x4 < 4; blk4x4++) {
+                // One 4x4 block when the whole 8x8 partition moves together
+                int i0 = BLK_INV_MAP[blk8x8 << 2];
+                int mv0 = vectors.getMv(i0, list);
+                boolean same = mv0 == vectors.getMv(BLK_INV_MAP[(blk8x8 << 2) + 1], list)
+                        && mv0 == vectors.getMv(BLK_INV_MAP[(blk8x8 << 2) + 2], list)
+                        && mv0 == vectors.getMv(BLK_INV_MAP[(blk8x8 << 2) + 3], list);
+                int blkSize = same ? 4 : 2;
+                for (int blk4x4 = 0; blk4x4 < (same ? 1 : 4); blk4x4++) {
                     int i = BLK_INV_MAP[(blk8x8 << 2) + blk4x4];
                     int mv = vectors.getMv(i, list);
-                    Picture ref = refs[list][mvRef(mv)];
+                    Frame ref = refs[list][mvRef(mv)];
 
                     int blkPox = (i & 3) << 1;
                     int blkPoy = (i >> 2) << 1;
@@ -212,9 +219,9 @@ public class MBlockDecoderBase {
                     int xx = ((x + blkPox) << 3) + mvX(mv);
                     int yy = ((y + blkPoy) << 3) + mvY(mv);
 
-                    BlockInterpolator.getBlockChroma(ref.getPlaneData(comp), ref.getPlaneWidth(comp),
-                            ref.getPlaneHeight(comp), mbb[list].getPlaneData(comp), blkPoy * mb.getPlaneWidth(comp)
-                                    + blkPox, mb.getPlaneWidth(comp), xx, yy, 2, 2);
+                    BlockInterpolator.getBlockChroma(ref, comp, mbb[list].getPlaneData(comp),
+                            blkPoy * mb.getPlaneWidth(comp) + blkPox, mb.getPlaneWidth(comp), xx, yy, blkSize,
+                            blkSize);
                 }
             }
 
@@ -254,6 +254,11 @@ public class MBlockDecoderInter8x8 extends MBlockDecoderBase {
         debugPrint("MVP: (%d, %d), MVD: (%d, %d), MV: (%d,%d,%d)", mvpX2, mvpY2, mBlock.pb8x8.mvdX2[list][partNo],
                 mBlock.pb8x8.mvdY2[list][partNo], mvX(mv2), mvY(mv2), refIdx);
 
+        if (mv1 == mv2) {
+            // Sub-partitions moving together share the filter passes
+            interpolator.getBlockLuma(references[refIdx], mb, off, offX + mvX(mv1), offY + mvY(mv1), 8, 8);
+            return;
+        }
         interpolator.getBlockLuma(references[refIdx], mb, off, offX + mvX(mv1), offY + mvY(mv1), 8, 4);
         interpolator.getBlockLuma(references[refIdx], mb, off + mb.getWidth() * 4, offX + mvX(mv2),
                 offY + mvY(mv2) + 16, 8, 4);
@@ -284,6 +289,10 @@ public class MBlockDecoderInter8x8 extends MBlockDecoderBase {
         debugPrint("MVP: (%d, %d), MVD: (%d, %d), MV: (%d,%d,%d)", mvpX2, mvpY2, mBlock.pb8x8.mvdX2[list][partNo],
                 mBlock.pb8x8.mvdY2[list][partNo], mvX(mv2), mvY(mv2), refIdx);
 
+        if (mv1 == mv2) {
+            interpolator.getBlockLuma(references[refIdx], mb, off, offX + mvX(mv1), offY + mvY(mv1), 8, 8);
+            return;
+        }
         interpolator.getBlockLuma(references[refIdx], mb, off, offX + mvX(mv1), offY + mvY(mv1), 4, 8);
         interpolator.getBlockLuma(references[refIdx], mb, off + 4, offX + mvX(mv2) + 16, offY + mvY(mv2), 4, 8);
     }
@@ -327,6 +336,21 @@ public class MBlockDecoderInter8x8 extends MBlockDecoderBase {
         debugPrint("MVP: (%d, %d), MVD: (%d, %d), MV: (%d,%d,%d)", mvpX4, mvpY4, mBlock.pb8x8.mvdX4[list][partNo],
                 mBlock.pb8x8.mvdY4[list][partNo], mvX(mv4), mvY(mv4), refIdx);
 
+        if (mv1 == mv2 && mv3 == mv4) {
+            if (mv1 == mv3) {
+                interpolator.getBlockLuma(references[refIdx], mb, off, offX + mvX(mv1), offY + mvY(mv1), 8, 8);
+            } else {
+                interpolator.getBlockLuma(references[refIdx], mb, off, offX + mvX(mv1), offY + mvY(mv1), 8, 4);
+                interpolator.getBlockLuma(references[refIdx], mb, off + mb.getWidth() * 4, offX + mvX(mv3),
+                        offY + mvY(mv3) + 16, 8, 4);
+            }
+            return;
+        }
+        if (mv1 == mv3 && mv2 == mv4) {
+            interpolator.getBlockLuma(references[refIdx], mb, off, offX + mvX(mv1), offY + mvY(mv1), 4, 8);
+            interpolator.getBlockLuma(references[refIdx], mb, off + 4, offX + mvX(mv2) + 16, offY + mvY(mv2), 4, 8);
+            return;
+        }
         interpolator.getBlockLuma(references[refIdx], mb, off, offX + mvX(mv1), offY + mvY(mv1), 4, 4);
         interpolator.getBlockLuma(references[refIdx], mb, off + 4, offX + mvX(mv2) + 16, offY + mvY(mv2), 4, 4);
         interpolator.getBlockLuma(references[refIdx], mb, off + mb.getWidth() * 4, offX + mvX(mv3), offY + mvY(mv3)
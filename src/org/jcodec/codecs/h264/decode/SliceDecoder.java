@@ -13,6 +13,7 @@ import static org.jcodec.codecs.h264.io.model.SliceType.P;
 import org.jcodec.codecs.h264.H264Const;
 import org.jcodec.codecs.h264.decode.aso.MapManager;
 import org.jcodec.codecs.h264.decode.aso.Mapper;
+import org.jcodec.codecs.h264.decode.deblock.RowDeblocker;
 import org.jcodec.codecs.h264.io.model.Frame;
 import org.jcodec.codecs.h264.io.model.MBType;
 import org.jcodec.codecs.h264.io.model.SeqParameterSet;
@@ -50,6 +51,7 @@ public class SliceDecoder {
     private DeblockerInput di;
     private IntObjectMap<Frame> lRefs;
     private Frame[] sRefs;
+    private RowDeblocker rowDeblocker;
 
     public SliceDecoder(SeqParameterSet activeSps, Frame[] sRefs,
             IntObjectMap<Frame> lRefs, DeblockerInput di, Frame result) {
@@ -60,12 +62,24 @@ public class SliceDecoder {
         this.lRefs = lRefs;
     }
 
+    /**
+     * Makes this slice decoder report every decoded macroblock to the row
+     * deblocker
+     * 
+     * @param rowDeblocker
+     */
+    public void setRowDeblocker(RowDeblocker rowDeblocker) {
+        this.rowDeblocker = rowDeblocker;
+    }
+
     public void decodeFromReader(SliceReader sliceReader) {
 
         parser = sliceReader;
         
         initContext();
 
+        refListManager = new RefListManager(parser.getSliceHeader(), sRefs, lRefs, frameOut);
+
         debugPrint("============%d============= ", frameOut.getPOC());
 
         Frame[][] refList = refListManager.getRefList();
@@ -73,6 +87,23 @@ public class SliceDecoder {
         decodeMacroblocks(refList);
     }
 
+    /**
+     * Decodes a slice using the reference picture lists that were built
+     * upfront, i.e. before the reference marking of the current picture.
+     * 
+     * @param sliceReader
+     * @param refList
+     */
+    public void decodeFromReader(SliceReader sliceReader, Frame[][] refList) {
+        parser = sliceReader;
+
+        initContext();
+
+        debugPrint("============%d============= ", frameOut.getPOC());
+
+        decodeMacroblocks(refList);
+    }
+
     private void initContext() {
         
         SliceHeader sh = parser.getSliceHeader();
@@ -87,8 +118,6 @@ public class SliceDecoder {
         decoderInter8x8 = new MBlockDecoderInter8x8(mapper, decoderBDirect, sh, di, frameOut.getPOC(), decoderState);
         skipDecoder = new MBlockSkipDecoder(mapper, decoderBDirect, sh, di, frameOut.getPOC(), decoderState);
         decoderIPCM = new MBlockDecoderIPCM(mapper, decoderState);
-
-        refListManager = new RefListManager(sh, sRefs, lRefs, frameOut);
     }
 
     private void decodeMacroblocks(Frame[][] refList) {
@@ -105,6 +134,8 @@ public class SliceDecoder {
             di.shs[mbAddr] = parser.getSliceHeader();
             di.refsUsed[mbAddr] = refList;
             fillCoeff(mBlock, mbX, mbY);
+            if (rowDeblocker != null)
+                rowDeblocker.mbDecoded(mbAddr);
             mb.fill(0);
             mBlock.clear();
         }
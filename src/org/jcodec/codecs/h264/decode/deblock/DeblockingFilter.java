@@ -68,20 +68,45 @@ public class DeblockingFilter {
         // "!--!--!--!--!--!--!--!--!--!--!--!");
         int[][] bsV = new int[4][4], bsH = new int[4][4];
         for (int i = 0; i < di.shs.length; i++) {
-            calcBsH(result, i, bsH);
-            calcBsV(result, i, bsV);
-            for (int c = 0; c < color.nComp; c++) {
-                fillVerticalEdge(result, c, i, bsV);
-                fillHorizontalEdge(result, c, i, bsH);
-                // printMB(result.getPlaneData(1), result.getPlaneWidth(1), i,
-                // shs[i],
-                // "!**!**!**!**!--!--!--!--!--!--!--!");
-            }
+            deblockMb(result, color, i, bsV, bsH);
+            // printMB(result.getPlaneData(1), result.getPlaneWidth(1), i,
+            // shs[i],
+            // "!**!**!**!**!--!--!--!--!--!--!--!");
         }
         // printMB(result.getPlaneData(0), result.getPlaneWidth(0), 235,
         // shs[235], "!**!**!**!**!--!--!--!--!--!--!--!");
     }
 
+    /**
+     * Deblocks one macroblock row of a frame. The rows must be deblocked in
+     * order from top to bottom, the row being deblocked and the row above it
+     * must be fully decoded. Filtering a row changes up to 3 bottom lines of
+     * the row above.
+     * 
+     * @param result
+     * @param mbY
+     */
+    public void deblockMbRow(Picture result, int mbY) {
+        ColorSpace color = result.getColor();
+        int mbWidth = di.nCoeff[0].length >> 2;
+        int[][] bsV = new int[4][4], bsH = new int[4][4];
+        for (int i = mbY * mbWidth, end = i + mbWidth; i < end; i++) {
+            deblockMb(result, color, i, bsV, bsH);
+        }
+    }
+
+    private void deblockMb(Picture result, ColorSpace color, int mbAddr, int[][] bsV, int[][] bsH) {
+        // Macroblocks of a missing or truncated slice are left as they are
+        if (di.shs[mbAddr] == null)
+            return;
+        calcBsH(result, mbAddr, bsH);
+        calcBsV(result, mbAddr, bsV);
+        for (int c = 0; c < color.nComp; c++) {
+            fillVerticalEdge(result, c, mbAddr, bsV);
+            fillHorizontalEdge(result, c, mbAddr, bsH);
+        }
+    }
+
     // private void printMB(int[] is, int stride, int mbAddr, SliceHeader sh,
     // String delim) {
     // int mbWidth = sh.sps.pic_width_in_mbs_minus1 + 1;
@@ -162,7 +187,8 @@ public class DeblockingFilter {
         int mbX = mbAddr % mbWidth;
         int mbY = mbAddr / mbWidth;
 
-        boolean topAvailable = mbY > 0 && (sh.disableDeblockingFilterIdc != 2 || di.shs[mbAddr - mbWidth] == sh);
+        boolean topAvailable = mbY > 0 && di.shs[mbAddr - mbWidth] != null
+                && (sh.disableDeblockingFilterIdc != 2 || di.shs[mbAddr - mbWidth] == sh);
         boolean thisIntra = di.mbTypes[mbAddr] != null && di.mbTypes[mbAddr].isIntra();
 
         if (topAvailable) {
@@ -202,7 +228,8 @@ public class DeblockingFilter {
         int mbX = mbAddr % mbWidth;
         int mbY = mbAddr / mbWidth;
 
-        boolean topAvailable = mbY > 0 && (sh.disableDeblockingFilterIdc != 2 || di.shs[mbAddr - mbWidth] == sh);
+        boolean topAvailable = mbY > 0 && di.shs[mbAddr - mbWidth] != null
+                && (sh.disableDeblockingFilterIdc != 2 || di.shs[mbAddr - mbWidth] == sh);
         int curQp = di.mbQps[comp][mbAddr];
 
         int cW = 2 - pic.getColor().compWidth[comp];
@@ -243,7 +270,8 @@ public class DeblockingFilter {
         int mbX = mbAddr % mbWidth;
         int mbY = mbAddr / mbWidth;
 
-        boolean leftAvailable = mbX > 0 && (sh.disableDeblockingFilterIdc != 2 || di.shs[mbAddr - 1] == sh);
+        boolean leftAvailable = mbX > 0 && di.shs[mbAddr - 1] != null
+                && (sh.disableDeblockingFilterIdc != 2 || di.shs[mbAddr - 1] == sh);
         boolean thisIntra = di.mbTypes[mbAddr] != null && di.mbTypes[mbAddr].isIntra();
 
         if (leftAvailable) {
@@ -281,7 +309,8 @@ public class DeblockingFilter {
         int mbX = mbAddr % mbWidth;
         int mbY = mbAddr / mbWidth;
 
-        boolean leftAvailable = mbX > 0 && (sh.disableDeblockingFilterIdc != 2 || di.shs[mbAddr - 1] == sh);
+        boolean leftAvailable = mbX > 0 && di.shs[mbAddr - 1] != null
+                && (sh.disableDeblockingFilterIdc != 2 || di.shs[mbAddr - 1] == sh);
         int curQp = di.mbQps[comp][mbAddr];
 
         int cW = 2 - pic.getColor().compWidth[comp];
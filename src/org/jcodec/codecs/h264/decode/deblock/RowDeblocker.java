@@ -0,0 +1,121 @@
+package org.jcodec.codecs.h264.decode.deblock;
+
+import org.jcodec.codecs.h264.io.model.Frame;
+
+/**
+ * This class is part of JCodec ( www.jcodec.org ) This software is distributed
+ * under FreeBSD License
+ *
+ * Deblocks a frame macroblock row by macroblock row as soon as the rows are
+ * fully decoded and reports the lines that became final to the readers of the
+ * frame.
+ *
+ * Works either inline, filtering the rows on the thread that reports the last
+ * decoded macroblock of a row, or as a separate stage where deblockRows runs
+ * on its own thread and filters row N-1 while row N is being reconstructed.
+ * 
+ * When the frame is a reference the final lines are also edge extended into
+ * the padded planes of the frame before they are reported.
+ *
+ * @author The JCodec project
+ *
+ */
+public class RowDeblocker {
+    private DeblockingFilter filter;
+    private Frame frame;
+    private int mbWidth;
+    private int mbHeight;
+    private int[] mbsDecoded;
+    private int nextRow;
+    private boolean inline;
+    private boolean aborted;
+    private boolean complete;
+    private boolean extendEdges;
+    private int linesDone;
+
+    public RowDeblocker(DeblockingFilter filter, Frame frame, int mbWidth, int mbHeight, boolean inline,
+            boolean extendEdges) {
+        this.filter = filter;
+        this.frame = frame;
+        this.mbWidth = mbWidth;
+        this.mbHeight = mbHeight;
+        this.inline = inline;
+        this.extendEdges = extendEdges;
+        this.mbsDecoded = new int[mbHeight];
+    }
+
+    /**
+     * Called once for every macroblock of the frame after it was reconstructed
+     * and all of its deblocker input was filled in
+     *
+     * @param mbAddr
+     */
+    public synchronized void mbDecoded(int mbAddr) {
+        if (++mbsDecoded[mbAddr / mbWidth] != mbWidth)
+            return;
+        if (!inline) {
+            notifyAll();
+            return;
+        }
+        while (nextRow < mbHeight && mbsDecoded[nextRow] == mbWidth) {
+            deblockRow(nextRow++);
+        }
+    }
+
+    /**
+     * Deblocking stage, filters the rows in order as they become decoded.
+     * Returns when the whole frame is filtered or the decoding was aborted.
+     * The rows that are not fully decoded when the decoding is complete (a
+     * truncated frame or a missing slice) are filtered as they are.
+     */
+    public void deblockRows() {
+        for (int row = 0; row < mbHeight; row++) {
+            synchronized (this) {
+                while (mbsDecoded[row] != mbWidth && !aborted && !complete) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+                if (aborted)
+                    return;
+            }
+            deblockRow(row);
+        }
+    }
+
+    /**
+     * Called when all the slices of the frame were decoded, the macroblocks
+     * that were not reached by then will never arrive
+     */
+    public synchronized void finish() {
+        complete = true;
+        if (!inline) {
+            notifyAll();
+            return;
+        }
+        while (nextRow < mbHeight) {
+            deblockRow(nextRow++);
+        }
+    }
+
+    /**
+     * Releases the deblocking stage when the frame will never be fully decoded
+     */
+    public synchronized void abort() {
+        aborted = true;
+        notifyAll();
+    }
+
+    private void deblockRow(int row) {
+        filter.deblockMbRow(frame, row);
+        // The bottom 3 lines will be modified when the next row is filtered
+        int lines = row == mbHeight - 1 ? Integer.MAX_VALUE : ((row + 1) << 4) - 3;
+        if (extendEdges) {
+            frame.extendEdges(linesDone, lines);
+            linesDone = lines;
+        }
+        frame.setLinesReady(lines);
+    }
+}
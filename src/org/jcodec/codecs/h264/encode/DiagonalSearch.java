@@ -0,0 +1,39 @@
+package org.jcodec.codecs.h264.encode;
+
+import static java.lang.Math.min;
+
+/**
+ * This class is part of JCodec ( www.jcodec.org ) This software is distributed
+ * under FreeBSD License
+ * 
+ * Greedy search, keeps moving to the best of the 4 neighbouring positions while
+ * the score is not getting worse
+ * 
+ * @author The JCodec project
+ * 
+ */
+public class DiagonalSearch implements MotionSearch {
+
+    @Override
+    public void search(MotionEstimator me) {
+        for (int i = 0; i < me.getMaxSearchRange(); i++) {
+            int x = me.getBestX(), y = me.getBestY();
+            int score1 = me.score(x - 1, y);
+            int score2 = me.score(x + 1, y);
+            int score3 = me.score(x, y - 1);
+            int score4 = me.score(x, y + 1);
+            int min = min(min(min(score1, score2), score3), score4);
+            if (min > me.getBestScore() || min == Integer.MAX_VALUE)
+                break;
+            if (score1 == min) {
+                me.setBest(x - 1, y, min);
+            } else if (score2 == min) {
+                me.setBest(x + 1, y, min);
+            } else if (score3 == min) {
+                me.setBest(x, y - 1, min);
+            } else {
+                me.setBest(x, y + 1, min);
+            }
+        }
+    }
+}
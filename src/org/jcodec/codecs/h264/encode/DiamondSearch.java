@@ -0,0 +1,25 @@
+package org.jcodec.codecs.h264.encode;
+
+/**
+ * This class is part of JCodec ( www.jcodec.org ) This software is distributed
+ * under FreeBSD License
+ * 
+ * Small diamond search, re-centers on the best of the 4 neighbouring positions
+ * until the center is the best. Used on top of the EPZS candidates of the
+ * estimator.
+ * 
+ * @author The JCodec project
+ * 
+ */
+public class DiamondSearch implements MotionSearch {
+
+    @Override
+    public void search(MotionEstimator me) {
+        for (int i = 0; i < me.getMaxSearchRange(); i++) {
+            int x = me.getBestX(), y = me.getBestY();
+            boolean moved = me.check(x - 1, y) | me.check(x + 1, y) | me.check(x, y - 1) | me.check(x, y + 1);
+            if (!moved)
+                break;
+        }
+    }
+}
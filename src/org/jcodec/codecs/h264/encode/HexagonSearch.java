@@ -0,0 +1,34 @@
+package org.jcodec.codecs.h264.encode;
+
+/**
+ * This class is part of JCodec ( www.jcodec.org ) This software is distributed
+ * under FreeBSD License
+ * 
+ * Hexagon search, re-centers on the best of the 6 points of a large hexagon
+ * until the center is the best, then checks the 4 closest positions. Covers
+ * large motion with fewer positions than the diamond search.
+ * 
+ * @author The JCodec project
+ * 
+ */
+public class HexagonSearch implements MotionSearch {
+    private static final int[] HEX_X = { -2, -1, 1, 2, 1, -1 };
+    private static final int[] HEX_Y = { 0, -2, -2, 0, 2, 2 };
+
+    @Override
+    public void search(MotionEstimator me) {
+        for (int i = 0; i < me.getMaxSearchRange(); i++) {
+            int x = me.getBestX(), y = me.getBestY();
+            boolean moved = false;
+            for (int j = 0; j < HEX_X.length; j++)
+                moved |= me.check(x + HEX_X[j], y + HEX_Y[j]);
+            if (!moved)
+                break;
+        }
+        int x = me.getBestX(), y = me.getBestY();
+        me.check(x - 1, y);
+        me.check(x + 1, y);
+        me.check(x, y - 1);
+        me.check(x, y + 1);
+    }
+}
@@ -48,9 +48,23 @@ public class MBEncoderP16x16 implements SaveRestore {
     private int mvTopLeftYSave;
 
     private BlockInterpolator interpolator;
+    private int refMbY;
+    private byte[] patch;
+    private int[] neighbours;
 
     public MBEncoderP16x16(SeqParameterSet sps, Picture ref, CAVLC[] cavlc, MotionEstimator me) {
+        this(sps, ref, cavlc, me, 0);
+    }
+
+    /**
+     * @param refMbY
+     *            Macroblock row of the reference that is co-located with the
+     *            first macroblock row of the encoded pictures, used when the
+     *            encoded pictures hold one slice of the frame
+     */
+    public MBEncoderP16x16(SeqParameterSet sps, Picture ref, CAVLC[] cavlc, MotionEstimator me, int refMbY) {
         this.sps = sps;
+        this.refMbY = refMbY;
         this.cavlc = cavlc;
         this.ref = ref;
         this.me = me;
@@ -60,6 +74,8 @@ public class MBEncoderP16x16 implements SaveRestore {
         mvTopXSave = new int[sps.picWidthInMbsMinus1 + 1];
         mvTopYSave = new int[sps.picWidthInMbsMinus1 + 1];
         interpolator = new BlockInterpolator();
+        patch = new byte[256];
+        neighbours = new int[6];
     }
 
     @Override
@@ -108,7 +124,20 @@ public class MBEncoderP16x16 implements SaveRestore {
                 trAvb, tlAvb);
 
         // Motion estimation for the current macroblock
-        int[] mv = mvEstimate(pic, mbX, mbY, mvpx, mvpy);
+        int nNeighbours = 0;
+        if (mbX > 0) {
+            neighbours[nNeighbours * 2] = mvLeftX;
+            neighbours[nNeighbours++ * 2 + 1] = mvLeftY;
+        }
+        if (mbY > 0) {
+            neighbours[nNeighbours * 2] = mvTopX[mbX];
+            neighbours[nNeighbours++ * 2 + 1] = mvTopY[mbX];
+        }
+        if (trAvb) {
+            neighbours[nNeighbours * 2] = mvTopX[mbX + 1];
+            neighbours[nNeighbours++ * 2 + 1] = mvTopY[mbX + 1];
+        }
+        int[] mv = mvEstimate(pic, mbX, mbY, mvpx, mvpy, qp, nNeighbours);
         mvTopLeftX = mvTopX[mbX];
         mvTopLeftY = mvTopY[mbX];
         mvTopX[mbX] = mv[0];
@@ -121,12 +150,13 @@ public class MBEncoderP16x16 implements SaveRestore {
         Picture mbRef = Picture.create(16, 16, sps.chromaFormatIdc);
         int[][] mb = new int[][] { new int[256], new int[64], new int[64] };
 
-        interpolator.getBlockLuma(ref, mbRef, 0, (mbX << 6) + mv[0], (mbY << 6) + mv[1], 16, 16);
+        int refY = (mbY + refMbY) << 6;
+        interpolator.getBlockLuma(ref, mbRef, 0, (mbX << 6) + mv[0], refY + mv[1], 16, 16);
 
         BlockInterpolator.getBlockChroma(ref.getPlaneData(1), ref.getPlaneWidth(1), ref.getPlaneHeight(1),
-                mbRef.getPlaneData(1), 0, mbRef.getPlaneWidth(1), (mbX << 6) + mv[0], (mbY << 6) + mv[1], 8, 8);
+                mbRef.getPlaneData(1), 0, mbRef.getPlaneWidth(1), (mbX << 6) + mv[0], refY + mv[1], 8, 8);
         BlockInterpolator.getBlockChroma(ref.getPlaneData(2), ref.getPlaneWidth(2), ref.getPlaneHeight(2),
-                mbRef.getPlaneData(2), 0, mbRef.getPlaneWidth(2), (mbX << 6) + mv[0], (mbY << 6) + mv[1], 8, 8);
+                mbRef.getPlaneData(2), 0, mbRef.getPlaneWidth(2), (mbX << 6) + mv[0], refY + mv[1], 8, 8);
 
         MBEncoderHelper.takeSubtract(pic.getPlaneData(0), pic.getPlaneWidth(0), pic.getPlaneHeight(0), mbX << 4,
                 mbY << 4, mb[0], mbRef.getPlaneData(0), 16, 16);
@@ -178,11 +208,10 @@ public class MBEncoderP16x16 implements SaveRestore {
         return 47;
     }
 
-    private int[] mvEstimate(Picture pic, int mbX, int mbY, int mvpx, int mvpy) {
-        byte[] patch = new byte[256];
+    private int[] mvEstimate(Picture pic, int mbX, int mbY, int mvpx, int mvpy, int qp, int nNeighbours) {
         MBEncoderHelper.take(pic.getPlaneData(0), pic.getPlaneWidth(0), pic.getPlaneHeight(0), mbX << 4, mbY << 4,
                 patch, 16, 16);
-        return me.estimate(ref, patch, mbX, mbY, mvpx, mvpy);
+        return me.estimate(ref, patch, mbX, mbY + refMbY, mvpx, mvpy, qp, neighbours, nNeighbours);
     }
 
     /**
@@ -1,78 +1,291 @@
 package org.jcodec.codecs.h264.encode;
 
-import static java.lang.Math.min;
-
+import org.jcodec.codecs.h264.decode.BlockInterpolator;
+import org.jcodec.common.model.ColorSpace;
 import org.jcodec.common.model.Picture;
+import org.jcodec.common.tools.Distortion;
 import org.jcodec.common.tools.MathUtil;
 
 /**
  * This class is part of JCodec ( www.jcodec.org ) This software is distributed
  * under FreeBSD License
- * 
- * Estimates motion using diagonal search
- * 
+ *
+ * Estimates motion of 16x16 macroblocks.
+ *
+ * The search happens in a window of the reference around the co-located
+ * block. When created with a search strategy the estimator seeds the search
+ * with an EPZS style set of candidates ( the motion vector predictor, zero
+ * vector, the vectors of the left, top and top right neighbours and the vector
+ * of the co-located macroblock in the previous frame ), skips the search when
+ * the best candidate is already good enough and optionally refines the result
+ * to half and quarter pel. Candidates are ranked by SAD plus the estimated
+ * cost of the motion vector difference, the sub pel refinement uses SATD
+ * instead of SAD as it follows the size of the coded residual more closely.
+ *
+ * The estimator keeps state between the frames and is not thread safe.
+ *
  * @author Stanislav Vitvitskyy
  */
 public class MotionEstimator {
+    private static final int[] LAMBDA = new int[52];
+    static {
+        for (int qp = 0; qp < 52; qp++)
+            LAMBDA[qp] = Math.max(1, (int) Math.round(Math.pow(2, (qp - 12) / 6.0)));
+    }
+
     private int maxSearchRange;
+    private MotionSearch search;
+    private boolean subPel;
+    private int earlyTermination;
+
+    private byte[] searchPatch;
+    private int patchW;
+    private int patchH;
+    private int centerX;
+    private int centerY;
+    private byte[] patch;
+    private int mvpx;
+    private int mvpy;
+    private int lambda;
+
+    private int bestX;
+    private int bestY;
+    private int bestScore;
+
+    private int[] prevMvX;
+    private int[] prevMvY;
+    private BlockInterpolator interpolator;
+    private Picture subPelBlk;
 
+    /**
+     * Creates the estimator that does a greedy diagonal walk from the
+     * co-located block using full pel vectors only
+     *
+     * @param maxSearchRange
+     */
     public MotionEstimator(int maxSearchRange) {
         this.maxSearchRange = maxSearchRange;
+        this.search = new DiagonalSearch();
+        this.searchPatch = new byte[(maxSearchRange * 2 + 16) * (maxSearchRange * 2 + 16)];
+    }
+
+    /**
+     * Creates the estimator that seeds the given search strategy with the
+     * candidate predictors
+     *
+     * @param maxSearchRange
+     * @param search
+     * @param subPel
+     *            If the full pel result should be refined to quarter pel
+     */
+    public MotionEstimator(int maxSearchRange, MotionSearch search, boolean subPel) {
+        this(maxSearchRange);
+        this.search = search;
+        this.subPel = subPel;
+        this.earlyTermination = 512;
+        this.interpolator = new BlockInterpolator();
+        this.subPelBlk = Picture.create(16, 16, ColorSpace.YUV420J);
+    }
+
+    /**
+     * Sets the score below which the best candidate predictor is taken as is
+     * without any search, 0 disables this.
+     *
+     * @param earlyTermination
+     */
+    public void setEarlyTermination(int earlyTermination) {
+        this.earlyTermination = earlyTermination;
     }
 
     public int[] estimate(Picture ref, byte[] patch, int mbX, int mbY, int mvpx, int mvpy) {
-        byte[] searchPatch = new byte[(maxSearchRange * 2 + 16) * (maxSearchRange * 2 + 16)];
+        return estimate(ref, patch, mbX, mbY, mvpx, mvpy, 0, null, 0);
+    }
 
-        int startX = (mbX << 4) /* + (mvpx >> 2)*/;
-        int startY = (mbY << 4) /* + (mvpy >> 2)*/;
+    /**
+     * Estimates the motion of one macroblock
+     *
+     * @param ref
+     * @param patch
+     *            The pixels of the macroblock
+     * @param mbX
+     * @param mbY
+     * @param mvpx
+     *            Motion vector predictor, quarter pel
+     * @param mvpy
+     * @param qp
+     *            Weights the cost of the motion vectors
+     * @param neighbours
+     *            Motion vectors of the neighbouring macroblocks, x and y
+     *            interleaved
+     * @param nNeighbours
+     * @return The motion vector in quarter pel units
+     */
+    public int[] estimate(Picture ref, byte[] patch, int mbX, int mbY, int mvpx, int mvpy, int qp, int[] neighbours,
+            int nNeighbours) {
+        int startX = (mbX << 4);
+        int startY = (mbY << 4);
 
         int patchTlX = Math.max(startX - maxSearchRange, 0);
         int patchTlY = Math.max(startY - maxSearchRange, 0);
         int patchBrX = Math.min(startX + maxSearchRange + 16, ref.getPlaneWidth(0));
         int patchBrY = Math.min(startY + maxSearchRange + 16, ref.getPlaneHeight(0));
 
-        int centerX = startX - patchTlX;
-        int centerY = startY - patchTlY;
+        centerX = startX - patchTlX;
+        centerY = startY - patchTlY;
 
-        int patchW = patchBrX - patchTlX;
-        int patchH = patchBrY - patchTlY;
+        patchW = patchBrX - patchTlX;
+        patchH = patchBrY - patchTlY;
         MBEncoderHelper.takeSafe(ref.getPlaneData(0), ref.getPlaneWidth(0), ref.getPlaneHeight(0), patchTlX, patchTlY,
                 searchPatch, patchW, patchH);
 
-        int bestMvX = centerX, bestMvY = centerY;
-        int bestScore = sad(searchPatch, patchW, patch, bestMvX, bestMvY);
-        // Diagonal search
-        for (int i = 0; i < maxSearchRange; i++) {
-            int score1 = bestMvX > 0 ? sad(searchPatch, patchW, patch, bestMvX - 1, bestMvY) : Integer.MAX_VALUE;
-            int score2 = bestMvX < patchW - 1 ? sad(searchPatch, patchW, patch, bestMvX + 1, bestMvY) : Integer.MAX_VALUE;
-            int score3 = bestMvY > 0 ? sad(searchPatch, patchW, patch, bestMvX, bestMvY - 1) : Integer.MAX_VALUE;
-            int score4 = bestMvY < patchH - 1 ? sad(searchPatch, patchW, patch, bestMvX, bestMvY + 1) : Integer.MAX_VALUE;
-            int min = min(min(min(score1, score2), score3), score4);
-            if (min > bestScore)
-                break;
-            bestScore = min;
-            if (score1 == min) {
-                --bestMvX;
-            } else if (score2 == min) {
-                ++bestMvX;
-            } else if (score3 == min) {
-                --bestMvY;
-            } else {
-                ++bestMvY;
+        this.patch = patch;
+        this.mvpx = mvpx;
+        this.mvpy = mvpy;
+        this.lambda = interpolator == null ? 0 : LAMBDA[MathUtil.clip(qp, 0, 51)];
+
+        bestX = centerX;
+        bestY = centerY;
+        bestScore = score(bestX, bestY);
+
+        int mbAddr = 0;
+        if (interpolator != null) {
+            int mbWidth = ref.getPlaneWidth(0) >> 4;
+            int nMbs = mbWidth * (ref.getPlaneHeight(0) >> 4);
+            if (prevMvX == null || prevMvX.length != nMbs) {
+                prevMvX = new int[nMbs];
+                prevMvY = new int[nMbs];
             }
+            mbAddr = mbY * mbWidth + mbX;
+            checkCandidate(mvpx, mvpy);
+            checkCandidate(0, 0);
+            for (int i = 0; i < nNeighbours; i++)
+                checkCandidate(neighbours[i << 1], neighbours[(i << 1) + 1]);
+            checkCandidate(prevMvX[mbAddr], prevMvY[mbAddr]);
+        }
+
+        if (bestScore >= earlyTermination)
+            search.search(this);
+
+        int mvX = (bestX - centerX) << 2;
+        int mvY = (bestY - centerY) << 2;
+        if (subPel) {
+            int[] mv = refineSubPel(ref, mbX, mbY, mvX, mvY);
+            mvX = mv[0];
+            mvY = mv[1];
         }
+        if (interpolator != null) {
+            prevMvX[mbAddr] = mvX;
+            prevMvY[mbAddr] = mvY;
+        }
+
+        return new int[] { mvX, mvY };
+    }
+
+    public int getMaxSearchRange() {
+        return maxSearchRange;
+    }
 
-        return new int[] { ((bestMvX - centerX) << 2)/* + mvpx*/, ((bestMvY - centerY) << 2)/* + mvpy*/ };
+    public int getBestX() {
+        return bestX;
     }
 
-    private int sad(byte[] big, int bigStride, byte[] small, int offX, int offY) {
-        int score = 0, bigOff = offY * bigStride + offX, smallOff = 0;
-        for (int i = 0; i < 16; i++) {
-            for (int j = 0; j < 16; j++, ++bigOff, ++smallOff) {
-                score += MathUtil.abs(big[bigOff] - small[smallOff]);
+    public int getBestY() {
+        return bestY;
+    }
+
+    public int getBestScore() {
+        return bestScore;
+    }
+
+    public void setBest(int x, int y, int score) {
+        bestX = x;
+        bestY = y;
+        bestScore = score;
+    }
+
+    /**
+     * Evaluates a full pel position of the search window and makes it the best
+     * one if it scores lower
+     *
+     * @param x
+     * @param y
+     * @return If the position became the best one
+     */
+    public boolean check(int x, int y) {
+        if (x < 0 || y < 0 || x > patchW - 16 || y > patchH - 16)
+            return false;
+        int score = sad(searchPatch, patchW, patch, x, y, bestScore);
+        if (score >= bestScore)
+            return false;
+        score += mvCost(((x - centerX) << 2) - mvpx, ((y - centerY) << 2) - mvpy);
+        if (score >= bestScore)
+            return false;
+        setBest(x, y, score);
+        return true;
+    }
+
+    /**
+     * Score of a full pel position of the search window
+     *
+     * @param x
+     * @param y
+     * @return The score or Integer.MAX_VALUE for the positions outside of the
+     *         window
+     */
+    public int score(int x, int y) {
+        if (x < 0 || y < 0 || x > patchW - 16 || y > patchH - 16)
+            return Integer.MAX_VALUE;
+        return sad(searchPatch, patchW, patch, x, y, Integer.MAX_VALUE)
+                + mvCost(((x - centerX) << 2) - mvpx, ((y - centerY) << 2) - mvpy);
+    }
+
+    private void checkCandidate(int mvX, int mvY) {
+        int x = MathUtil.clip(centerX + ((mvX + 2) >> 2), 0, patchW - 16);
+        int y = MathUtil.clip(centerY + ((mvY + 2) >> 2), 0, patchH - 16);
+        check(x, y);
+    }
+
+    private int[] refineSubPel(Picture ref, int mbX, int mbY, int mvX, int mvY) {
+        int best = subPelScore(ref, mbX, mbY, mvX, mvY);
+        for (int step = 2; step > 0; step >>= 1) {
+            int cx = mvX, cy = mvY;
+            for (int dy = -step; dy <= step; dy += step) {
+                for (int dx = -step; dx <= step; dx += step) {
+                    if (dx == 0 && dy == 0)
+                        continue;
+                    int x = cx + dx, y = cy + dy;
+                    int score = subPelScore(ref, mbX, mbY, x, y);
+                    if (score < best) {
+                        best = score;
+                        mvX = x;
+                        mvY = y;
+                    }
+                }
             }
-            bigOff += bigStride - 16;
         }
-        return score;
+        bestScore = best;
+        return new int[] { mvX, mvY };
+    }
+
+    private int subPelScore(Picture ref, int mbX, int mbY, int mvX, int mvY) {
+        interpolator.getBlockLuma(ref, subPelBlk, 0, (mbX << 6) + mvX, (mbY << 6) + mvY, 16, 16);
+        return Distortion.satd(subPelBlk.getPlaneData(0), 0, 16, patch, 0, 16, 16, 16)
+                + mvCost(mvX - mvpx, mvY - mvpy);
+    }
+
+    private int mvCost(int mvdX, int mvdY) {
+        return lambda == 0 ? 0 : lambda * (seBits(mvdX) + seBits(mvdY));
+    }
+
+    private static int seBits(int v) {
+        int codeNum = v > 0 ? (v << 1) - 1 : (-v) << 1;
+        return (MathUtil.log2(codeNum + 1) << 1) + 1;
+    }
+
+    /**
+     * SAD of the 16x16 block, stops as soon as the sum reaches the limit
+     */
+    private int sad(byte[] big, int bigStride, byte[] small, int offX, int offY, int limit) {
+        return Distortion.sad(big, offY * bigStride + offX, bigStride, small, 0, 16, 16, 16, limit);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,21 @@
+package org.jcodec.codecs.h264.encode;
+
+/**
+ * This class is part of JCodec ( www.jcodec.org ) This software is distributed
+ * under FreeBSD License
+ * 
+ * MPEG 4 AVC ( H.264 ) Encoder pluggable full pel motion search strategy
+ * 
+ * @author The JCodec project
+ * 
+ */
+public interface MotionSearch {
+
+    /**
+     * Moves the best position of the estimator towards the best match. Starts
+     * from the best position found so far.
+     * 
+     * @param me
+     */
+    void search(MotionEstimator me);
+}
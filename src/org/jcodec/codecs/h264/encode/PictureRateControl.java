@@ -0,0 +1,21 @@
+package org.jcodec.codecs.h264.encode;
+
+/**
+ * This class is part of JCodec ( www.jcodec.org ) This software is distributed
+ * under FreeBSD License
+ * 
+ * Rate control that wants to know the final size of every coded picture
+ * 
+ * @author The JCodec project
+ * 
+ */
+public interface PictureRateControl extends RateControl {
+
+    /**
+     * Reports the size of the picture as it was written to the stream
+     * 
+     * @param bits
+     *            Size of the coded picture including the headers
+     */
+    void endPicture(int bits);
+}
@@ -0,0 +1,213 @@
+package org.jcodec.codecs.h264.encode;
+
+import org.jcodec.codecs.h264.io.model.SliceType;
+import org.jcodec.common.model.Rational;
+import org.jcodec.common.model.Size;
+import org.jcodec.common.tools.MathUtil;
+
+/**
+ * This class is part of JCodec ( www.jcodec.org ) This software is distributed
+ * under FreeBSD License
+ *
+ * H.264 rate control policy that targets an average bitrate while keeping the
+ * stream within the limits of a VBV ( HRD ) buffer.
+ *
+ * The QP of a picture is derived from the complexity of the previous pictures
+ * of the same type ( bits times quantizer step ) so that a P picture is
+ * expected to take the average frame budget, the budget is corrected by the
+ * accumulated difference between the wanted and the produced bits. I pictures
+ * are coded with a finer quantizer than the P pictures.
+ *
+ * The decoder buffer is simulated: it's filled at the max rate and drained by
+ * the coded pictures. A picture is never planned larger than the buffer can
+ * take, within a picture the QP is adjusted per macroblock to follow the plan
+ * and the macroblocks are recoded with a coarser quantizer when the buffer
+ * would underflow.
+ *
+ * @author The JCodec project
+ *
+ */
+public class VBVRateControl implements PictureRateControl {
+    private static final int INIT_QP = 26;
+    private static final int QP_MIN = 10;
+    private static final int QP_MAX = 51;
+    private static final int MB_QP_RANGE = 4;
+    private static final double IP_FACTOR = 1.4;
+    private static final double BLUR = 0.5;
+
+    private int bitrate;
+    private int maxRate;
+    private int bufSize;
+    private double bitsPerFrame;
+
+    private double[] complexity;
+    private double wantedBits;
+    private double producedBits;
+    private double bufferFill;
+
+    private int nMb;
+    private int mbDone;
+    private int frameQp;
+    private int curQp;
+    private SliceType frameType;
+    private int frameTarget;
+    private int frameLimit;
+    private int frameBits;
+    private int qpSum;
+
+    private int lastFrameBits;
+    private int lastFrameQp;
+
+    /**
+     * @param bitrate
+     *            Average bitrate, bits per second
+     * @param maxRate
+     *            Rate at which the VBV buffer is filled, bits per second, 0
+     *            means there is no VBV
+     * @param bufSize
+     *            Size of the VBV buffer, bits
+     * @param fps
+     *            Frame rate of the video
+     */
+    public VBVRateControl(int bitrate, int maxRate, int bufSize, Rational fps) {
+        if (bitrate <= 0)
+            throw new IllegalArgumentException("Bitrate should be positive");
+        this.bitrate = bitrate;
+        this.maxRate = maxRate;
+        this.bufSize = bufSize;
+        this.bitsPerFrame = (double) bitrate * fps.getDen() / fps.getNum();
+        this.complexity = new double[2];
+        this.bufferFill = bufSize * 0.9;
+    }
+
+    @Override
+    public int startPicture(Size sz, int maxSize, SliceType sliceType) {
+        nMb = ((sz.getWidth() + 15) >> 4) * ((sz.getHeight() + 15) >> 4);
+        mbDone = 0;
+        frameBits = 0;
+        qpSum = 0;
+        frameType = sliceType;
+
+        double fill = bufferFill;
+        if (hasVBV())
+            fill = Math.min(fill + maxRate * bitsPerFrame / bitrate, bufSize);
+        frameLimit = (int) Math.min((long) maxSize << 3, hasVBV() ? (long) fill : Long.MAX_VALUE);
+
+        int type = typeIdx(sliceType);
+        if (complexity[type] == 0) {
+            frameQp = sliceType == SliceType.I ? INIT_QP : INIT_QP + 3;
+            frameTarget = 0;
+        } else {
+            // The P pictures get the average frame budget corrected by the
+            // accumulated error, the I pictures are relative to them
+            double overflow = Math.max(-0.5, Math.min((producedBits - wantedBits) / (2.0 * bitrate), 1));
+            double qstep = (complexity[1] == 0 ? complexity[0] / IP_FACTOR : complexity[1]) / bitsPerFrame
+                    * (1 + overflow);
+            if (sliceType == SliceType.I)
+                qstep /= IP_FACTOR;
+            frameQp = MathUtil.clip(qstepToQp(qstep), QP_MIN, QP_MAX);
+
+            // Coarser quantizer until the planned picture fits into the buffer
+            int margin = bufSize >> 3;
+            while (hasVBV() && frameQp < QP_MAX && predictBits(type, frameQp) > fill - margin)
+                ++frameQp;
+            frameTarget = (int) Math.min(predictBits(type, frameQp), frameLimit);
+        }
+        curQp = frameQp;
+        return frameQp;
+    }
+
+    @Override
+    public int initialQpDelta() {
+        if (frameTarget == 0)
+            return 0;
+        int expected = (int) ((long) frameTarget * mbDone / nMb);
+        int delta = 0;
+        if (frameBits - expected > (frameTarget >> 3))
+            delta = 1;
+        else if (expected - frameBits > (frameTarget >> 3))
+            delta = -1;
+        int qp = MathUtil.clip(curQp + delta, Math.max(frameQp - MB_QP_RANGE, QP_MIN),
+                Math.min(frameQp + MB_QP_RANGE, QP_MAX));
+        delta = qp - curQp;
+        curQp = qp;
+        return delta;
+    }
+
+    @Override
+    public int accept(int bits) {
+        // The macroblock is recoded if the picture is about to not fit
+        long allowed = (long) frameLimit * (mbDone + 1) / nMb;
+        if (frameBits + bits > allowed && curQp < QP_MAX) {
+            ++curQp;
+            return 1;
+        }
+        frameBits += bits;
+        qpSum += curQp;
+        ++mbDone;
+        return 0;
+    }
+
+    @Override
+    public void endPicture(int bits) {
+        int type = typeIdx(frameType);
+        double cplx = bits * qpToQstep(mbDone == 0 ? frameQp : (double) qpSum / mbDone);
+        complexity[type] = complexity[type] == 0 ? cplx : complexity[type] * (1 - BLUR) + cplx * BLUR;
+        producedBits += bits;
+        wantedBits += bitsPerFrame;
+
+        if (hasVBV())
+            bufferFill = Math.max(Math.min(bufferFill + maxRate * bitsPerFrame / bitrate, bufSize) - bits, 0);
+        lastFrameBits = bits;
+        lastFrameQp = frameQp;
+    }
+
+    /**
+     * @return Size of the last coded picture in bits
+     */
+    public int getLastFrameBits() {
+        return lastFrameBits;
+    }
+
+    /**
+     * @return QP the last picture was started with
+     */
+    public int getLastFrameQp() {
+        return lastFrameQp;
+    }
+
+    /**
+     * @return Number of bits in the simulated decoder buffer after the last
+     *         picture was removed from it
+     */
+    public int getBufferFill() {
+        return (int) bufferFill;
+    }
+
+    public void reset() {
+        complexity = new double[2];
+        wantedBits = 0;
+        producedBits = 0;
+        bufferFill = bufSize * 0.9;
+    }
+
+    private boolean hasVBV() {
+        return maxRate > 0 && bufSize > 0;
+    }
+
+    private double predictBits(int type, int qp) {
+        return complexity[type] / qpToQstep(qp);
+    }
+
+    private static int typeIdx(SliceType sliceType) {
+        return sliceType == SliceType.I ? 0 : 1;
+    }
+
+    private static double qpToQstep(double qp) {
+        return 0.85 * Math.pow(2, (qp - 12) / 6.0);
+    }
+
+    private static int qstepToQp(double qstep) {
+        return (int) Math.round(12 + 6 * Math.log(qstep / 0.85) / Math.log(2));
+    }
+}
@@ -89,8 +89,11 @@ public class CABAC {
 
     public int[] tmp;
 
+    private boolean fastResidual;
+
     public CABAC(int mbWidth) {
         this.tmp = new int[16];
+        this.fastResidual = true;
         this.chromaPredModeLeft = 0;
         this.chromaPredModeTop = new int[mbWidth];
         this.codedBlkLeft = new int[][] { new int[4], new int[2], new int[2] };
@@ -108,8 +111,24 @@ public class CABAC {
         this.mvdLeft = new int[2][2][4];
     }
 
+    /**
+     * Selects the way residual blocks are decoded, the table driven fast path
+     * of MDecoder (default) or the bin by bin reference path. Both produce
+     * identical results.
+     * 
+     * @param fastResidual
+     */
+    public void setFastResidual(boolean fastResidual) {
+        this.fastResidual = fastResidual;
+    }
+
     public int readCoeffs(MDecoder decoder, BlockType blockType, int[] out, int first, int num, int[] reorder,
             int[] scMapping, int[] lscMapping) {
+        if (fastResidual)
+            return decoder.decodeResidual(blockType.sigCoeffFlagCtxOff, blockType.lastSigCoeffCtxOff,
+                    blockType.coeffAbsLevelCtxOff, blockType.coeffAbsLevelAdjust, out, first, num, reorder, scMapping,
+                    lscMapping);
+
         boolean sigCoeff[] = new boolean[num];
         int numCoeff;
         for (numCoeff = 0; numCoeff < num - 1; numCoeff++) {
@@ -17,21 +17,33 @@ import org.jcodec.common.model.Rect;
  * 
  */
 public class Frame extends Picture {
+    /**
+     * Number of edge extended luma pixels around the padded planes, chroma
+     * planes have half of that
+     */
+    public static final int PAD = 32;
+
     private int frameNo;
     private SliceType frameType;
     private MvList2D mvs;
     private Frame[][][] refsUsed;
     private boolean shortTerm;
     private int poc;
+    private volatile int linesReady;
+    private int refCnt;
+    private byte[][] padded;
+    private volatile int paddedLines;
 
     public Frame(int width, int height, byte[][] data, ColorSpace color, Rect crop, int frameNo, SliceType frameType,
             MvList2D mvs, Frame[][][] refsUsed, int poc) {
         super(width, height, data, null, color, 0, crop);
         this.frameNo = frameNo;
+        this.frameType = frameType;
         this.mvs = mvs;
         this.refsUsed = refsUsed;
         this.poc = poc;
         shortTerm = true;
+        linesReady = Integer.MAX_VALUE;
     }
 
     public static Frame createFrame(Frame pic) {
@@ -40,6 +52,49 @@ public class Frame extends Picture {
                 pic.frameNo, pic.frameType, pic.mvs, pic.refsUsed, pic.poc);
     }
 
+    /**
+     * Creates a blank frame with the planes, motion vectors and the reference
+     * table sized for a picture of the given dimensions.
+     * 
+     * @param width
+     * @param height
+     * @param color
+     * @return
+     */
+    public static Frame createFrame(int width, int height, ColorSpace color) {
+        Picture pic = Picture.create(width, height, color);
+        return new Frame(width, height, pic.getData(), color, null, 0, null, new MvList2D(width >> 2, height >> 2),
+                new Frame[(width >> 4) * (height >> 4)][][], 0);
+    }
+
+    /**
+     * Reinitializes a recycled frame to hold a new picture
+     */
+    public void reuse(int frameNo, SliceType frameType, MvList2D mvs, Frame[][][] refsUsed, int poc, Rect crop) {
+        setCrop(crop);
+        this.frameNo = frameNo;
+        this.frameType = frameType;
+        this.mvs = mvs;
+        this.refsUsed = refsUsed;
+        this.poc = poc;
+        this.shortTerm = true;
+        this.linesReady = Integer.MAX_VALUE;
+        this.paddedLines = 0;
+    }
+
+    public synchronized void incRefCnt() {
+        ++refCnt;
+    }
+
+    /**
+     * Drops one reference to this frame
+     * 
+     * @return If the frame is not used anymore and can be recycled
+     */
+    public synchronized boolean decRefCnt() {
+        return --refCnt <= 0;
+    }
+
     public Frame cropped() {
         Picture cropped = super.cropped();
         return new Frame(cropped.getWidth(), cropped.getHeight(), cropped.getData(), cropped.getColor(), null, frameNo,
@@ -53,6 +108,7 @@ public class Frame extends Picture {
         this.shortTerm = src.shortTerm;
         this.refsUsed = src.refsUsed;
         this.poc = src.poc;
+        this.paddedLines = 0;
     }
     
     /**
@@ -116,6 +172,114 @@ public class Frame extends Picture {
         }
     };
 
+    /**
+     * Marks this frame as being decoded, the readers of this frame will block
+     * until the lines they need are reported with setLinesReady
+     */
+    public void startDecoding() {
+        linesReady = 0;
+    }
+
+    /**
+     * Reports the number of top luma lines of this frame that are fully
+     * reconstructed and deblocked and will not change anymore
+     * 
+     * @param lines
+     *            Number of lines, Integer.MAX_VALUE when the frame is done
+     */
+    public synchronized void setLinesReady(int lines) {
+        linesReady = lines;
+        notifyAll();
+    }
+
+    /**
+     * Blocks until the top luma lines of this frame are fully decoded. Returns
+     * right away for the frames that are not being decoded.
+     * 
+     * @param lines
+     */
+    public void waitForLines(int lines) {
+        if (linesReady >= lines)
+            return;
+        synchronized (this) {
+            while (linesReady < lines) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies the given range of final luma lines ( and the matching chroma
+     * lines ) into the padded planes replicating the edge pixels into the
+     * borders. Called in order for the consecutive line ranges of the frame,
+     * the top border is filled with the first range and the bottom border
+     * with the range that reaches the bottom of the frame.
+     * 
+     * @param fromLine
+     * @param toLine
+     *            Exclusive, can be larger than the height of the frame
+     */
+    public void extendEdges(int fromLine, int toLine) {
+        byte[][] data = getData();
+        if (padded == null)
+            padded = new byte[data.length][];
+        for (int plane = 0; plane < data.length; plane++) {
+            int shift = plane == 0 ? 0 : 1;
+            int pad = PAD >> shift;
+            int w = getPlaneWidth(plane);
+            int h = getPlaneHeight(plane);
+            int stride = w + (pad << 1);
+            if (padded[plane] == null || padded[plane].length != stride * (h + (pad << 1)))
+                padded[plane] = new byte[stride * (h + (pad << 1))];
+
+            int from = fromLine >> shift;
+            int to = Math.min(toLine >> shift, h);
+            byte[] src = data[plane];
+            byte[] dst = padded[plane];
+            for (int line = from; line < to; line++)
+                extendLine(src, line * w, dst, (line + pad) * stride, w, pad);
+
+            if (from == 0 && to > 0) {
+                for (int line = 0; line < pad; line++)
+                    System.arraycopy(dst, pad * stride, dst, line * stride, stride);
+            }
+            if (to == h && from < to) {
+                for (int line = h + pad; line < h + (pad << 1); line++)
+                    System.arraycopy(dst, (h + pad - 1) * stride, dst, line * stride, stride);
+            }
+        }
+        if (fromLine <= paddedLines)
+            paddedLines = toLine >= getHeight() ? Integer.MAX_VALUE : toLine;
+    }
+
+    private static void extendLine(byte[] src, int srcOff, byte[] dst, int dstOff, int w, int pad) {
+        byte left = src[srcOff];
+        byte right = src[srcOff + w - 1];
+        for (int i = 0; i < pad; i++) {
+            dst[dstOff + i] = left;
+            dst[dstOff + pad + w + i] = right;
+        }
+        System.arraycopy(src, srcOff, dst, dstOff + pad, w);
+    }
+
+    /**
+     * Edge extended planes of this frame, stride of a plane is it's width plus
+     * two borders.
+     * 
+     * @param lines
+     *            Number of top luma lines the caller is going to read, the
+     *            lines past the bottom of the frame are the bottom border
+     * @return The padded planes or null if these lines were not edge extended
+     *         yet
+     */
+    public byte[][] getPadded(int lines) {
+        return paddedLines >= lines ? padded : null;
+    }
+
     public Frame[][][] getRefsUsed() {
         return refsUsed;
     }
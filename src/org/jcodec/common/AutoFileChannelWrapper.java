@@ -4,6 +4,7 @@ import static java.lang.System.currentTimeMillis;
 
 import org.jcodec.common.io.AutoPool;
 import org.jcodec.common.io.AutoResource;
+import org.jcodec.common.io.PositionalReadChannel;
 import org.jcodec.common.io.SeekableByteChannel;
 
 import java.io.File;
@@ -16,10 +17,15 @@ import java.nio.channels.FileChannel;
  * This class is part of JCodec ( www.jcodec.org ) This software is distributed
  * under FreeBSD License
  * 
+ * File channel that is closed by the auto pool when it's not used for a while
+ * and transparently reopened on the next access. The positional reads only
+ * lock the wrapper to get the open channel, the channel is not closed while
+ * any of them is in progress.
+ * 
  * @author The JCodec project
  * 
  */
-public class AutoFileChannelWrapper implements SeekableByteChannel, AutoResource {
+public class AutoFileChannelWrapper implements PositionalReadChannel, AutoResource {
 
     private static final long THRESHOLD = 5000; // five seconds
 
@@ -28,6 +34,7 @@ public class AutoFileChannelWrapper implements SeekableByteChannel, AutoResource
     private long savedPos;
     private long curTime;
     private long accessTime;
+    private int readers;
 
     public AutoFileChannelWrapper(File file) throws IOException {
         this.file = file;
@@ -36,7 +43,7 @@ public class AutoFileChannelWrapper implements SeekableByteChannel, AutoResource
         ensureOpen();
     }
 
-    private void ensureOpen() throws IOException {
+    private synchronized void ensureOpen() throws IOException {
         accessTime = curTime;
         if (ch == null || !ch.isOpen()) {
             ch = new FileInputStream(file).getChannel();
@@ -45,7 +52,7 @@ public class AutoFileChannelWrapper implements SeekableByteChannel, AutoResource
     }
 
     @Override
-    public int read(ByteBuffer arg0) throws IOException {
+    public synchronized int read(ByteBuffer arg0) throws IOException {
         ensureOpen();
         int r = ch.read(arg0);
         savedPos = ch.position();
@@ -53,7 +60,24 @@ public class AutoFileChannelWrapper implements SeekableByteChannel, AutoResource
     }
 
     @Override
-    public void close() throws IOException {
+    public int read(ByteBuffer dst, long position) throws IOException {
+        FileChannel open;
+        synchronized (this) {
+            ensureOpen();
+            open = ch;
+            ++readers;
+        }
+        try {
+            return open.read(dst, position);
+        } finally {
+            synchronized (this) {
+                --readers;
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
         if (ch != null && ch.isOpen()) {
             savedPos = ch.position();
             ch.close();
@@ -62,12 +86,12 @@ public class AutoFileChannelWrapper implements SeekableByteChannel, AutoResource
     }
 
     @Override
-    public boolean isOpen() {
+    public synchronized boolean isOpen() {
         return ch != null && ch.isOpen();
     }
 
     @Override
-    public int write(ByteBuffer arg0) throws IOException {
+    public synchronized int write(ByteBuffer arg0) throws IOException {
         ensureOpen();
         int w = ch.write(arg0);
         savedPos = ch.position();
@@ -75,13 +99,13 @@ public class AutoFileChannelWrapper implements SeekableByteChannel, AutoResource
     }
 
     @Override
-    public long position() throws IOException {
+    public synchronized long position() throws IOException {
         ensureOpen();
         return ch.position();
     }
 
     @Override
-    public SeekableByteChannel setPosition(long newPosition) throws IOException {
+    public synchronized SeekableByteChannel setPosition(long newPosition) throws IOException {
         ensureOpen();
         ch.position(newPosition);
         savedPos = newPosition;
@@ -89,13 +113,13 @@ public class AutoFileChannelWrapper implements SeekableByteChannel, AutoResource
     }
 
     @Override
-    public long size() throws IOException {
+    public synchronized long size() throws IOException {
         ensureOpen();
         return ch.size();
     }
 
     @Override
-    public SeekableByteChannel truncate(long size) throws IOException {
+    public synchronized SeekableByteChannel truncate(long size) throws IOException {
         ensureOpen();
         ch.truncate(size);
         savedPos = ch.position();
@@ -103,9 +127,9 @@ public class AutoFileChannelWrapper implements SeekableByteChannel, AutoResource
     }
 
     @Override
-    public void setCurTime(long curTime) {
+    public synchronized void setCurTime(long curTime) {
         this.curTime = curTime;
-        if (ch != null && ch.isOpen() && curTime - accessTime > THRESHOLD) {
+        if (ch != null && ch.isOpen() && readers == 0 && curTime - accessTime > THRESHOLD) {
             try {
                 close();
             } catch (IOException e) {
@@ -0,0 +1,140 @@
+package org.jcodec.common;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class is part of JCodec ( www.jcodec.org ) This software is distributed
+ * under FreeBSD License
+ *
+ * An executor view of a (possibly shared) executor that never runs more than
+ * the given number of tasks at the same time. Excess tasks are queued locally
+ * and handed over to the underlying executor in the order of submission.
+ *
+ * Shutting down this view does not shut down the underlying executor.
+ *
+ * @author The JCodec project
+ *
+ */
+public class BoundedExecutor extends AbstractExecutorService {
+    private Executor executor;
+    private int maxThreads;
+    private LinkedList<Runnable> pending;
+    private int running;
+    private boolean shutdown;
+
+    public BoundedExecutor(Executor executor, int maxThreads) {
+        if (maxThreads < 1)
+            throw new IllegalArgumentException("At least one thread is needed.");
+        this.executor = executor;
+        this.maxThreads = maxThreads;
+        this.pending = new LinkedList<Runnable>();
+    }
+
+    public void execute(Runnable command) {
+        synchronized (this) {
+            if (shutdown)
+                throw new RejectedExecutionException("Executor is shut down.");
+            if (running >= maxThreads) {
+                pending.add(command);
+                return;
+            }
+            ++running;
+        }
+        dispatch(command);
+    }
+
+    private void dispatch(Runnable command) {
+        try {
+            executor.execute(new Worker(command));
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                --running;
+                notifyAll();
+            }
+            throw e;
+        }
+    }
+
+    private class Worker implements Runnable {
+        private Runnable task;
+
+        public Worker(Runnable task) {
+            this.task = task;
+        }
+
+        public void run() {
+            try {
+                task.run();
+            } finally {
+                // Queued tasks go to the back of the underlying executor so
+                // that they don't overtake the tasks submitted earlier
+                Runnable next = taskDone();
+                if (next != null)
+                    handOver(next);
+            }
+        }
+    }
+
+    /**
+     * Hands a queued task over to the underlying executor. The task keeps the
+     * worker slot of the finished one, if the underlying executor rejects it
+     * the task is run on the current worker so that its future still
+     * completes.
+     */
+    private void handOver(Runnable next) {
+        Worker worker = new Worker(next);
+        try {
+            executor.execute(worker);
+        } catch (RejectedExecutionException e) {
+            worker.run();
+        }
+    }
+
+    /**
+     * Passes the worker slot of a finished task to the next queued task or
+     * releases it.
+     */
+    private synchronized Runnable taskDone() {
+        if (!pending.isEmpty())
+            return pending.removeFirst();
+        --running;
+        notifyAll();
+        return null;
+    }
+
+    public synchronized void shutdown() {
+        shutdown = true;
+    }
+
+    public synchronized List<Runnable> shutdownNow() {
+        shutdown = true;
+        List<Runnable> result = new ArrayList<Runnable>(pending);
+        pending.clear();
+        return result;
+    }
+
+    public synchronized boolean isShutdown() {
+        return shutdown;
+    }
+
+    public synchronized boolean isTerminated() {
+        return shutdown && running == 0 && pending.isEmpty();
+    }
+
+    public synchronized boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!isTerminated()) {
+            long left = deadline - System.nanoTime();
+            if (left <= 0)
+                return false;
+            TimeUnit.NANOSECONDS.timedWait(this, left);
+        }
+        return true;
+    }
+}
@@ -57,7 +57,8 @@ public class DemuxerTrackMeta {
     /**
      * @return Array of frame indexes that can be used to seek to, i.e. which
      *         don't require any previous frames to be decoded. Is null when
-     *         every frame is a seek frame.
+     *         every frame is a seek frame, is empty when the seek frames are
+     *         not known upfront.
      */
     public int[] getSeekFrames() {
         return seekFrames;
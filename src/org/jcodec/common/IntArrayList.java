@@ -35,7 +35,9 @@ public class IntArrayList {
 
     public void add(int val) {
         if (_size >= storage.length) {
-            int[] ns = new int[storage.length + growAmount];
+            // Grows geometrically so that long lists are not copied on every
+            // few additions
+            int[] ns = new int[storage.length + Math.max(growAmount, storage.length >> 1)];
             arraycopy(storage, 0, ns, 0, storage.length);
             storage = ns;
         }
@@ -37,7 +37,10 @@ public class LongArrayList {
 
     public void add(long val) {
         if (limit > storage.length - 1) {
-            long[] ns = new long[storage.length + growAmount - start];
+            // Grows geometrically so that long lists are not copied on every
+            // few additions
+            int used = storage.length - start;
+            long[] ns = new long[used + Math.max(growAmount, used >> 1)];
             arraycopy(storage, start, ns, 0, storage.length - start);
             storage = ns;
             limit -= start;
@@ -71,6 +71,19 @@ public abstract class RunLength {
             return values.toArray();
         }
 
+        /**
+         * @return A copy that can be read while values are still being added
+         *         to this one
+         */
+        public Integer copy() {
+            Integer rl = new Integer();
+            rl.counts.addAll(counts.toArray());
+            rl.values.addAll(values.toArray());
+            rl.lastValue = lastValue;
+            rl.count = count;
+            return rl;
+        }
+
         protected void finish() {
             if (lastValue != Integer.MIN_VALUE) {
                 values.add(lastValue);
@@ -11,7 +11,7 @@ import java.nio.ByteBuffer;
  * @author The JCodec project
  * 
  */
-public class ByteBufferSeekableByteChannel implements SeekableByteChannel {
+public class ByteBufferSeekableByteChannel implements PositionalReadChannel {
 
     private ByteBuffer backing;
     private boolean open;
@@ -53,6 +53,18 @@ public class ByteBufferSeekableByteChannel implements SeekableByteChannel {
         return toRead;
     }
 
+    @Override
+    public int read(ByteBuffer dst, long position) throws IOException {
+        ByteBuffer src = backing.duplicate();
+        src.limit(Math.min(src.limit(), contentLength));
+        if (position >= src.limit())
+            return -1;
+        src.position((int) position);
+        int toRead = Math.min(src.remaining(), dst.remaining());
+        dst.put(NIOUtils.read(src, toRead));
+        return toRead;
+    }
+
     @Override
     public int write(ByteBuffer src) throws IOException {
         int toWrite = Math.min(backing.remaining(), src.remaining());
@@ -0,0 +1,173 @@
+package org.jcodec.common.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * This class is part of JCodec ( www.jcodec.org ) This software is distributed
+ * under FreeBSD License
+ *
+ * Copies byte ranges of the input channels to the end of the output channel.
+ *
+ * The ranges that continue each other in the same input are merged into one
+ * large sequential transfer. A range is read into one of the two buffers
+ * while the other buffer is written on a background thread, between two
+ * files the bytes are transferred by the platform without being read into
+ * the buffers at all.
+ *
+ * The output channel must not be used until the copier is flushed.
+ *
+ * @author The JCodec project
+ *
+ */
+public class ChannelCopier {
+    public static final int DEFAULT_BUFFER_SIZE = 4 << 20;
+
+    private SeekableByteChannel out;
+    private long outPos;
+    private long copied;
+
+    private ExecutorService writer;
+    private Future<Void> writing;
+    private ByteBuffer filling;
+    private ByteBuffer spare;
+
+    private SeekableByteChannel rangeInput;
+    private long rangeStart;
+    private long rangeEnd;
+
+    public ChannelCopier(SeekableByteChannel out) throws IOException {
+        this(out, DEFAULT_BUFFER_SIZE);
+    }
+
+    public ChannelCopier(SeekableByteChannel out, int bufferSize) throws IOException {
+        this.out = out;
+        this.outPos = out.position();
+        this.filling = ByteBuffer.allocate(bufferSize);
+        this.spare = ByteBuffer.allocate(bufferSize);
+        this.writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r);
+                t.setDaemon(true);
+                t.setName(ChannelCopier.class.getName());
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Queues a copy of the range of the input
+     *
+     * @return The position of the range in the output
+     */
+    public long copy(SeekableByteChannel input, long offset, long size) throws IOException {
+        if (input != rangeInput || offset != rangeEnd) {
+            copyRange();
+            rangeInput = input;
+            rangeStart = rangeEnd = offset;
+        }
+        rangeEnd += size;
+        long pos = outPos;
+        outPos += size;
+        return pos;
+    }
+
+    /**
+     * @return Number of bytes that reached the output
+     */
+    public long getCopied() {
+        return copied;
+    }
+
+    /**
+     * Writes all the queued ranges to the output, the output is positioned
+     * after them
+     */
+    public void flush() throws IOException {
+        copyRange();
+        drain();
+    }
+
+    /**
+     * Stops the background writer, the ranges that were not flushed are not
+     * copied
+     */
+    public void close() {
+        writer.shutdown();
+    }
+
+    private void copyRange() throws IOException {
+        if (rangeInput == null)
+            return;
+        SeekableByteChannel input = rangeInput;
+        long pos = rangeStart;
+        rangeInput = null;
+
+        if (input instanceof FileChannelWrapper && out instanceof FileChannelWrapper) {
+            drain();
+            while (pos < rangeEnd) {
+                long transferred = ((FileChannelWrapper) input).transferTo(pos, rangeEnd - pos, out);
+                if (transferred <= 0)
+                    throw new IOException("Unexpected end of input at " + pos);
+                pos += transferred;
+                copied += transferred;
+            }
+            return;
+        }
+
+        while (pos < rangeEnd) {
+            int len = (int) Math.min(filling.remaining(), rangeEnd - pos);
+            if (NIOUtils.readAt(input, filling, len, pos) != len)
+                throw new IOException("Unexpected end of input at " + pos);
+            pos += len;
+            if (!filling.hasRemaining())
+                submit();
+        }
+    }
+
+    private void submit() throws IOException {
+        waitWriter();
+        final ByteBuffer buf = filling;
+        buf.flip();
+        filling = spare;
+        spare = buf;
+        writing = writer.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                while (buf.hasRemaining())
+                    out.write(buf);
+                return null;
+            }
+        });
+    }
+
+    private void drain() throws IOException {
+        if (filling.position() > 0)
+            submit();
+        waitWriter();
+    }
+
+    private void waitWriter() throws IOException {
+        if (writing == null)
+            return;
+        try {
+            writing.get();
+            copied += spare.limit();
+            spare.clear();
+            writing = null;
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new RuntimeException(e.getCause());
+        }
+    }
+}
@@ -4,6 +4,7 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * This class is part of JCodec ( www.jcodec.org ) This software is distributed
@@ -12,7 +13,7 @@ import java.nio.channels.FileChannel;
  * @author The JCodec project
  * 
  */
-public class FileChannelWrapper implements SeekableByteChannel {
+public class FileChannelWrapper implements PositionalReadChannel {
 
     private FileChannel ch;
 
@@ -25,6 +26,11 @@ public class FileChannelWrapper implements SeekableByteChannel {
         return ch.read(arg0);
     }
 
+    @Override
+    public int read(ByteBuffer dst, long position) throws IOException {
+        return ch.read(dst, position);
+    }
+
     @Override
     public void close() throws IOException {
         ch.close();
@@ -56,6 +62,18 @@ public class FileChannelWrapper implements SeekableByteChannel {
         return ch.size();
     }
 
+    /**
+     * Copies the bytes of the file to the target channel, between two files
+     * the platform does it without reading the bytes into the user space
+     * 
+     * @return Number of bytes copied
+     */
+    public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+        if (target instanceof FileChannelWrapper)
+            target = ((FileChannelWrapper) target).ch;
+        return ch.transferTo(position, count, target);
+    }
+
     @Override
     public SeekableByteChannel truncate(long size) throws IOException {
         ch.truncate(size);
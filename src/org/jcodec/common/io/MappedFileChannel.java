@@ -0,0 +1,124 @@
+package org.jcodec.common.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * This class is part of JCodec ( www.jcodec.org ) This software is distributed
+ * under FreeBSD License
+ *
+ * Read only channel over a memory mapped file.
+ *
+ * Besides the regular reads the channel gives out slices of the mapping, the
+ * demuxers return the packet data as such slices so that the samples are
+ * neither copied nor allocated. The file is mapped lazily in regions of 1GB,
+ * consecutive regions overlap so that a slice of up to 64MB is always
+ * contained in one region.
+ *
+ * @author The JCodec project
+ *
+ */
+public class MappedFileChannel implements PositionalReadChannel {
+    private static final long REGION_SIZE = 1L << 30;
+    private static final int REGION_OVERLAP = 64 << 20;
+
+    private FileChannel ch;
+    private long size;
+    private MappedByteBuffer[] regions;
+    private long pos;
+
+    public MappedFileChannel(FileChannel ch) throws IOException {
+        this.ch = ch;
+        this.size = ch.size();
+        this.regions = new MappedByteBuffer[(int) ((size + REGION_SIZE - 1) / REGION_SIZE)];
+    }
+
+    /**
+     * Read only view of the bytes of the file, nothing is copied
+     *
+     * @return The view, it's shorter then the length at the end of the file,
+     *         or null if the bytes are not in one region of the mapping
+     */
+    public ByteBuffer slice(long position, int length) throws IOException {
+        if (position < 0 || position >= size)
+            return null;
+        int idx = (int) (position / REGION_SIZE);
+        long regionStart = idx * REGION_SIZE;
+        ByteBuffer region = region(idx).duplicate();
+        int off = (int) (position - regionStart);
+        long end = Math.min(position + length, size);
+        if (end > regionStart + region.capacity())
+            return null;
+        region.position(off);
+        region.limit(off + (int) (end - position));
+        return region.slice();
+    }
+
+    private synchronized MappedByteBuffer region(int idx) throws IOException {
+        if (regions[idx] == null) {
+            long start = idx * REGION_SIZE;
+            regions[idx] = ch.map(MapMode.READ_ONLY, start, Math.min(REGION_SIZE + REGION_OVERLAP, size - start));
+        }
+        return regions[idx];
+    }
+
+    @Override
+    public int read(ByteBuffer dst, long position) throws IOException {
+        if (position >= size)
+            return -1;
+        ByteBuffer src = slice(position, (int) Math.min(dst.remaining(), size - position));
+        if (src == null)
+            return ch.read(dst, position);
+        int read = src.remaining();
+        dst.put(src);
+        return read;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        int read = read(dst, pos);
+        if (read > 0)
+            pos += read;
+        return read;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        throw new IOException("Write to a mapped file is not supported.");
+    }
+
+    @Override
+    public long position() throws IOException {
+        return pos;
+    }
+
+    @Override
+    public SeekableByteChannel setPosition(long newPosition) throws IOException {
+        pos = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+        return size;
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) throws IOException {
+        throw new IOException("Truncate on a mapped file is not supported.");
+    }
+
+    @Override
+    public boolean isOpen() {
+        return ch.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        regions = new MappedByteBuffer[regions.length];
+        ch.close();
+    }
+}
@@ -151,6 +151,46 @@ public class NIOUtils {
         return buffer.position() == 0 ? -1 : buffer.position();
     }
 
+    /**
+     * Reads up to length bytes starting at the position of the channel without
+     * moving the channel. The channels that can't read positionally are
+     * locked, moved to the position and moved back.
+     *
+     * @return Number of bytes read or -1 if nothing could be read
+     */
+    public static int readAt(SeekableByteChannel channel, ByteBuffer buffer, int length, long position)
+            throws IOException {
+        ByteBuffer fork = buffer.duplicate();
+        fork.limit(min(fork.position() + length, fork.limit()));
+        if (channel instanceof PositionalReadChannel) {
+            PositionalReadChannel ch = (PositionalReadChannel) channel;
+            int r;
+            while (fork.hasRemaining() && (r = ch.read(fork, position)) > 0)
+                position += r;
+        } else {
+            synchronized (channel) {
+                long saved = channel.position();
+                channel.setPosition(position);
+                try {
+                    while (fork.hasRemaining() && channel.read(fork) > 0)
+                        ;
+                } finally {
+                    channel.setPosition(saved);
+                }
+            }
+        }
+        int read = fork.position() - buffer.position();
+        buffer.position(fork.position());
+        return read == 0 && length > 0 ? -1 : read;
+    }
+
+    public static ByteBuffer fetchAt(SeekableByteChannel channel, int size, long position) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        readAt(channel, buf, size, position);
+        buf.flip();
+        return buf;
+    }
+
     public static int readFromChannel(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
         int rem = buffer.position();
         while (channel.read(buffer) != -1 && buffer.hasRemaining())
@@ -352,6 +392,14 @@ public class NIOUtils {
         return new FileChannelWrapper(new RandomAccessFile(file, "rw").getChannel());
     }
 
+    /**
+     * Read only memory mapped channel, the demuxers return slices of the
+     * mapping as the packet data
+     */
+    public static MappedFileChannel mappedChannel(File file) throws IOException {
+        return new MappedFileChannel(new FileInputStream(file).getChannel());
+    }
+
     public static FileChannelWrapper readableFileChannel(String file) throws FileNotFoundException {
         return new FileChannelWrapper(new FileInputStream(file).getChannel());
     }
@@ -0,0 +1,27 @@
+package org.jcodec.common.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * This class is part of JCodec ( www.jcodec.org ) This software is distributed
+ * under FreeBSD License
+ * 
+ * Channel that can read at a given position without changing the position of
+ * the channel. File backed channels allow several threads to read
+ * concurrently this way.
+ * 
+ * @author The JCodec project
+ * 
+ */
+public interface PositionalReadChannel extends SeekableByteChannel {
+
+    /**
+     * Reads a sequence of bytes starting at the given position without
+     * changing the position of the channel.
+     *
+     * @return Number of bytes read or -1 if the position is past the end of
+     *         the channel
+     */
+    int read(ByteBuffer dst, long position) throws IOException;
+}
@@ -0,0 +1,174 @@
+package org.jcodec.common.tools;
+
+/**
+ * This class is part of JCodec ( www.jcodec.org ) This software is distributed
+ * under FreeBSD License
+ *
+ * Block distortion metrics used by the encoders for motion estimation and
+ * mode decision.
+ *
+ * The inner loops are branch free, walk the rows with unit stride and
+ * accumulate into a single int so that the JIT can unroll and vectorize them.
+ *
+ * @author The JCodec project
+ *
+ */
+public class Distortion {
+
+    /**
+     * Sum of absolute differences of two blocks
+     */
+    public static int sad(byte[] a, int aOff, int aStride, byte[] b, int bOff, int bStride, int w, int h) {
+        int sum = 0;
+        for (int i = 0; i < h; i++, aOff += aStride, bOff += bStride)
+            sum += sadRow(a, aOff, b, bOff, w);
+        return sum;
+    }
+
+    /**
+     * Sum of absolute differences of two blocks that stops after the row where
+     * the sum reaches the limit
+     *
+     * @return The sum or a value not less then the limit
+     */
+    public static int sad(byte[] a, int aOff, int aStride, byte[] b, int bOff, int bStride, int w, int h, int limit) {
+        int sum = 0;
+        for (int i = 0; i < h && sum < limit; i++, aOff += aStride, bOff += bStride)
+            sum += sadRow(a, aOff, b, bOff, w);
+        return sum;
+    }
+
+    private static int sadRow(byte[] a, int aOff, byte[] b, int bOff, int w) {
+        int sum = 0;
+        for (int j = 0; j < w; j++)
+            sum += Math.abs(a[aOff + j] - b[bOff + j]);
+        return sum;
+    }
+
+    /**
+     * Sum of squared differences of two blocks
+     */
+    public static long ssd(byte[] a, int aOff, int aStride, byte[] b, int bOff, int bStride, int w, int h) {
+        long sum = 0;
+        for (int i = 0; i < h; i++, aOff += aStride, bOff += bStride) {
+            int rowSum = 0;
+            for (int j = 0; j < w; j++) {
+                int d = a[aOff + j] - b[bOff + j];
+                rowSum += d * d;
+            }
+            sum += rowSum;
+        }
+        return sum;
+    }
+
+    /**
+     * Sum of absolute transformed differences of the block, the block is split
+     * into 4x4 sub-blocks each transformed with Hadamard transform.
+     *
+     * @param w
+     *            Width of the block, multiple of 4
+     * @param h
+     *            Height of the block, multiple of 4
+     */
+    public static int satd(byte[] a, int aOff, int aStride, byte[] b, int bOff, int bStride, int w, int h) {
+        int sum = 0;
+        for (int y = 0; y < h; y += 4)
+            for (int x = 0; x < w; x += 4)
+                sum += satd4x4(a, aOff + y * aStride + x, aStride, b, bOff + y * bStride + x, bStride);
+        return sum;
+    }
+
+    /**
+     * Hadamard SATD of a 4x4 block, normalized to the scale of SAD
+     */
+    public static int satd4x4(byte[] a, int aOff, int aStride, byte[] b, int bOff, int bStride) {
+        // Horizontal transform of the rows
+        int a1 = aOff + aStride, a2 = a1 + aStride, a3 = a2 + aStride;
+        int b1 = bOff + bStride, b2 = b1 + bStride, b3 = b2 + bStride;
+        int s0 = a[aOff] - b[bOff] + a[aOff + 1] - b[bOff + 1], t0 = a[aOff] - b[bOff] - a[aOff + 1] + b[bOff + 1];
+        int u0 = a[aOff + 2] - b[bOff + 2] + a[aOff + 3] - b[bOff + 3];
+        int v0 = a[aOff + 2] - b[bOff + 2] - a[aOff + 3] + b[bOff + 3];
+        int s1 = a[a1] - b[b1] + a[a1 + 1] - b[b1 + 1], t1 = a[a1] - b[b1] - a[a1 + 1] + b[b1 + 1];
+        int u1 = a[a1 + 2] - b[b1 + 2] + a[a1 + 3] - b[b1 + 3], v1 = a[a1 + 2] - b[b1 + 2] - a[a1 + 3] + b[b1 + 3];
+        int s2 = a[a2] - b[b2] + a[a2 + 1] - b[b2 + 1], t2 = a[a2] - b[b2] - a[a2 + 1] + b[b2 + 1];
+        int u2 = a[a2 + 2] - b[b2 + 2] + a[a2 + 3] - b[b2 + 3], v2 = a[a2 + 2] - b[b2 + 2] - a[a2 + 3] + b[b2 + 3];
+        int s3 = a[a3] - b[b3] + a[a3 + 1] - b[b3 + 1], t3 = a[a3] - b[b3] - a[a3 + 1] + b[b3 + 1];
+        int u3 = a[a3 + 2] - b[b3 + 2] + a[a3 + 3] - b[b3 + 3], v3 = a[a3 + 2] - b[b3 + 2] - a[a3 + 3] + b[b3 + 3];
+
+        // Vertical transform of the columns
+        int sum = hadamard4(s0 + u0, s1 + u1, s2 + u2, s3 + u3);
+        sum += hadamard4(s0 - u0, s1 - u1, s2 - u2, s3 - u3);
+        sum += hadamard4(t0 - v0, t1 - v1, t2 - v2, t3 - v3);
+        sum += hadamard4(t0 + v0, t1 + v1, t2 + v2, t3 + v3);
+        return (sum + 1) >> 1;
+    }
+
+    /**
+     * Hadamard SATD of an 8x8 block, normalized to the scale of SAD
+     */
+    public static int satd8x8(byte[] a, int aOff, int aStride, byte[] b, int bOff, int bStride) {
+        // The 8 point Hadamard matrix is [H4 H4; H4 -H4], so the transform of
+        // the block is made of the 4x4 transforms of the sums and differences
+        // of its quadrants
+        int sum = satdQuadrants(a, aOff, aStride, b, bOff, bStride, 1, 1);
+        sum += satdQuadrants(a, aOff, aStride, b, bOff, bStride, -1, 1);
+        sum += satdQuadrants(a, aOff, aStride, b, bOff, bStride, 1, -1);
+        sum += satdQuadrants(a, aOff, aStride, b, bOff, bStride, -1, -1);
+        return (sum + 2) >> 2;
+    }
+
+    /**
+     * Sum of the absolute values of the 4x4 Hadamard transform of the
+     * quadrants of an 8x8 difference block combined as top left + sx * top
+     * right + sy * bottom left + sx * sy * bottom right
+     */
+    private static int satdQuadrants(byte[] a, int aOff, int aStride, byte[] b, int bOff, int bStride, int sx,
+            int sy) {
+        int a1 = aOff + aStride, a2 = a1 + aStride, a3 = a2 + aStride;
+        int b1 = bOff + bStride, b2 = b1 + bStride, b3 = b2 + bStride;
+        int aDown = aStride << 2, bDown = bStride << 2;
+
+        // Horizontal transform of the rows
+        int d0 = quad(a, aOff, aDown, b, bOff, bDown, sx, sy);
+        int d1 = quad(a, aOff + 1, aDown, b, bOff + 1, bDown, sx, sy);
+        int d2 = quad(a, aOff + 2, aDown, b, bOff + 2, bDown, sx, sy);
+        int d3 = quad(a, aOff + 3, aDown, b, bOff + 3, bDown, sx, sy);
+        int s0 = d0 + d1, t0 = d0 - d1, u0 = d2 + d3, v0 = d2 - d3;
+        d0 = quad(a, a1, aDown, b, b1, bDown, sx, sy);
+        d1 = quad(a, a1 + 1, aDown, b, b1 + 1, bDown, sx, sy);
+        d2 = quad(a, a1 + 2, aDown, b, b1 + 2, bDown, sx, sy);
+        d3 = quad(a, a1 + 3, aDown, b, b1 + 3, bDown, sx, sy);
+        int s1 = d0 + d1, t1 = d0 - d1, u1 = d2 + d3, v1 = d2 - d3;
+        d0 = quad(a, a2, aDown, b, b2, bDown, sx, sy);
+        d1 = quad(a, a2 + 1, aDown, b, b2 + 1, bDown, sx, sy);
+        d2 = quad(a, a2 + 2, aDown, b, b2 + 2, bDown, sx, sy);
+        d3 = quad(a, a2 + 3, aDown, b, b2 + 3, bDown, sx, sy);
+        int s2 = d0 + d1, t2 = d0 - d1, u2 = d2 + d3, v2 = d2 - d3;
+        d0 = quad(a, a3, aDown, b, b3, bDown, sx, sy);
+        d1 = quad(a, a3 + 1, aDown, b, b3 + 1, bDown, sx, sy);
+        d2 = quad(a, a3 + 2, aDown, b, b3 + 2, bDown, sx, sy);
+        d3 = quad(a, a3 + 3, aDown, b, b3 + 3, bDown, sx, sy);
+        int s3 = d0 + d1, t3 = d0 - d1, u3 = d2 + d3, v3 = d2 - d3;
+
+        // Vertical transform of the columns
+        int sum = hadamard4(s0 + u0, s1 + u1, s2 + u2, s3 + u3);
+        sum += hadamard4(s0 - u0, s1 - u1, s2 - u2, s3 - u3);
+        sum += hadamard4(t0 - v0, t1 - v1, t2 - v2, t3 - v3);
+        sum += hadamard4(t0 + v0, t1 + v1, t2 + v2, t3 + v3);
+        return sum;
+    }
+
+    private static int quad(byte[] a, int aOff, int aDown, byte[] b, int bOff, int bDown, int sx, int sy) {
+        int top = a[aOff] - b[bOff] + sx * (a[aOff + 4] - b[bOff + 4]);
+        int bottom = a[aOff + aDown] - b[bOff + bDown] + sx * (a[aOff + aDown + 4] - b[bOff + bDown + 4]);
+        return top + sy * bottom;
+    }
+
+    /**
+     * Sum of the absolute values of the 4 point Hadamard transform
+     */
+    private static int hadamard4(int d0, int d1, int d2, int d3) {
+        int s01 = d0 + d1, t01 = d0 - d1, s23 = d2 + d3, t23 = d2 - d3;
+        return Math.abs(s01 + s23) + Math.abs(s01 - s23) + Math.abs(t01 - t23) + Math.abs(t01 + t23);
+    }
+}
@@ -47,36 +47,8 @@ public class MKVParser {
         List<EbmlMaster> tree = new ArrayList<EbmlMaster>();
         EbmlBase e = null;
 
-        while ((e = nextElement()) != null) {
-            if (!isKnownType(e.id))
-                System.err.println("Unspecified header: " + EbmlUtil.toHexString(e.id) + " at " + e.offset);
-
-            while (!possibleChild(trace.peekFirst(), e))
-                closeElem(trace.removeFirst(), tree);
-
-            openElem(e);
-
-            if (e instanceof EbmlMaster) {
-                trace.push((EbmlMaster) e);
-            } else if (e instanceof EbmlBin) {
-                EbmlBin bin = (EbmlBin) e;
-                EbmlMaster traceTop = trace.peekFirst();
-                if ((traceTop.dataOffset + traceTop.dataLen) < (e.dataOffset + e.dataLen)) {
-                    channel.setPosition((traceTop.dataOffset + traceTop.dataLen));
-                } else
-                    try {
-                        bin.readChannel(channel);
-                    } catch (OutOfMemoryError oome) {
-                        throw new RuntimeException(e.type + " 0x" + toHexString(bin.id) + " size: " + Long.toHexString(bin.dataLen) + " offset: 0x" + Long.toHexString(e.offset), oome);
-                    }
-                trace.peekFirst().add(e);
-            } else if (e instanceof EbmlVoid) {
-                ((EbmlVoid) e).skip(channel);
-            } else {
-                throw new RuntimeException("Currently there are no elements that are neither Master nor Binary, should never actually get here");
-            }
-
-        }
+        while ((e = nextElement()) != null)
+            parseElement(e, tree);
 
         while (trace.peekFirst() != null)
             closeElem(trace.removeFirst(), tree);
@@ -84,6 +56,77 @@ public class MKVParser {
         return tree;
     }
 
+    /**
+     * Parses one master element with all its children, nothing outside of the
+     * element is read
+     * 
+     * @param offset
+     *            Offset of the element in the channel
+     * @return The element
+     * @throws IOException
+     */
+    public EbmlMaster parseMaster(long offset) throws IOException {
+        EbmlBase e = readElementHeader(offset);
+        if (!(e instanceof EbmlMaster))
+            throw new RuntimeException("Expected a master element at 0x" + Long.toHexString(offset));
+        EbmlMaster master = (EbmlMaster) e;
+        List<EbmlMaster> tree = new ArrayList<EbmlMaster>();
+        openElem(master);
+        trace.push(master);
+
+        long end = master.dataOffset + master.dataLen;
+        while (channel.position() < end && (e = nextElement()) != null)
+            parseElement(e, tree);
+
+        while (trace.peekFirst() != null)
+            closeElem(trace.removeFirst(), tree);
+
+        return master;
+    }
+
+    /**
+     * Reads only the id and the size of the element, the channel is left at
+     * the data of the element
+     * 
+     * @return The element with no data or children or null at the end of the
+     *         channel
+     * @throws IOException
+     */
+    public EbmlBase readElementHeader(long offset) throws IOException {
+        channel.setPosition(offset);
+        return nextElement();
+    }
+
+    private void parseElement(EbmlBase e, List<EbmlMaster> tree) throws IOException {
+        if (!isKnownType(e.id))
+            System.err.println("Unspecified header: " + EbmlUtil.toHexString(e.id) + " at " + e.offset);
+
+        while (!possibleChild(trace.peekFirst(), e))
+            closeElem(trace.removeFirst(), tree);
+
+        openElem(e);
+
+        if (e instanceof EbmlMaster) {
+            trace.push((EbmlMaster) e);
+        } else if (e instanceof EbmlBin) {
+            EbmlBin bin = (EbmlBin) e;
+            EbmlMaster traceTop = trace.peekFirst();
+            if ((traceTop.dataOffset + traceTop.dataLen) < (e.dataOffset + e.dataLen)) {
+                channel.setPosition((traceTop.dataOffset + traceTop.dataLen));
+            } else
+                try {
+                    bin.readChannel(channel);
+                } catch (OutOfMemoryError oome) {
+                    throw new RuntimeException(e.type + " 0x" + toHexString(bin.id) + " size: " + Long.toHexString(bin.dataLen) + " offset: 0x" + Long.toHexString(e.offset), oome);
+                }
+            trace.peekFirst().add(e);
+        } else if (e instanceof EbmlVoid) {
+            ((EbmlVoid) e).skip(channel);
+        } else {
+            throw new RuntimeException("Currently there are no elements that are neither Master nor Binary, should never actually get here");
+        }
+    }
+
     private boolean possibleChild(EbmlMaster parent, EbmlBase child) {
         if (parent != null && Cluster.equals(parent.type) && child != null && !Cluster.equals(child.type) && !Info.equals(child.type) && !SeekHead.equals(child.type) && !Tracks.equals(child.type)
                 && !Cues.equals(child.type) && !Attachments.equals(child.type) && !Tags.equals(child.type) && !Chapters.equals(child.type))
@@ -39,6 +39,7 @@ import java.util.Set;
  */
 public final class MKVType {
     private final static List<MKVType> _values =new ArrayList<MKVType>();
+    private final static Map<Long, MKVType> _byId = new HashMap<Long, MKVType>();
     // EBML Id's
 public final static MKVType     Void = new MKVType("Void", new byte[]{(byte)0xEC}, EbmlVoid.class);
 public final static MKVType     CRC32 = new MKVType("CRC32", new byte[]{(byte)0xBF}, EbmlBin.class);
@@ -352,6 +353,26 @@ public final static MKVType                   TagBinary = new MKVType("TagBinary
         this.id = id;
         this.clazz = clazz;
         _values.add(this);
+        if (!_byId.containsKey(idKey(id)))
+            _byId.put(idKey(id), this);
+    }
+
+    /**
+     * Ids are at most 4 bytes long, the length is kept in the key so that the
+     * leading zeros are not lost
+     */
+    private static Long idKey(byte[] id) {
+        if (id == null || id.length > 4)
+            return null;
+        long key = id.length;
+        for (int i = 0; i < id.length; i++)
+            key = (key << 8) | (id[i] & 0xff);
+        return key;
+    }
+
+    private static MKVType byId(byte[] id) {
+        Long key = idKey(id);
+        return key == null ? null : _byId.get(key);
     }
     public String name() {
         return _name;
@@ -378,12 +399,9 @@ public final static MKVType                   TagBinary = new MKVType("TagBinary
 
     @SuppressWarnings("unchecked")
     public static <T extends EbmlBase> T createById(byte[] id, long offset) {
-        MKVType[] values = values();
-        for (int i = 0; i < values.length; i++) {
-            MKVType t = values[i];
-            if (Platform.arrayEqualsByte(t.id, id))
-                return createByType(t);
-        }
+        MKVType type = byId(id);
+        if (type != null)
+            return createByType(type);
         System.err.println("WARNING: unspecified ebml ID (" + toHexString(id) + ") encountered at position 0x"
                 + Long.toHexString(offset).toUpperCase());
         T t = (T) new EbmlVoid(id);
@@ -403,13 +421,7 @@ public final static MKVType                   TagBinary = new MKVType("TagBinary
     }
       
     public static boolean isSpecifiedHeader(byte[] b) {
-        MKVType[] values = values();
-        for (int i = 0; i < values.length; i++) {
-            MKVType firstLevelHeader = values[i];
-            if (Platform.arrayEqualsByte(firstLevelHeader.id, b))
-                return true;
-        }
-        return false;
+        return byId(b) != null;
     }
       
       public static boolean isFirstLevelHeader(byte[] b){
@@ -3,13 +3,23 @@ import static org.jcodec.common.model.TapeTimecode.ZERO_TAPE_TIMECODE;
 import static org.jcodec.containers.mkv.MKVType.Audio;
 import static org.jcodec.containers.mkv.MKVType.Cluster;
 import static org.jcodec.containers.mkv.MKVType.CodecPrivate;
+import static org.jcodec.containers.mkv.MKVType.CueClusterPosition;
+import static org.jcodec.containers.mkv.MKVType.CuePoint;
+import static org.jcodec.containers.mkv.MKVType.CueTime;
+import static org.jcodec.containers.mkv.MKVType.CueTrackPositions;
+import static org.jcodec.containers.mkv.MKVType.Cues;
 import static org.jcodec.containers.mkv.MKVType.DisplayHeight;
 import static org.jcodec.containers.mkv.MKVType.DisplayUnit;
 import static org.jcodec.containers.mkv.MKVType.DisplayWidth;
+import static org.jcodec.containers.mkv.MKVType.EBML;
 import static org.jcodec.containers.mkv.MKVType.Info;
 import static org.jcodec.containers.mkv.MKVType.PixelHeight;
 import static org.jcodec.containers.mkv.MKVType.PixelWidth;
 import static org.jcodec.containers.mkv.MKVType.SamplingFrequency;
+import static org.jcodec.containers.mkv.MKVType.Seek;
+import static org.jcodec.containers.mkv.MKVType.SeekHead;
+import static org.jcodec.containers.mkv.MKVType.SeekID;
+import static org.jcodec.containers.mkv.MKVType.SeekPosition;
 import static org.jcodec.containers.mkv.MKVType.Segment;
 import static org.jcodec.containers.mkv.MKVType.Timecode;
 import static org.jcodec.containers.mkv.MKVType.TimecodeScale;
@@ -34,7 +44,11 @@ import org.jcodec.common.Codec;
 import org.jcodec.common.Demuxer;
 import org.jcodec.common.DemuxerTrack;
 import org.jcodec.common.DemuxerTrackMeta;
+import org.jcodec.common.LongArrayList;
 import org.jcodec.common.SeekableDemuxerTrack;
+import org.jcodec.common.io.ByteBufferSeekableByteChannel;
+import org.jcodec.common.io.MappedFileChannel;
+import org.jcodec.common.io.NIOUtils;
 import org.jcodec.common.io.SeekableByteChannel;
 import org.jcodec.common.model.ColorSpace;
 import org.jcodec.common.model.Packet;
@@ -49,11 +63,22 @@ import org.jcodec.containers.mkv.boxes.EbmlMaster;
 import org.jcodec.containers.mkv.boxes.EbmlString;
 import org.jcodec.containers.mkv.boxes.EbmlUint;
 import org.jcodec.containers.mkv.boxes.MkvBlock;
+import org.jcodec.platform.Platform;
 
 /**
  * This class is part of JCodec ( www.jcodec.org ) This software is distributed
  * under FreeBSD License
  * 
+ * Demuxer of Matroska and WebM files.
+ * 
+ * The demuxer created with the constructor parses the whole file up front. The
+ * lazy demuxer only reads the 'SeekHead', 'Info', 'Tracks' and 'Cues'
+ * elements when opened, the clusters are parsed as the tracks are read. It
+ * seeks using the 'Cues' or, when the file has none, an index of the clusters
+ * that is built by reading only the cluster headers. Seeking the lazy demuxer
+ * to a cluster that was not read yet drops the blocks read so far, the frame
+ * numbers of all the tracks then count from this cluster.
+ * 
  * @author The JCodec project
  * 
  */
@@ -63,9 +88,23 @@ public final class MKVDemuxer implements Demuxer {
     private List<EbmlMaster> t;
     private SeekableByteChannel channel;
     int timescale = 1;
+    private long timecodeScale = 1000000;
     int pictureWidth;
     int pictureHeight;
 
+    // Lazy mode only
+    private MKVParser parser;
+    private long segmentDataOffset;
+    private long firstCluster = -1;
+    private long windowStart;
+    private long nextCluster = -1;
+    private long lastClusterTimecode;
+    private LongArrayList cueTimes;
+    private LongArrayList cuePositions;
+    private LongArrayList scanTimes;
+    private LongArrayList scanPositions;
+    private long scanPos = -1;
+
     private static Map<String, Codec> codecMapping = new HashMap<String, Codec>();
     static {
         codecMapping.put("V_VP8", Codec.VP8);
@@ -81,11 +120,45 @@ public final class MKVDemuxer implements Demuxer {
         demux();
     }
 
+    private MKVDemuxer(SeekableByteChannel channel, MKVParser parser) throws IOException {
+        this.channel = channel;
+        this.parser = parser;
+        this.aTracks = new ArrayList<DemuxerTrack>();
+        this.cueTimes = LongArrayList.createLongArrayList();
+        this.cuePositions = LongArrayList.createLongArrayList();
+        this.scanTimes = LongArrayList.createLongArrayList();
+        this.scanPositions = LongArrayList.createLongArrayList();
+        readHeaders();
+        readTracks();
+        readCues();
+    }
+
+    /**
+     * Creates a demuxer that reads only the header elements of the segment
+     * when opened, the clusters are read on demand
+     * 
+     * @param channel
+     * @return The demuxer
+     * @throws IOException
+     */
+    public static MKVDemuxer createLazyMKVDemuxer(SeekableByteChannel channel) throws IOException {
+        return new MKVDemuxer(channel, new MKVParser(channel));
+    }
+
     private void demux() {
+        readTracks();
+        MKVType[] path2 = { Segment, Cluster };
+        for (EbmlMaster aCluster : findList(t, EbmlMaster.class, path2))
+            addCluster(aCluster);
+    }
+
+    private void readTracks() {
         MKVType[] path = { Segment, Info, TimecodeScale };
         EbmlUint ts = MKVType.findFirstTree(t, path);
-        if (ts != null)
+        if (ts != null) {
             timescale = (int) ts.getUint();
+            timecodeScale = ts.getUint();
+        }
         MKVType[] path9 = { Segment, Tracks, TrackEntry };
 
         for (EbmlMaster aTrack : findList(t, EbmlMaster.class, path9)) {
@@ -142,26 +215,251 @@ public final class MKVDemuxer implements Demuxer {
                 aTracks.add(audioTrack);
             }
         }
-        MKVType[] path2 = { Segment, Cluster };
-        for (EbmlMaster aCluster : findList(t, EbmlMaster.class, path2)) {
-            MKVType[] path1 = { Cluster, Timecode };
-            long baseTimecode = ((EbmlUint) findFirst(aCluster, path1)).getUint();
-            for (EbmlBase child : aCluster.children)
-                if (MKVType.SimpleBlock.equals(child.type)) {
-                    MkvBlock b = (MkvBlock) child;
-                    b.absoluteTimecode = b.timecode + baseTimecode;
-                    putIntoRightBasket(b);
-                } else if (MKVType.BlockGroup.equals(child.type)) {
-                    EbmlMaster group = (EbmlMaster) child;
-                    for (EbmlBase grandChild : group.children) {
-                        if (grandChild.type == MKVType.Block) {
-                            MkvBlock b = (MkvBlock) child;
-                            b.absoluteTimecode = b.timecode + baseTimecode;
-                            putIntoRightBasket(b);
-                        }
+    }
+
+    private void addCluster(EbmlMaster aCluster) {
+        MKVType[] path1 = { Cluster, Timecode };
+        long baseTimecode = ((EbmlUint) findFirst(aCluster, path1)).getUint();
+        lastClusterTimecode = baseTimecode;
+        for (EbmlBase child : aCluster.children)
+            if (MKVType.SimpleBlock.equals(child.type)) {
+                MkvBlock b = (MkvBlock) child;
+                b.absoluteTimecode = b.timecode + baseTimecode;
+                putIntoRightBasket(b);
+            } else if (MKVType.BlockGroup.equals(child.type)) {
+                EbmlMaster group = (EbmlMaster) child;
+                for (EbmlBase grandChild : group.children) {
+                    if (grandChild.type == MKVType.Block) {
+                        MkvBlock b = (MkvBlock) grandChild;
+                        b.absoluteTimecode = b.timecode + baseTimecode;
+                        putIntoRightBasket(b);
                     }
                 }
+            }
+    }
+
+    /**
+     * Reads the EBML header and the elements of the segment in front of the
+     * first cluster, the cues at the end of the file are found with the seek
+     * head
+     */
+    private void readHeaders() throws IOException {
+        t = new ArrayList<EbmlMaster>();
+        EbmlMaster segment = null;
+        long pos = 0;
+        while (segment == null) {
+            EbmlBase e = parser.readElementHeader(pos);
+            if (e == null)
+                throw new RuntimeException("No segment in the file");
+            if (EBML.equals(e.type))
+                t.add(parseHeaderElement(e));
+            else if (Segment.equals(e.type))
+                segment = (EbmlMaster) e;
+            pos = e.dataOffset + e.dataLen;
+        }
+        t.add(segment);
+        segmentDataOffset = segment.dataOffset;
+
+        pos = segmentDataOffset;
+        while (pos < channel.size()) {
+            EbmlBase e = parser.readElementHeader(pos);
+            if (e == null)
+                break;
+            if (Cluster.equals(e.type)) {
+                firstCluster = windowStart = nextCluster = scanPos = pos;
+                break;
+            }
+            if (SeekHead.equals(e.type) || Info.equals(e.type) || Tracks.equals(e.type) || Cues.equals(e.type))
+                segment.add(parseHeaderElement(e));
+            pos = e.dataOffset + e.dataLen;
+        }
+
+        MKVType[] cuesPath = { Segment, Cues };
+        if (MKVType.findFirstTree(t, cuesPath) != null)
+            return;
+        MKVType[] seekPath = { Segment, SeekHead, Seek };
+        for (EbmlMaster seek : findList(t, EbmlMaster.class, seekPath)) {
+            MKVType[] idPath = { Seek, SeekID };
+            MKVType[] posPath = { Seek, SeekPosition };
+            EbmlBin id = (EbmlBin) findFirst(seek, idPath);
+            EbmlUint position = (EbmlUint) findFirst(seek, posPath);
+            if (id == null || position == null || !Platform.arrayEqualsByte(Cues.id, NIOUtils.toArray(id.data)))
+                continue;
+            long cuesPos = segmentDataOffset + position.getUint();
+            EbmlBase e = parser.readElementHeader(cuesPos);
+            if (e != null && Cues.equals(e.type))
+                segment.add(parseHeaderElement(e));
+            break;
+        }
+    }
+
+    /**
+     * The element is read with one read and parsed from memory, the offsets of
+     * the parsed elements are relative to the element
+     */
+    private EbmlMaster parseHeaderElement(EbmlBase e) throws IOException {
+        ByteBuffer buf = NIOUtils.fetchAt(channel, (int) (e.dataOffset + e.dataLen - e.offset), e.offset);
+        return new MKVParser(ByteBufferSeekableByteChannel.readFromByteBuffer(buf)).parseMaster(0);
+    }
+
+    /**
+     * The earliest cluster of every cue point
+     */
+    private void readCues() {
+        MKVType[] path = { Segment, Cues, CuePoint };
+        for (EbmlMaster cue : findList(t, EbmlMaster.class, path)) {
+            MKVType[] timePath = { CuePoint, CueTime };
+            EbmlUint time = (EbmlUint) findFirst(cue, timePath);
+            if (time == null)
+                continue;
+            long position = -1;
+            MKVType[] posPath = { CueTrackPositions, CueClusterPosition };
+            for (EbmlBase child : cue.children) {
+                if (!CueTrackPositions.equals(child.type))
+                    continue;
+                EbmlUint pos = (EbmlUint) findFirst(child, posPath);
+                if (pos != null && (position == -1 || pos.getUint() < position))
+                    position = pos.getUint();
+            }
+            if (position == -1)
+                continue;
+            int n = cueTimes.size();
+            if (n > 0 && cueTimes.get(n - 1) > time.getUint())
+                throw new RuntimeException("Cue points are not sorted by time");
+            cueTimes.add(time.getUint());
+            cuePositions.add(segmentDataOffset + position);
+        }
+    }
+
+    /**
+     * Lazy mode, parses the next cluster and hands its blocks over to the
+     * tracks
+     * 
+     * @return false if there are no more clusters
+     */
+    synchronized boolean readNextCluster() throws IOException {
+        if (nextCluster < 0)
+            return false;
+        EbmlMaster cluster = parser.parseMaster(nextCluster);
+        nextCluster = findCluster(cluster.dataOffset + cluster.dataLen);
+        addCluster(cluster);
+        return true;
+    }
+
+    /**
+     * Reads the clusters until the list of blocks of the track has the block,
+     * only in the lazy mode some of the blocks may be not read yet
+     * 
+     * @return If the block exists
+     */
+    synchronized boolean ensureBlock(List<?> blocks, int idx) throws IOException {
+        while (blocks.size() <= idx) {
+            if (!readNextCluster())
+                return false;
+        }
+        return true;
+    }
+
+    synchronized void readAll() {
+        try {
+            while (readNextCluster())
+                ;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private long findCluster(long pos) throws IOException {
+        while (pos < channel.size()) {
+            EbmlBase e = parser.readElementHeader(pos);
+            if (e == null)
+                break;
+            if (Cluster.equals(e.type))
+                return pos;
+            pos = e.dataOffset + e.dataLen;
         }
+        return -1;
+    }
+
+    /**
+     * Makes sure the blocks at the time are read. In the lazy mode, when the
+     * cluster of the time is before the clusters read so far or after the next
+     * cluster to read, the blocks of all the tracks are dropped and the reading
+     * starts over at this cluster.
+     * 
+     * @param timecode
+     *            Time in the segment timecode units
+     */
+    synchronized void seekTimecode(long timecode) throws IOException {
+        if (parser == null || firstCluster < 0)
+            return;
+        long cluster = clusterOf(timecode);
+        if (cluster < windowStart || (nextCluster >= 0 && cluster > nextCluster)) {
+            windowStart = nextCluster = cluster;
+            if (vTrack != null)
+                vTrack.reset();
+            for (DemuxerTrack track : aTracks)
+                ((AudioTrack) track).reset();
+        }
+        // The blocks of the time are in the last cluster that starts before it
+        while (nextCluster >= 0 && (nextCluster == windowStart || lastClusterTimecode <= timecode))
+            readNextCluster();
+    }
+
+    /**
+     * @return Offset of the last cluster that starts at or before the time
+     */
+    private long clusterOf(long timecode) throws IOException {
+        if (cueTimes.size() > 0)
+            return search(cueTimes, cuePositions, timecode, firstCluster);
+        while (scanPos >= 0 && (scanTimes.size() == 0 || scanTimes.get(scanTimes.size() - 1) <= timecode)) {
+            EbmlBase cluster = parser.readElementHeader(scanPos);
+            scanTimes.add(clusterTimecode(cluster));
+            scanPositions.add(scanPos);
+            scanPos = findCluster(cluster.dataOffset + cluster.dataLen);
+        }
+        return search(scanTimes, scanPositions, timecode, firstCluster);
+    }
+
+    private static long search(LongArrayList times, LongArrayList positions, long timecode, long first) {
+        int lo = 0, hi = times.size() - 1;
+        if (hi < 0 || times.get(0) > timecode)
+            return first;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (times.get(mid) <= timecode)
+                lo = mid;
+            else
+                hi = mid - 1;
+        }
+        return positions.get(lo);
+    }
+
+    /**
+     * Reads the timecode of the cluster without reading its blocks
+     */
+    private long clusterTimecode(EbmlBase cluster) throws IOException {
+        long pos = cluster.dataOffset;
+        long end = cluster.dataOffset + cluster.dataLen;
+        while (pos < end) {
+            EbmlBase e = parser.readElementHeader(pos);
+            if (e == null)
+                break;
+            if (Timecode.equals(e.type)) {
+                EbmlUint tc = (EbmlUint) e;
+                tc.readChannel(channel);
+                return tc.getUint();
+            }
+            pos = e.dataOffset + e.dataLen;
+        }
+        throw new RuntimeException("Cluster at 0x" + Long.toHexString(cluster.offset) + " has no timecode");
+    }
+
+    /**
+     * @return The time in the segment timecode units
+     */
+    long toTimecode(double second) {
+        return Math.round(second * 1000000000d / timecodeScale);
     }
 
     private void putIntoRightBasket(MkvBlock b) {
@@ -203,7 +501,7 @@ public final class MKVDemuxer implements Demuxer {
         
         @Override
         public Packet nextFrame() throws IOException {
-            if (frameIdx >= blocks.size())
+            if (!demuxer.ensureBlock(blocks, frameIdx))
                 return null;
 
             MkvBlock b = blocks.get(frameIdx);
@@ -215,13 +513,10 @@ public final class MKVDemuxer implements Demuxer {
              * MKVPacket to that channel is actually read only when
              * Packet.getData() is executed.
              */
-            demuxer.channel.setPosition(b.dataOffset);
-            ByteBuffer data = ByteBuffer.allocate(b.dataLen);
-            demuxer.channel.read(data);
-            data.flip();
+            ByteBuffer data = demuxer.readBlockData(b);
             b.readFrames(data.duplicate());
             long duration = 1;
-            if (frameIdx < blocks.size())
+            if (demuxer.ensureBlock(blocks, frameIdx))
                 duration = blocks.get(frameIdx).absoluteTimecode - b.absoluteTimecode;
             ByteBuffer result = b.frames[0].duplicate();
             if (codec == Codec.H264) {
@@ -235,6 +530,11 @@ public final class MKVDemuxer implements Demuxer {
         public boolean gotoFrame(long i) {
             if (i > Integer.MAX_VALUE)
                 return false;
+            try {
+                demuxer.ensureBlock(blocks, (int) i - 1);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
             if (i > blocks.size())
                 return false;
 
@@ -247,13 +547,39 @@ public final class MKVDemuxer implements Demuxer {
             return frameIdx;
         }
 
+        /**
+         * Goes to the last key frame at or before the time
+         */
         @Override
         public void seek(double second) {
-            throw new RuntimeException("Not implemented yet");
+            long timecode = demuxer.toTimecode(second);
+            try {
+                demuxer.seekTimecode(timecode);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            int key = 0;
+            for (int i = 0; i < blocks.size(); i++) {
+                MkvBlock b = blocks.get(i);
+                if (!b._keyFrame)
+                    continue;
+                if (b.absoluteTimecode > timecode)
+                    break;
+                key = i;
+            }
+            frameIdx = key;
+        }
 
+        void reset() {
+            blocks.clear();
+            frameIdx = 0;
         }
 
+        /**
+         * Reads the whole file in the lazy mode
+         */
         public int getFrameCount() {
+            demuxer.readAll();
             return blocks.size();
         }
 
@@ -269,7 +595,11 @@ public final class MKVDemuxer implements Demuxer {
 
         @Override
         public boolean gotoSyncFrame(long i) {
-            throw new RuntimeException("Unsupported");
+            if (!gotoFrame(i))
+                return false;
+            while (frameIdx > 0 && frameIdx < blocks.size() && !blocks.get(frameIdx)._keyFrame)
+                frameIdx--;
+            return true;
         }
     }
 
@@ -304,7 +634,7 @@ public final class MKVDemuxer implements Demuxer {
 
         @Override
         public Packet nextFrame() throws IOException {
-            if (frameIdx > blocks.size())
+            if (!demuxer.ensureBlock(blocks, blockIdx))
                 return null;
 
             MkvBlock b = blocks.get(blockIdx).block;
@@ -317,10 +647,7 @@ public final class MKVDemuxer implements Demuxer {
                  * MKVPacket to that channel is actually rean only when
                  * Packet.getData() is executed.
                  */
-                demuxer.channel.setPosition(b.dataOffset);
-                ByteBuffer data = ByteBuffer.allocate(b.dataLen);
-                demuxer.channel.read(data);
-                b.readFrames(data);
+                b.readFrames(demuxer.readBlockData(b));
             }
             ByteBuffer data = b.frames[frameInBlockIdx].duplicate();
             frameInBlockIdx++;
@@ -338,6 +665,7 @@ public final class MKVDemuxer implements Demuxer {
         public boolean gotoFrame(long i) {
             if (i > Integer.MAX_VALUE)
                 return false;
+            ensureFrames(i);
             if (i > this.framesCount)
                 return false;
 
@@ -368,9 +696,48 @@ public final class MKVDemuxer implements Demuxer {
             return frameIdx;
         }
 
+        /**
+         * Goes to the first frame of the last block that starts at or before
+         * the time
+         */
         @Override
         public void seek(double second) {
-            throw new RuntimeException("Not implemented yet");
+            long timecode = demuxer.toTimecode(second);
+            try {
+                demuxer.seekTimecode(timecode);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            int block = 0;
+            for (int i = 0; i < blocks.size(); i++) {
+                if (blocks.get(i).block.absoluteTimecode > timecode)
+                    break;
+                block = i;
+            }
+            blockIdx = block;
+            frameInBlockIdx = 0;
+            frameIdx = blocks.isEmpty() ? 0 : blocks.get(block).firstFrameNo;
+        }
+
+        void reset() {
+            blocks.clear();
+            framesCount = 0;
+            frameIdx = 0;
+            blockIdx = 0;
+            frameInBlockIdx = 0;
+        }
+
+        /**
+         * Reads the clusters until the frame count is known to be at least the
+         * count or the file ends
+         */
+        private void ensureFrames(long count) {
+            try {
+                while (framesCount < count && demuxer.readNextCluster())
+                    ;
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
         }
 
         /**
@@ -380,6 +747,7 @@ public final class MKVDemuxer implements Demuxer {
          * @return
          */
         public Packet getFrames(int count) {
+            ensureFrames(count + frameIdx + 1);
             if (count + frameIdx >= framesCount)
                 return null;
             List<ByteBuffer> packetFrames = new ArrayList<ByteBuffer>();
@@ -393,10 +761,7 @@ public final class MKVDemuxer implements Demuxer {
                      * Packet.getData() is executed.
                      */
                     try {
-                        demuxer.channel.setPosition(b.dataOffset);
-                        ByteBuffer data = ByteBuffer.allocate(b.dataLen);
-                        demuxer.channel.read(data);
-                        b.readFrames(data);
+                        b.readFrames(demuxer.readBlockData(b));
                     } catch (IOException ioe) {
                         throw new RuntimeException("while reading frames of a Block at offset 0x"
                                 + Long.toHexString(b.dataOffset).toUpperCase() + ")", ioe);
@@ -435,6 +800,18 @@ public final class MKVDemuxer implements Demuxer {
         }
     }
 
+    /**
+     * Data of the block, a slice of the file if it's memory mapped
+     */
+    ByteBuffer readBlockData(MkvBlock b) throws IOException {
+        if (channel instanceof MappedFileChannel) {
+            ByteBuffer slice = ((MappedFileChannel) channel).slice(b.dataOffset, b.dataLen);
+            if (slice != null)
+                return slice;
+        }
+        return NIOUtils.fetchAt(channel, b.dataLen, b.dataOffset);
+    }
+
     public int getPictureWidth() {
         return pictureWidth;
     }
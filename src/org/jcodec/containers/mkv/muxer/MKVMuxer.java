@@ -1,5 +1,11 @@
 package org.jcodec.containers.mkv.muxer;
+import static org.jcodec.containers.mkv.MKVType.Cluster;
 import static org.jcodec.containers.mkv.MKVType.CodecID;
+import static org.jcodec.containers.mkv.MKVType.CueClusterPosition;
+import static org.jcodec.containers.mkv.MKVType.CuePoint;
+import static org.jcodec.containers.mkv.MKVType.CueTime;
+import static org.jcodec.containers.mkv.MKVType.CueTrack;
+import static org.jcodec.containers.mkv.MKVType.CueTrackPositions;
 import static org.jcodec.containers.mkv.MKVType.Cues;
 import static org.jcodec.containers.mkv.MKVType.DateUTC;
 import static org.jcodec.containers.mkv.MKVType.DocType;
@@ -15,7 +21,12 @@ import static org.jcodec.containers.mkv.MKVType.MuxingApp;
 import static org.jcodec.containers.mkv.MKVType.Name;
 import static org.jcodec.containers.mkv.MKVType.PixelHeight;
 import static org.jcodec.containers.mkv.MKVType.PixelWidth;
+import static org.jcodec.containers.mkv.MKVType.Seek;
+import static org.jcodec.containers.mkv.MKVType.SeekHead;
+import static org.jcodec.containers.mkv.MKVType.SeekID;
+import static org.jcodec.containers.mkv.MKVType.SeekPosition;
 import static org.jcodec.containers.mkv.MKVType.Segment;
+import static org.jcodec.containers.mkv.MKVType.Timecode;
 import static org.jcodec.containers.mkv.MKVType.TimecodeScale;
 import static org.jcodec.containers.mkv.MKVType.TrackEntry;
 import static org.jcodec.containers.mkv.MKVType.TrackNumber;
@@ -37,6 +48,7 @@ import java.util.Map;
 
 import org.jcodec.common.AudioCodecMeta;
 import org.jcodec.common.Codec;
+import org.jcodec.common.LongArrayList;
 import org.jcodec.common.Muxer;
 import org.jcodec.common.MuxerTrack;
 import org.jcodec.common.VideoCodecMeta;
@@ -52,16 +64,30 @@ import org.jcodec.containers.mkv.boxes.EbmlMaster;
 import org.jcodec.containers.mkv.boxes.EbmlString;
 import org.jcodec.containers.mkv.boxes.EbmlUint;
 import org.jcodec.containers.mkv.boxes.MkvBlock;
+import org.jcodec.containers.mkv.util.EbmlUtil;
 import org.jcodec.containers.mkv.muxer.MKVMuxerTrack.MKVMuxerTrackType;
 
 /**
  * This class is part of JCodec ( www.jcodec.org ) This software is distributed
  * under FreeBSD License
  * 
+ * Matroska / WebM muxer.
+ * 
+ * The muxer created with the constructor keeps all the blocks in memory and
+ * writes the file in finish(). The streaming muxer writes every cluster as soon
+ * as it's closed, a cluster is started at every key frame of the video track
+ * or when the cluster gets too long. Only the time and the position of the
+ * clusters are kept for the cues, the seek head, the duration and the size of
+ * the segment are written over the placeholders in finish(). The live
+ * streaming muxer never goes back in the output, the file has no seek head,
+ * cues or duration and the size of the segment is unknown.
+ * 
  * @author The JCodec project
  * 
  */
 public class MKVMuxer implements Muxer {
+    private static final int SEEK_HEAD_RESERVED = 100;
+    private static final long MAX_CLUSTER_DURATION_NS = 5000000000L;
 
     private List<MKVMuxerTrack> tracks;
     private MKVMuxerTrack audioTrack;
@@ -72,6 +98,23 @@ public class MKVMuxer implements Muxer {
     private EbmlMaster mkvSeekHead;
     private List<EbmlMaster> clusterList;
     private SeekableByteChannel sink;
+
+    // Streaming only
+    private boolean streaming;
+    private boolean live;
+    private long pos;
+    private long segmentSizePos;
+    private long segmentDataPos = -1;
+    private long seekHeadPos;
+    private long infoPos;
+    private long tracksPos;
+    private long durationPos;
+    private EbmlMaster cluster;
+    private long clusterTimecode;
+    private long clusterPos;
+    private long maxTimecode;
+    private LongArrayList cueTimes;
+    private LongArrayList cuePositions;
     
     private static Map<Codec, String> codec2mkv = new HashMap<Codec, String>();
     static {
@@ -86,6 +129,24 @@ public class MKVMuxer implements Muxer {
         this.clusterList = new LinkedList<EbmlMaster>();
     }
 
+    /**
+     * Creates a muxer that writes the clusters as they are closed
+     * 
+     * @param live
+     *            The output is never seeked, nothing is written over the
+     *            placeholders at the end
+     * @throws IOException
+     */
+    public static MKVMuxer createStreamingMKVMuxer(SeekableByteChannel s, boolean live) throws IOException {
+        MKVMuxer muxer = new MKVMuxer(s);
+        muxer.streaming = true;
+        muxer.live = live;
+        muxer.pos = live ? 0 : s.position();
+        muxer.cueTimes = LongArrayList.createLongArrayList();
+        muxer.cuePositions = LongArrayList.createLongArrayList();
+        return muxer;
+    }
+
     public MKVMuxerTrack createVideoTrack(VideoCodecMeta meta, String codecId) {
         if (videoTrack == null) {
             videoTrack = new MKVMuxerTrack();
@@ -93,11 +154,17 @@ public class MKVMuxer implements Muxer {
             videoTrack.codecId = codecId;
             videoTrack.videoMeta = meta;
             videoTrack.trackNo = tracks.size();
+            if (streaming)
+                videoTrack.muxer = this;
         }
         return videoTrack;
     }
 
     public void finish() throws IOException {
+        if (streaming) {
+            finishStreaming();
+            return;
+        }
         List<EbmlMaster> mkvFile = new ArrayList<EbmlMaster>();
         EbmlMaster ebmlHeader = defaultEbmlHeader();
         mkvFile.add(ebmlHeader);
@@ -137,12 +204,6 @@ public class MKVMuxer implements Muxer {
     }
 
     private EbmlMaster muxInfo() {
-        EbmlMaster master = (EbmlMaster) createByType(Info);
-        int frameDurationInNanoseconds = MKVMuxerTrack.NANOSECONDS_IN_A_MILISECOND * 40;
-        createLong(master, TimecodeScale, frameDurationInNanoseconds);
-        createString(master, WritingApp, "JCodec");
-        createString(master, MuxingApp, "JCodec");
-
         List<MKVMuxerTrack> tracks2 = tracks;
         long max = 0;
         for (MKVMuxerTrack track : tracks2) {
@@ -150,11 +211,28 @@ public class MKVMuxer implements Muxer {
             if (lastBlock.absoluteTimecode > max)
                 max = lastBlock.absoluteTimecode;
         }
-        createDouble(master, MKVType.Duration, (max + 1) * frameDurationInNanoseconds * 1.0);
+        return muxInfo(duration(max));
+    }
+
+    /**
+     * @param duration
+     *            Negative if the info has no duration
+     */
+    private EbmlMaster muxInfo(double duration) {
+        EbmlMaster master = (EbmlMaster) createByType(Info);
+        createLong(master, TimecodeScale, MKVMuxerTrack.TIMECODE_SCALE);
+        createString(master, WritingApp, "JCodec");
+        createString(master, MuxingApp, "JCodec");
+        if (duration >= 0)
+            createDouble(master, MKVType.Duration, duration);
         createDate(master, DateUTC, new Date());
         return master;
     }
 
+    private static double duration(long lastTimecode) {
+        return (lastTimecode + 1) * MKVMuxerTrack.TIMECODE_SCALE * 1.0;
+    }
+
     private EbmlMaster muxTracks() {
         EbmlMaster master = (EbmlMaster) createByType(Tracks);
         for (int i = 0; i < tracks.size(); i++) {
@@ -264,6 +342,156 @@ public class MKVMuxer implements Muxer {
         tracks.add(audioTrack);
         audioTrack.codecId = codec2mkv.get(codec);
         audioTrack.trackNo = tracks.size();
+        if (streaming)
+            audioTrack.muxer = this;
         return audioTrack;
     }
+
+    /**
+     * Streaming, adds the block to the current cluster, the cluster is written
+     * out before a key frame of the video track
+     */
+    void addBlock(MKVMuxerTrack track, MkvBlock block, boolean keyFrame) throws IOException {
+        if (segmentDataPos == -1)
+            writeHeader();
+        long relative = block.absoluteTimecode - clusterTimecode;
+        if (cluster != null && ((track == videoTrack && keyFrame) || relative < Short.MIN_VALUE
+                || relative > Short.MAX_VALUE || relative * MKVMuxerTrack.TIMECODE_SCALE >= MAX_CLUSTER_DURATION_NS))
+            writeCluster();
+        if (cluster == null) {
+            cluster = createByType(Cluster);
+            clusterTimecode = block.absoluteTimecode;
+            createLong(cluster, Timecode, clusterTimecode);
+            clusterPos = pos;
+            if (track == videoTrack && keyFrame && !live) {
+                cueTimes.add(clusterTimecode);
+                cuePositions.add(clusterPos - segmentDataPos);
+            }
+        }
+        block.timecode = (int) (block.absoluteTimecode - clusterTimecode);
+        cluster.add(block);
+        if (block.absoluteTimecode > maxTimecode)
+            maxTimecode = block.absoluteTimecode;
+    }
+
+    private void writeCluster() throws IOException {
+        write(cluster.getData());
+        cluster = null;
+    }
+
+    /**
+     * EBML header, the segment of unknown size and the header elements of the
+     * segment, the space for the seek head is reserved with a void element
+     */
+    private void writeHeader() throws IOException {
+        write(defaultEbmlHeader().getData());
+
+        ByteBuffer segment = ByteBuffer.allocate(Segment.id.length + 8);
+        segment.put(Segment.id);
+        segmentSizePos = pos + Segment.id.length;
+        // All ones is the unknown size
+        segment.put(EbmlUtil.ebmlEncodeLen(0xffffffffffffffL, 8));
+        segment.flip();
+        write(segment);
+        segmentDataPos = pos;
+
+        if (!live) {
+            seekHeadPos = pos;
+            write(voidElement(SEEK_HEAD_RESERVED));
+        }
+
+        mkvInfo = muxInfo(live ? -1 : 0);
+        infoPos = pos;
+        durationPos = -1;
+        long childPos = pos + mkvInfo.size();
+        for (EbmlBase child : mkvInfo.children)
+            childPos -= child.size();
+        for (EbmlBase child : mkvInfo.children) {
+            if (MKVType.Duration.equals(child.type))
+                durationPos = childPos + child.size() - 4;
+            childPos += child.size();
+        }
+        write(mkvInfo.getData());
+
+        mkvTracks = muxTracks();
+        tracksPos = pos;
+        write(mkvTracks.getData());
+    }
+
+    private void finishStreaming() throws IOException {
+        if (segmentDataPos == -1)
+            writeHeader();
+        if (cluster != null)
+            writeCluster();
+        if (live)
+            return;
+
+        long cuesPos = -1;
+        if (cueTimes.size() > 0) {
+            cuesPos = pos;
+            write(muxStreamingCues().getData());
+        }
+        long end = pos;
+
+        EbmlMaster seekHead = (EbmlMaster) createByType(SeekHead);
+        addSeek(seekHead, Info.id, infoPos - segmentDataPos);
+        addSeek(seekHead, Tracks.id, tracksPos - segmentDataPos);
+        if (cuesPos != -1)
+            addSeek(seekHead, Cues.id, cuesPos - segmentDataPos);
+        ByteBuffer seekHeadData = seekHead.getData();
+        ByteBuffer header = ByteBuffer.allocate(SEEK_HEAD_RESERVED);
+        header.put(seekHeadData);
+        header.put(voidElement(SEEK_HEAD_RESERVED - seekHeadData.limit()));
+        header.flip();
+        writeAt(header, seekHeadPos);
+
+        ByteBuffer duration = ByteBuffer.allocate(4);
+        duration.putFloat((float) duration(maxTimecode));
+        duration.flip();
+        writeAt(duration, durationPos);
+
+        writeAt(ByteBuffer.wrap(EbmlUtil.ebmlEncodeLen(end - segmentDataPos, 8)), segmentSizePos);
+        sink.setPosition(end);
+    }
+
+    private EbmlMaster muxStreamingCues() {
+        EbmlMaster cues = (EbmlMaster) createByType(Cues);
+        for (int i = 0; i < cueTimes.size(); i++) {
+            EbmlMaster cuePoint = (EbmlMaster) createByType(CuePoint);
+            createLong(cuePoint, CueTime, cueTimes.get(i));
+            EbmlMaster positions = (EbmlMaster) createByType(CueTrackPositions);
+            createLong(positions, CueTrack, videoTrack.trackNo);
+            createLong(positions, CueClusterPosition, cuePositions.get(i));
+            cuePoint.add(positions);
+            cues.add(cuePoint);
+        }
+        return cues;
+    }
+
+    private static void addSeek(EbmlMaster seekHead, byte[] id, long position) {
+        EbmlMaster seek = (EbmlMaster) createByType(Seek);
+        createBuffer(seek, SeekID, ByteBuffer.wrap(id));
+        createLong(seek, SeekPosition, position);
+        seekHead.add(seek);
+    }
+
+    private static ByteBuffer voidElement(int size) {
+        ByteBuffer bb = ByteBuffer.allocate(size);
+        bb.put(MKVType.Void.id);
+        bb.put(EbmlUtil.ebmlEncodeLen(size - 2, 1));
+        bb.clear();
+        return bb;
+    }
+
+    private void write(ByteBuffer buf) throws IOException {
+        pos += buf.remaining();
+        while (buf.hasRemaining())
+            sink.write(buf);
+    }
+
+    private void writeAt(ByteBuffer buf, long position) throws IOException {
+        sink.setPosition(position);
+        while (buf.hasRemaining())
+            sink.write(buf);
+    }
 }
\ No newline at end of file
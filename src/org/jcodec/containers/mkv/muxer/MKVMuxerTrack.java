@@ -1,6 +1,7 @@
 package org.jcodec.containers.mkv.muxer;
 import static org.jcodec.containers.mkv.boxes.MkvBlock.keyFrame;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -36,16 +37,23 @@ public class MKVMuxerTrack implements MuxerTrack {
     
     static final int NANOSECONDS_IN_A_MILISECOND = 1000000; 
     static final int MULTIPLIER = DEFAULT_TIMESCALE/NANOSECONDS_IN_A_MILISECOND;
+    static final int TIMECODE_SCALE = NANOSECONDS_IN_A_MILISECOND * 40;
+
+    // Set for the tracks of a streaming muxer
+    MKVMuxer muxer;
     
     public int getTimescale(){
         return NANOSECONDS_IN_A_MILISECOND;
     }
 
     @Override
-    public void addFrame(Packet outPacket) {
+    public void addFrame(Packet outPacket) throws IOException {
         MkvBlock frame = keyFrame(trackNo, 0, outPacket.getData());
         frame.absoluteTimecode = outPacket.getPts() - 1;
-        trackBlocks.add(frame);
+        if (muxer != null)
+            muxer.addBlock(this, frame, outPacket.isKeyFrame());
+        else
+            trackBlocks.add(frame);
     }
 
     public long getTrackNo() {
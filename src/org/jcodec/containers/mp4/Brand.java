@@ -13,6 +13,7 @@ import java.util.Arrays;
 public final class Brand {
     public final static Brand MOV = new Brand("qt  ", 0x00000200, new String[] { "qt  " });
     public final static Brand MP4 = new Brand("isom", 0x00000200, new String[] { "isom", "iso2", "avc1", "mp41" });
+    public final static Brand FMP4 = new Brand("iso6", 0x00000000, new String[] { "iso6", "isom", "avc1", "mp41", "dash" });
 
     private FileTypeBox ftyp;
 
@@ -1,4 +1,5 @@
 package org.jcodec.containers.mp4;
+import org.jcodec.common.io.ChannelCopier;
 import org.jcodec.common.io.NIOUtils;
 import org.jcodec.common.io.SeekableByteChannel;
 import org.jcodec.containers.mp4.boxes.AliasBox;
@@ -27,9 +28,20 @@ public class ChunkWriter {
     private SeekableByteChannel[] inputs;
     private int curChunk;
     private SeekableByteChannel out;
+    private ChannelCopier copier;
     byte[] buf;
     private TrakBox trak;
 
+    /**
+     * Creates the writer that queues the chunks to the copier, the chunks that
+     * follow each other in the input are copied with one transfer
+     */
+    public static ChunkWriter createChunkWriter(TrakBox trak, SeekableByteChannel[] inputs, ChannelCopier copier) {
+        ChunkWriter writer = new ChunkWriter(trak, inputs, null);
+        writer.copier = copier;
+        return writer;
+    }
+
     public ChunkWriter(TrakBox trak, SeekableByteChannel[] inputs, SeekableByteChannel out) {
         this.buf = new byte[8092];
         entries = trak.getSampleEntries();
@@ -86,6 +98,10 @@ public class ChunkWriter {
 
     public void write(Chunk chunk) throws IOException {
         SeekableByteChannel input = getInput(chunk);
+        if (copier != null) {
+            offsets[curChunk++] = copier.copy(input, chunk.getOffset(), chunk.getSize());
+            return;
+        }
         input.setPosition(chunk.getOffset());
         long pos = out.position();
 
@@ -15,6 +15,7 @@ import java.util.Map;
 import org.jcodec.common.AutoFileChannelWrapper;
 import org.jcodec.common.Codec;
 import org.jcodec.common.io.IOUtils;
+import org.jcodec.common.io.MappedFileChannel;
 import org.jcodec.common.io.NIOUtils;
 import org.jcodec.common.io.SeekableByteChannel;
 import org.jcodec.common.logging.Logger;
@@ -93,12 +94,20 @@ public class MP4Util {
 
     public static Movie parseFullMovieChannel(SeekableByteChannel input) throws IOException {
         FileTypeBox ftyp = null;
-        for (Atom atom : getRootAtoms(input)) {
+        // Stops at the movie box, fragmented files have a lot of top level
+        // boxes after it
+        long off = 0;
+        while (off < input.size()) {
+            input.setPosition(off);
+            Atom atom = atom(input);
+            if (atom == null)
+                break;
             if ("ftyp".equals(atom.getHeader().getFourcc())) {
                 ftyp = (FileTypeBox) atom.parseBox(input);
             } else if ("moov".equals(atom.getHeader().getFourcc())) {
                 return new Movie(ftyp, (MovieBox) atom.parseBox(input));
             }
+            off += atom.getHeader().getSize();
         }
         return null;
     }
@@ -180,7 +189,16 @@ public class MP4Util {
 
         public Box parseBox(SeekableByteChannel input) throws IOException {
             input.setPosition(offset + header.headerSize());
-            return BoxUtil.parseBox(NIOUtils.fetchFromChannel(input, (int) header.getBodySize()), header, BoxFactory.getDefault());
+            ByteBuffer body = null;
+            if (input instanceof MappedFileChannel) {
+                // The tables of the box are only paged in when they are read
+                body = ((MappedFileChannel) input).slice(input.position(), (int) header.getBodySize());
+                if (body != null)
+                    input.setPosition(input.position() + body.remaining());
+            }
+            if (body == null)
+                body = NIOUtils.fetchFromChannel(input, (int) header.getBodySize());
+            return BoxUtil.parseBox(body, header, BoxFactory.getDefault());
         }
 
         public void copy(SeekableByteChannel input, WritableByteChannel out) throws IOException {
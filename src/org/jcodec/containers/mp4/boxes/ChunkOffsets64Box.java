@@ -2,17 +2,21 @@ package org.jcodec.containers.mp4.boxes;
 
 import java.nio.ByteBuffer;
 
+import org.jcodec.common.io.NIOUtils;
+
 /**
  * This class is part of JCodec ( www.jcodec.org )
  * This software is distributed under FreeBSD License
  * 
- * Box type
+ * Box type, the offsets of the parsed box are read on the first access
  * 
  * @author The JCodec project
  * 
  */
 public class ChunkOffsets64Box extends FullBox {
     private long[] chunkOffsets;
+    private int count;
+    private ByteBuffer data;
     
     public static String fourcc() {
         return "co64";
@@ -21,6 +25,7 @@ public class ChunkOffsets64Box extends FullBox {
     public static ChunkOffsets64Box createChunkOffsets64Box(long[] offsets) {
         ChunkOffsets64Box co64 = new ChunkOffsets64Box(Header.createHeader(fourcc(), 0));
         co64.chunkOffsets = offsets;
+        co64.count = offsets.length;
         return co64;
     }
 
@@ -30,15 +35,24 @@ public class ChunkOffsets64Box extends FullBox {
 
     public void parse(ByteBuffer input) {
         super.parse(input);
-        int length = input.getInt();
-        chunkOffsets = new long[length];
-        for (int i = 0; i < length; i++) {
-            chunkOffsets[i] = input.getLong();
+        count = input.getInt();
+        data = NIOUtils.readBuf(input);
+    }
+
+    private synchronized void parseOffsets() {
+        if (data == null)
+            return;
+        long[] chunkOffsets = new long[count];
+        for (int i = 0; i < count; i++) {
+            chunkOffsets[i] = data.getLong();
         }
+        this.chunkOffsets = chunkOffsets;
+        data = null;
     }
 
     protected void doWrite(ByteBuffer out) {
         super.doWrite(out);
+        parseOffsets();
         out.putInt(chunkOffsets.length);
         for (int i = 0; i < chunkOffsets.length; i++) {
             long offset = chunkOffsets[i];
@@ -48,14 +62,21 @@ public class ChunkOffsets64Box extends FullBox {
     
     @Override
     public int estimateSize() {
-        return 12 + 4 + chunkOffsets.length * 8;
+        return 12 + 4 + count * 8;
     }
     
     public long[] getChunkOffsets() {
+        parseOffsets();
         return chunkOffsets;
     }
 
-    public void setChunkOffsets(long[] chunkOffsets) {
+    public int getCount() {
+        return count;
+    }
+
+    public synchronized void setChunkOffsets(long[] chunkOffsets) {
+        this.data = null;
         this.chunkOffsets = chunkOffsets;
+        this.count = chunkOffsets.length;
     }
 }
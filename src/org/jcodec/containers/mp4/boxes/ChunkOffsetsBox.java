@@ -1,5 +1,6 @@
 package org.jcodec.containers.mp4.boxes;
 
+import org.jcodec.common.io.NIOUtils;
 import org.jcodec.platform.Platform;
 
 import java.nio.ByteBuffer;
@@ -8,7 +9,8 @@ import java.nio.ByteBuffer;
  * This class is part of JCodec ( www.jcodec.org )
  * This software is distributed under FreeBSD License
  * 
- * A box to hold chunk offsets
+ * A box to hold chunk offsets, the offsets of the parsed box are read on the
+ * first access
  * 
  * @author The JCodec project
  * 
@@ -21,6 +23,8 @@ public class ChunkOffsetsBox extends FullBox {
     }
 
     private long[] chunkOffsets;
+    private int count;
+    private ByteBuffer data;
     
     public static String fourcc() {
         return "stco";
@@ -29,21 +33,31 @@ public class ChunkOffsetsBox extends FullBox {
     public static ChunkOffsetsBox createChunkOffsetsBox(long[] chunkOffsets) {
         ChunkOffsetsBox stco = new ChunkOffsetsBox(new Header(fourcc()));
         stco.chunkOffsets = chunkOffsets;
+        stco.count = chunkOffsets.length;
         return stco;
     }
 
     public void parse(ByteBuffer input) {
         super.parse(input);
-        int length = input.getInt();
-        chunkOffsets = new long[length];
-        for (int i = 0; i < length; i++) {
-            chunkOffsets[i] = Platform.unsignedInt(input.getInt());
+        count = input.getInt();
+        data = NIOUtils.readBuf(input);
+    }
+
+    private synchronized void parseOffsets() {
+        if (data == null)
+            return;
+        long[] chunkOffsets = new long[count];
+        for (int i = 0; i < count; i++) {
+            chunkOffsets[i] = Platform.unsignedInt(data.getInt());
         }
+        this.chunkOffsets = chunkOffsets;
+        data = null;
     }
 
     @Override
     public void doWrite(ByteBuffer out) {
         super.doWrite(out);
+        parseOffsets();
         out.putInt(chunkOffsets.length);
         for (int i = 0; i < chunkOffsets.length; i++) {
             long offset = chunkOffsets[i];
@@ -53,14 +67,21 @@ public class ChunkOffsetsBox extends FullBox {
     
     @Override
     public int estimateSize() {
-        return 12 + 4 + chunkOffsets.length * 4;
+        return 12 + 4 + count * 4;
     }
 
     public long[] getChunkOffsets() {
+        parseOffsets();
         return chunkOffsets;
     }
 
-    public void setChunkOffsets(long[] chunkOffsets) {
+    public int getCount() {
+        return count;
+    }
+
+    public synchronized void setChunkOffsets(long[] chunkOffsets) {
+        this.data = null;
         this.chunkOffsets = chunkOffsets;
+        this.count = chunkOffsets.length;
     }
 }
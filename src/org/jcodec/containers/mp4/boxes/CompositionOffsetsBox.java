@@ -2,11 +2,14 @@ package org.jcodec.containers.mp4.boxes;
 
 import java.nio.ByteBuffer;
 
+import org.jcodec.common.io.NIOUtils;
+
 /**
  * This class is part of JCodec ( www.jcodec.org ) This software is distributed
  * under FreeBSD License
  * 
- * Default box factory
+ * Composition time to sample box, the entries of the parsed box are read on
+ * the first access
  * 
  * @author The JCodec project
  * 
@@ -14,6 +17,8 @@ import java.nio.ByteBuffer;
 public class CompositionOffsetsBox extends FullBox {
 
     private Entry[] entries;
+    private int count;
+    private ByteBuffer data;
 
     public static class Entry {
         public int count;
@@ -62,23 +67,32 @@ public class CompositionOffsetsBox extends FullBox {
     public static CompositionOffsetsBox createCompositionOffsetsBox(Entry[] entries) {
         CompositionOffsetsBox ctts = new CompositionOffsetsBox(new Header(fourcc()));
         ctts.entries = entries;
+        ctts.count = entries.length;
         return ctts;
     }
 
     @Override
     public void parse(ByteBuffer input) {
         super.parse(input);
-        int num = input.getInt();
+        count = input.getInt();
+        data = NIOUtils.readBuf(input);
+    }
 
-        entries = new Entry[num];
-        for (int i = 0; i < num; i++) {
-            entries[i] = new Entry(input.getInt(), input.getInt());
+    private synchronized void parseEntries() {
+        if (data == null)
+            return;
+        Entry[] entries = new Entry[count];
+        for (int i = 0; i < count; i++) {
+            entries[i] = new Entry(data.getInt(), data.getInt());
         }
+        this.entries = entries;
+        data = null;
     }
 
     @Override
     protected void doWrite(ByteBuffer out) {
         super.doWrite(out);
+        parseEntries();
 
         out.putInt(entries.length);
         for (int i = 0; i < entries.length; i++) {
@@ -89,10 +103,11 @@ public class CompositionOffsetsBox extends FullBox {
     
     @Override
     public int estimateSize() {
-        return 12 + 4 + entries.length * 8;
+        return 12 + 4 + count * 8;
     }
 
     public Entry[] getEntries() {
+        parseEntries();
         return entries;
     }
 }
\ No newline at end of file
@@ -2,10 +2,14 @@ package org.jcodec.containers.mp4.boxes;
 
 import java.nio.ByteBuffer;
 
+import org.jcodec.common.io.NIOUtils;
+
 /**
  * This class is part of JCodec ( www.jcodec.org )
  * This software is distributed under FreeBSD License
  * 
+ * The sizes of the parsed box are read on the first access
+ * 
  * @author The JCodec project
  *
  */
@@ -17,6 +21,7 @@ public class SampleSizesBox extends FullBox {
     private int defaultSize;
     private int count;
     private int[] sizes;
+    private ByteBuffer data;
     
     public static String fourcc() {
         return "stsz";
@@ -41,12 +46,19 @@ public class SampleSizesBox extends FullBox {
         defaultSize = input.getInt();
         count = input.getInt();
 
-        if (defaultSize == 0) {
-            sizes = new int[count];
-            for (int i = 0; i < count; i++) {
-                sizes[i] = input.getInt();
-            }
+        if (defaultSize == 0)
+            data = NIOUtils.readBuf(input);
+    }
+
+    private synchronized void parseSizes() {
+        if (data == null)
+            return;
+        int[] sizes = new int[count];
+        for (int i = 0; i < count; i++) {
+            sizes[i] = data.getInt();
         }
+        this.sizes = sizes;
+        data = null;
     }
 
     public int getDefaultSize() {
@@ -54,6 +66,7 @@ public class SampleSizesBox extends FullBox {
     }
 
     public int[] getSizes() {
+        parseSizes();
         return sizes;
     }
     
@@ -71,6 +84,7 @@ public class SampleSizesBox extends FullBox {
         out.putInt((int) defaultSize);
 
         if (defaultSize == 0) {
+            parseSizes();
             out.putInt(count);
             for (int i = 0; i < sizes.length; i++) {
                 long size = sizes[i];
@@ -83,10 +97,11 @@ public class SampleSizesBox extends FullBox {
     
     @Override
     public int estimateSize() {
-        return (defaultSize == 0 ? sizes.length * 4 : 0) + 20;
+        return (defaultSize == 0 ? count * 4 : 0) + 20;
     }
 
-    public void setSizes(int[] sizes) {
+    public synchronized void setSizes(int[] sizes) {
+        this.data = null;
         this.sizes = sizes;
         this.count = sizes.length;
     }
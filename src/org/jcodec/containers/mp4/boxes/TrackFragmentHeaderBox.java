@@ -22,6 +22,7 @@ public class TrackFragmentHeaderBox extends FullBox {
     public static final int FLAG_DEFAILT_SAMPLE_DURATION = 0x08;
     public static final int FLAG_DEFAULT_SAMPLE_SIZE = 0x10;
     public static final int FLAG_DEFAILT_SAMPLE_FLAGS = 0x20;
+    public static final int FLAG_DEFAULT_BASE_IS_MOOF = 0x020000;
     //@formatter:on
 
     private int trackId;
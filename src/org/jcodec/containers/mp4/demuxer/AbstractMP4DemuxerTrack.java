@@ -6,6 +6,7 @@ import java.util.List;
 
 import org.jcodec.common.DemuxerTrackMeta;
 import org.jcodec.common.SeekableDemuxerTrack;
+import org.jcodec.common.io.MappedFileChannel;
 import org.jcodec.common.io.NIOUtils;
 import org.jcodec.common.io.SeekableByteChannel;
 import org.jcodec.common.model.RationalLarge;
@@ -21,6 +22,7 @@ import org.jcodec.containers.mp4.boxes.NodeBox;
 import org.jcodec.containers.mp4.boxes.SampleEntry;
 import org.jcodec.containers.mp4.boxes.SampleToChunkBox;
 import org.jcodec.containers.mp4.boxes.SampleToChunkBox.SampleToChunkEntry;
+import org.jcodec.containers.mp4.boxes.SyncSamplesBox;
 import org.jcodec.containers.mp4.boxes.TimeToSampleBox;
 import org.jcodec.containers.mp4.boxes.TimeToSampleBox.TimeToSampleEntry;
 import org.jcodec.containers.mp4.boxes.TrakBox;
@@ -57,6 +59,8 @@ public abstract class AbstractMP4DemuxerTrack implements SeekableDemuxerTrack {
     protected long curFrame;
     protected int timescale;
 
+    private MP4SampleIndex index;
+
     public AbstractMP4DemuxerTrack(TrakBox trak) {
         no = trak.getTrackHeader().getNo();
         type = TrakBox.getTrackType(trak);
@@ -69,9 +73,10 @@ public abstract class AbstractMP4DemuxerTrack implements SeekableDemuxerTrack {
         ChunkOffsetsBox stco = NodeBox.findFirst(stbl, ChunkOffsetsBox.class, "stco");
         ChunkOffsets64Box co64 = NodeBox.findFirst(stbl, ChunkOffsets64Box.class, "co64");
 
-        timeToSamples = stts.getEntries();
-        sampleToChunks = stsc.getSampleToChunk();
-        chunkOffsets = stco != null ? stco.getChunkOffsets() : co64.getChunkOffsets();
+        // Fragmented files may come without the sample tables
+        timeToSamples = stts != null ? stts.getEntries() : new TimeToSampleEntry[0];
+        sampleToChunks = stsc != null ? stsc.getSampleToChunk() : new SampleToChunkEntry[0];
+        chunkOffsets = stco != null ? stco.getChunkOffsets() : (co64 != null ? co64.getChunkOffsets() : new long[0]);
 
         for (int i = 0; i < timeToSamples.length; i++) {
             TimeToSampleEntry ttse = timeToSamples[i];
@@ -83,16 +88,16 @@ public abstract class AbstractMP4DemuxerTrack implements SeekableDemuxerTrack {
     }
 
     public int pts2Sample(long _tv, int _timescale) {
-        long tv = _tv * timescale / _timescale;
-        int ttsInd, sample = 0;
-        for (ttsInd = 0; ttsInd < timeToSamples.length - 1; ttsInd++) {
-            int a = timeToSamples[ttsInd].getSampleCount() * timeToSamples[ttsInd].getSampleDuration();
-            if (tv < a)
-                break;
-            tv -= a;
-            sample += timeToSamples[ttsInd].getSampleCount();
-        }
-        return sample + (int) (tv / timeToSamples[ttsInd].getSampleDuration());
+        return (int) getSampleIndex().pts2Sample(_tv * timescale / _timescale);
+    }
+
+    /**
+     * Seek index of this track, built on the first use
+     */
+    public synchronized MP4SampleIndex getSampleIndex() {
+        if (index == null)
+            index = MP4SampleIndex.createMP4SampleIndex(this);
+        return index;
     }
 
     public MP4TrackType getType() {
@@ -127,19 +132,12 @@ public abstract class AbstractMP4DemuxerTrack implements SeekableDemuxerTrack {
         if (pts >= duration)
             return false;
 
-        long prevDur = 0;
-        int frameNo = 0;
-        for (sttsInd = 0; pts > prevDur + timeToSamples[sttsInd].getSampleCount()
-                * timeToSamples[sttsInd].getSampleDuration()
-                && sttsInd < timeToSamples.length - 1; sttsInd++) {
-            prevDur += timeToSamples[sttsInd].getSampleCount() * timeToSamples[sttsInd].getSampleDuration();
-            frameNo += timeToSamples[sttsInd].getSampleCount();
-        }
-        sttsSubInd = (int) ((pts - prevDur) / timeToSamples[sttsInd].getSampleDuration());
-        frameNo += sttsSubInd;
-        this.pts = prevDur + timeToSamples[sttsInd].getSampleDuration() * sttsSubInd;
+        MP4SampleIndex index = getSampleIndex();
+        sttsInd = index.sttsRunOfPts(pts);
+        sttsSubInd = (int) ((pts - index.getRunPts(sttsInd)) / index.getRunDuration(sttsInd));
+        this.pts = index.getRunPts(sttsInd) + (long) index.getRunDuration(sttsInd) * sttsSubInd;
 
-        seekPointer(frameNo);
+        seekPointer(index.getRunSample(sttsInd) + sttsSubInd);
 
         return true;
     }
@@ -155,6 +153,18 @@ public abstract class AbstractMP4DemuxerTrack implements SeekableDemuxerTrack {
         pts += sttsSubInd * timeToSamples[sttsInd].getSampleDuration();
     }
 
+    /**
+     * Points to the chunk of the frame
+     * 
+     * @return The first frame of the chunk
+     */
+    protected long seekChunk(long frameNo) {
+        MP4SampleIndex index = getSampleIndex();
+        stscInd = index.stscRun(frameNo);
+        stcoInd = Math.min(index.chunk(stscInd, frameNo), chunkOffsets.length);
+        return index.chunkSample(stscInd, stcoInd);
+    }
+
     protected void nextChunk() {
         if (stcoInd >= chunkOffsets.length)
             return;
@@ -186,8 +196,20 @@ public abstract class AbstractMP4DemuxerTrack implements SeekableDemuxerTrack {
     }
 
     private void seekFrame(long frameNo) {
-        pts = sttsInd = sttsSubInd = 0;
-        shiftPts(frameNo);
+        MP4SampleIndex index = getSampleIndex();
+        sttsInd = index.sttsRun(frameNo);
+        sttsSubInd = (int) (frameNo - index.getRunSample(sttsInd));
+        pts = index.getRunPts(sttsInd) + (long) index.getRunDuration(sttsInd) * sttsSubInd;
+    }
+
+    /**
+     * Sync samples of this track, 1 based like in the 'stss' box
+     * 
+     * @return The sync samples or null if every sample is a sync sample
+     */
+    protected int[] getSyncSamples() {
+        SyncSamplesBox stss = NodeBox.findFirstPath(box, SyncSamplesBox.class, Box.path("mdia.minf.stbl.stss"));
+        return stss == null ? null : stss.getSyncSamples();
     }
 
     public RationalLarge getDuration() {
@@ -220,13 +242,27 @@ public abstract class AbstractMP4DemuxerTrack implements SeekableDemuxerTrack {
         return fourcc;
     }
 
+    /**
+     * Reads the data of a packet
+     *
+     * @param buffer
+     *            Buffer to read into, if null the data is a slice of the input
+     *            when it's memory mapped or a newly allocated buffer otherwise
+     */
     protected ByteBuffer readPacketData(SeekableByteChannel input, ByteBuffer buffer, long offset, int size)
             throws IOException {
-        ByteBuffer result = buffer.duplicate();
-        synchronized (input) {
-            input.setPosition(offset);
-            NIOUtils.readL(input, result, size);
+        if (buffer == null) {
+            if (input instanceof MappedFileChannel) {
+                ByteBuffer slice = ((MappedFileChannel) input).slice(offset, size);
+                if (slice != null)
+                    return slice;
+            }
+            buffer = ByteBuffer.allocate(size);
         }
+        // Positional read, the tracks sharing the input don't wait for each
+        // other
+        ByteBuffer result = buffer.duplicate();
+        NIOUtils.readAt(input, result, size, offset);
         result.flip();
         return result;
     }
@@ -0,0 +1,45 @@
+package org.jcodec.containers.mp4.demuxer;
+
+import java.nio.ByteBuffer;
+
+import org.jcodec.codecs.h264.H264Utils;
+import org.jcodec.codecs.h264.mp4.AvcCBox;
+import org.jcodec.common.Codec;
+import org.jcodec.common.io.SeekableByteChannel;
+import org.jcodec.containers.mp4.boxes.MovieBox;
+import org.jcodec.containers.mp4.boxes.TrakBox;
+import org.jcodec.containers.mp4.boxes.VideoSampleEntry;
+
+/**
+ * This class is part of JCodec ( www.jcodec.org ) This software is distributed
+ * under FreeBSD License
+ * 
+ * Fragmented MP4 track containing frames, the packets are converted the same
+ * way as by CodecMP4DemuxerTrack
+ * 
+ * @author The JCodec project
+ * 
+ */
+public class CodecFragmentedMP4DemuxerTrack extends FragmentedMP4DemuxerTrack {
+
+    private Codec codec;
+
+    private ByteBuffer codecPrivate;
+
+    private AvcCBox avcC;
+
+    public CodecFragmentedMP4DemuxerTrack(MovieBox mov, TrakBox trak, SeekableByteChannel input,
+            MP4FragmentIndex index) {
+        super(mov, trak, input, index);
+        codec = Codec.codecByFourcc(getFourcc());
+        if (codec == Codec.H264) {
+            avcC = H264Utils.parseAVCC((VideoSampleEntry) getSampleEntries()[0]);
+        }
+        codecPrivate = MP4DemuxerTrackMeta.getCodecPrivate(this);
+    }
+
+    @Override
+    public ByteBuffer convertPacket(ByteBuffer result) {
+        return CodecMP4DemuxerTrack.convertPacket(result, codec, codecPrivate, avcC);
+    }
+}
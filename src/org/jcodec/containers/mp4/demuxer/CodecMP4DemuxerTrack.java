@@ -40,14 +40,22 @@ public class CodecMP4DemuxerTrack extends MP4DemuxerTrack {
 
     @Override
     public ByteBuffer convertPacket(ByteBuffer result) {
+        return convertPacket(result, Codec.codecByFourcc(getFourcc()), codecPrivate, avcC);
+    }
+
+    /**
+     * Converts H.264 packets to Annex B and prepends ADTS headers to AAC
+     * packets
+     */
+    static ByteBuffer convertPacket(ByteBuffer result, Codec codec, ByteBuffer codecPrivate, AvcCBox avcC) {
         if (codecPrivate != null) {
-            if (Codec.codecByFourcc(getFourcc()) == Codec.H264) {
+            if (codec == Codec.H264) {
                 ByteBuffer annexbCoded = H264Utils.decodeMOVPacket(result, avcC);
                 if (H264Utils.isByteBufferIDRSlice(annexbCoded)) {
                     return NIOUtils.combineBuffers(Arrays.asList(codecPrivate, annexbCoded));
                 }
                 return annexbCoded;
-            } else if (Codec.codecByFourcc(getFourcc()) == Codec.AAC) {
+            } else if (codec == Codec.AAC) {
                 // !!! crcAbsent, numAACFrames
                 Header adts = AACUtils.streamInfoToADTS(codecPrivate, true, 1, result.remaining());
                 ByteBuffer adtsRaw = ByteBuffer.allocate(7);
@@ -0,0 +1,552 @@
+package org.jcodec.containers.mp4.demuxer;
+
+import static org.jcodec.containers.mp4.QTTimeUtil.mediaToEdited;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import org.jcodec.common.IntArrayList;
+import org.jcodec.common.Ints;
+import org.jcodec.common.LongArrayList;
+import org.jcodec.common.io.SeekableByteChannel;
+import org.jcodec.common.model.Packet.FrameType;
+import org.jcodec.common.model.RationalLarge;
+import org.jcodec.containers.mp4.MP4Packet;
+import org.jcodec.containers.mp4.boxes.Edit;
+import org.jcodec.containers.mp4.boxes.MovieBox;
+import org.jcodec.containers.mp4.boxes.SegmentIndexBox;
+import org.jcodec.containers.mp4.boxes.TrakBox;
+
+/**
+ * This class is part of JCodec ( www.jcodec.org ) This software is distributed
+ * under FreeBSD License
+ *
+ * Track of a fragmented MP4 file, the samples are described by the 'trun'
+ * boxes of the movie fragments rather then by the sample tables of the movie
+ * box.
+ *
+ * The sample index is built lazily as the track is read or seeked, the
+ * fragments are indexed in the file order up to the sample that is needed.
+ * Getting the frame count or the sync samples indexes the whole file.
+ *
+ * When the file has a segment index a seek by time jumps straight to the
+ * subsegment that contains the time. The fragments that were skipped are
+ * only indexed when the frame numbers are asked for, until then the packets
+ * read after the jump have the frame number -1.
+ *
+ * @author The JCodec project
+ *
+ */
+public class FragmentedMP4DemuxerTrack extends AbstractMP4DemuxerTrack {
+    private MP4FragmentIndex index;
+    private SeekableByteChannel input;
+    private MovieBox movie;
+
+    // Guarded by the index
+    private LongArrayList offsets;
+    private IntArrayList sizes;
+    private LongArrayList dts;
+    private IntArrayList durations;
+    private IntArrayList compOffsets;
+    private IntArrayList entries;
+    private IntArrayList syncSamples;
+    private long nextDts;
+    private int entry;
+
+    // The samples from jumpIdx on were indexed after the index jumped over
+    // some fragments, their frame numbers are not known
+    private int jumpIdx;
+    private long gapDts;
+    private int gapEntry;
+    private boolean jumpPending;
+    private boolean dtsUnknown;
+    private boolean afterJump;
+    // The samples the pointer was at were dropped, it's found again by dts
+    private boolean relocate;
+    private long relocateDts;
+    private boolean relocateJump;
+
+    public FragmentedMP4DemuxerTrack(MovieBox mov, TrakBox trak, SeekableByteChannel input, MP4FragmentIndex index) {
+        super(trak);
+        this.movie = mov;
+        this.input = input;
+        this.index = index;
+        offsets = LongArrayList.createLongArrayList();
+        sizes = IntArrayList.createIntArrayList();
+        dts = LongArrayList.createLongArrayList();
+        durations = IntArrayList.createIntArrayList();
+        compOffsets = IntArrayList.createIntArrayList();
+        entries = IntArrayList.createIntArrayList();
+        syncSamples = IntArrayList.createIntArrayList();
+        jumpIdx = -1;
+        index.addTrack(getNo(), this);
+    }
+
+    /**
+     * Called by the index when a fragment of this track starts
+     *
+     * @param baseDts
+     *            Decode time of the first sample of the fragment or -1 if the
+     *            fragment continues the previous one
+     * @param entry
+     *            Sample entry of the samples of this fragment, 0 based
+     */
+    void startFragment(long baseDts, int entry) {
+        if (jumpPending) {
+            jumpPending = false;
+            dtsUnknown = baseDts < 0;
+        }
+        if (baseDts >= 0)
+            nextDts = baseDts;
+        this.entry = entry;
+    }
+
+    void addSample(long offset, int size, int duration, int compOffset, boolean sync) {
+        offsets.add(offset);
+        sizes.add(size);
+        dts.add(nextDts);
+        durations.add(duration);
+        compOffsets.add(compOffset);
+        entries.add(entry);
+        if (sync)
+            syncSamples.add(sizes.size());
+        nextDts += duration;
+    }
+
+    /**
+     * Called by the index when it jumps over the fragments that were not
+     * indexed yet, the samples indexed after the previous jump are dropped
+     */
+    void jumped() {
+        if (jumpIdx == -1) {
+            jumpIdx = sizes.size();
+            gapDts = nextDts;
+            gapEntry = entry;
+        } else {
+            dropSamples(jumpIdx);
+            dropPointer(true);
+        }
+        jumpPending = true;
+        dtsUnknown = false;
+    }
+
+    /**
+     * Called by the index when it goes back to index the fragments it jumped
+     * over, the samples indexed after the jump are dropped
+     */
+    void gapFilled() {
+        dropSamples(jumpIdx);
+        dropPointer(false);
+        nextDts = gapDts;
+        entry = gapEntry;
+        jumpIdx = -1;
+        jumpPending = false;
+        dtsUnknown = false;
+    }
+
+    private void dropSamples(int n) {
+        while (sizes.size() > n) {
+            offsets.pop();
+            sizes.pop();
+            dts.pop();
+            durations.pop();
+            compOffsets.pop();
+            entries.pop();
+        }
+        while (syncSamples.size() > 0 && syncSamples.get(syncSamples.size() - 1) > n)
+            syncSamples.pop();
+    }
+
+    private void dropPointer(boolean jump) {
+        if (afterJump) {
+            afterJump = false;
+            relocate = true;
+            relocateDts = pts;
+            relocateJump = jump;
+        }
+    }
+
+    /**
+     * Finds the sample the pointer was at if it was dropped
+     */
+    private void relocate() throws IOException {
+        if (!relocate)
+            return;
+        relocate = false;
+        int frame = seekDts(relocateDts, relocateJump);
+        seekPointer(frame == -1 ? sizes.size() : frame);
+    }
+
+    /**
+     * Indexes the fragments until the sample is known
+     *
+     * @return If the sample exists
+     */
+    private boolean ensure(long sample) throws IOException {
+        synchronized (index) {
+            while (sizes.size() <= sample) {
+                if (!index.indexNext())
+                    return false;
+            }
+            return true;
+        }
+    }
+
+    private void ensureAll() {
+        try {
+            index.indexAll();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public synchronized MP4Packet nextFrame() throws IOException {
+        return getNextFrame(null);
+    }
+
+    @Override
+    public synchronized MP4Packet getNextFrame(ByteBuffer storage) throws IOException {
+        int frame;
+        long pktPos, sampleDts, frameNo;
+        int size, duration, compOffset, entryNo;
+        boolean sync;
+        synchronized (index) {
+            relocate();
+            // The next sample was skipped by a jump
+            if (jumpIdx != -1 && !afterJump && curFrame >= jumpIdx)
+                index.fillGap();
+            if (!ensure(curFrame))
+                return null;
+            frame = (int) curFrame;
+            frameNo = afterJump ? -1 : curFrame;
+            pktPos = offsets.get(frame);
+            size = sizes.get(frame);
+            sampleDts = dts.get(frame);
+            duration = durations.get(frame);
+            compOffset = compOffsets.get(frame);
+            entryNo = entries.get(frame);
+            sync = isSync(frame);
+        }
+
+        if (storage != null && storage.remaining() < size) {
+            throw new IllegalArgumentException("Buffer size is not enough to fit a packet");
+        }
+
+        ByteBuffer result = readPacketData(input, storage, pktPos, size);
+
+        if (result != null && result.remaining() < size)
+            return null;
+
+        long realPts = sampleDts + compOffset;
+        ByteBuffer data = result == null ? null : convertPacket(result);
+        long _pts = editedPts(realPts);
+        FrameType ftype = sync ? FrameType.KEY : FrameType.INTER;
+        MP4Packet pkt = new MP4Packet(data, _pts, timescale, duration, frameNo, ftype, null, 0, realPts, entryNo,
+                pktPos, size, false);
+
+        synchronized (index) {
+            curFrame++;
+            pts = sampleDts + duration;
+            // The sample was dropped by a jump while it was read
+            if (relocate)
+                relocateDts = pts;
+        }
+
+        return pkt;
+    }
+
+    /**
+     * Fragmented files often have an edit with zero duration that only shifts
+     * the media timeline
+     */
+    private long editedPts(long realPts) {
+        List<Edit> edits = box.getEdits();
+        if (edits != null && edits.size() == 1 && edits.get(0).getDuration() == 0) {
+            long mediaTime = edits.get(0).getMediaTime();
+            return mediaTime == -1 ? realPts : realPts - mediaTime;
+        }
+        return mediaToEdited(box, realPts, movie.getTimescale());
+    }
+
+    private boolean isSync(int frame) {
+        int lo = 0, hi = syncSamples.size() - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int ss = syncSamples.get(mid) - 1;
+            if (ss == frame)
+                return true;
+            else if (ss < frame)
+                lo = mid + 1;
+            else
+                hi = mid - 1;
+        }
+        return false;
+    }
+
+    @Override
+    public synchronized boolean gotoFrame(long frameNo) {
+        if (frameNo < 0)
+            throw new IllegalArgumentException("negative frame number");
+        try {
+            synchronized (index) {
+                if (jumpIdx != -1 && frameNo >= jumpIdx)
+                    index.fillGap();
+                // The pointer is replaced anyway
+                relocate = false;
+                afterJump = false;
+            }
+            if (!ensure(frameNo))
+                return false;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        seekPointer(frameNo);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean gotoSyncFrame(long frameNo) {
+        if (!gotoFrame(frameNo))
+            return false;
+        synchronized (index) {
+            int frame = (int) frameNo;
+            for (int i = syncSamples.size() - 1; i >= 0; i--) {
+                if (syncSamples.get(i) - 1 <= frame) {
+                    seekPointer(syncSamples.get(i) - 1);
+                    break;
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized boolean seekPts(long pts) {
+        if (pts < 0)
+            throw new IllegalArgumentException("Seeking to negative pts");
+        try {
+            synchronized (index) {
+                relocate = false;
+                int frame = seekDts(pts, true);
+                if (frame == -1)
+                    return false;
+                seekPointer(frame);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return true;
+    }
+
+    /**
+     * Finds the last sample that starts at or before the decode time, when
+     * it's allowed the index jumps to the subsegment of the time
+     * 
+     * @return The sample or -1 if the time is past the end of the track
+     */
+    private int seekDts(long time, boolean jump) throws IOException {
+        afterJump = false;
+        if (jump)
+            jump(time);
+        int frame = findDts(time);
+        if (frame != -1 && !isIndexed(frame, time)) {
+            // The sample is in the fragments the index jumped over
+            index.fillGap();
+            frame = findDts(time);
+        }
+        afterJump = frame != -1 && jumpIdx != -1 && frame >= jumpIdx;
+        return frame;
+    }
+
+    private void jump(long time) throws IOException {
+        SegmentIndexBox sidx = index.getSegmentIndex(getNo());
+        if (sidx == null || sidx.timescale == 0)
+            return;
+        if (jumpIdx == -1 && sizes.size() > 0 && lastDts() > time)
+            return;
+        long offset = index.findSubsegment(getNo(), time * sidx.timescale / timescale);
+        if (offset != -1)
+            index.jumpTo(offset);
+    }
+
+    private int findDts(long time) throws IOException {
+        // Fragments are indexed until the one that starts after the
+        // requested time
+        while (sizes.size() == 0 || lastDts() <= time) {
+            if (!index.indexNext())
+                break;
+        }
+        int n = sizes.size();
+        if (n == 0 || time >= lastDts() + durations.get(n - 1))
+            return -1;
+        int lo = 0, hi = n - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (dts.get(mid) <= time)
+                lo = mid;
+            else
+                hi = mid - 1;
+        }
+        return lo;
+    }
+
+    /**
+     * The sample found for the time is right unless the time is in the
+     * fragments the index jumped over or the subsegment doesn't start before
+     * the time
+     */
+    private boolean isIndexed(int frame, long time) {
+        if (jumpIdx == -1)
+            return true;
+        if (frame < jumpIdx)
+            return frame < jumpIdx - 1;
+        return !dtsUnknown && dts.get(frame) <= time;
+    }
+
+    private long lastDts() {
+        return dts.get(sizes.size() - 1);
+    }
+
+    @Override
+    public boolean canSeek(long pts) {
+        return pts >= 0 && pts < getDurationTicks();
+    }
+
+    @Override
+    protected void seekPointer(long frameNo) {
+        synchronized (index) {
+            curFrame = frameNo;
+            pts = frameNo < sizes.size() ? dts.get((int) frameNo) : nextDts;
+        }
+    }
+
+    /**
+     * Makes sure the frame number is known, the fragments the index jumped
+     * over are indexed
+     */
+    @Override
+    public synchronized long getCurFrame() {
+        try {
+            synchronized (index) {
+                relocate();
+                if (afterJump) {
+                    index.fillGap();
+                    relocate();
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return curFrame;
+    }
+
+    /**
+     * @return If all the fragments of the file are indexed
+     */
+    public boolean isIndexed() {
+        synchronized (index) {
+            return index.isDone() && jumpIdx == -1;
+        }
+    }
+
+    /**
+     * Frame count that is known without indexing the file, derived from the
+     * segment index duration and the default sample duration when the file is
+     * not indexed yet
+     * 
+     * @return The frame count or 0 if it's not known
+     */
+    public long getKnownFrameCount() {
+        if (isIndexed())
+            return getFrameCount();
+        SegmentIndexBox sidx = index.getSegmentIndex(getNo());
+        int sampleDuration = index.getDefaultSampleDuration(getNo());
+        if (sidx == null || sidx.timescale == 0 || sampleDuration == 0)
+            return 0;
+        long total = 0;
+        for (int i = 0; i < sidx.reference_count; i++)
+            total += sidx.references[i].subsegment_duration;
+        return total * timescale / sidx.timescale / sampleDuration;
+    }
+
+    /**
+     * Key frames that are known without indexing the file: the sync samples of
+     * the fragments indexed so far followed by the subsegments the segment
+     * index marks as starting with a stream access point
+     * 
+     * @return Zero based key frame numbers, empty if none are known
+     */
+    public int[] getKnownSeekFrames() {
+        if (isIndexed()) {
+            int[] syncSamples = getSyncSamples();
+            for (int i = 0; i < syncSamples.length; i++)
+                syncSamples[i]--;
+            return syncSamples;
+        }
+        IntArrayList result = IntArrayList.createIntArrayList();
+        int known;
+        synchronized (index) {
+            known = jumpIdx == -1 ? sizes.size() : jumpIdx;
+            for (int i = 0; i < syncSamples.size() && syncSamples.get(i) <= known; i++)
+                result.add(syncSamples.get(i) - 1);
+        }
+        SegmentIndexBox sidx = index.getSegmentIndex(getNo());
+        int sampleDuration = index.getDefaultSampleDuration(getNo());
+        if (sidx == null || sidx.timescale == 0 || sampleDuration == 0)
+            return result.toArray();
+        long time = 0;
+        for (int i = 0; i < sidx.reference_count; i++) {
+            SegmentIndexBox.Reference ref = sidx.references[i];
+            long scaled = time * timescale;
+            // Only exact while every subsegment is a whole number of samples
+            if (ref.reference_type || scaled % ((long) sidx.timescale * sampleDuration) != 0)
+                break;
+            long frame = scaled / sidx.timescale / sampleDuration;
+            if (frame >= known && ref.starts_with_SAP && ref.SAP_type >= 1 && ref.SAP_type <= 3)
+                result.add(Ints.checkedCast(frame));
+            time += ref.subsegment_duration;
+        }
+        return result.toArray();
+    }
+
+    @Override
+    public long getFrameCount() {
+        ensureAll();
+        synchronized (index) {
+            return sizes.size();
+        }
+    }
+
+    @Override
+    protected int[] getSyncSamples() {
+        ensureAll();
+        synchronized (index) {
+            return syncSamples.toArray();
+        }
+    }
+
+    @Override
+    public RationalLarge getDuration() {
+        return new RationalLarge(getDurationTicks(), timescale);
+    }
+
+    /**
+     * Duration of the track in the media timescale, taken from the segment
+     * index when the file has one, otherwise the whole file is indexed
+     */
+    private long getDurationTicks() {
+        SegmentIndexBox sidx = index.getSegmentIndex(getNo());
+        if (sidx != null && sidx.timescale != 0) {
+            long total = 0;
+            for (int i = 0; i < sidx.reference_count; i++)
+                total += sidx.references[i].subsegment_duration;
+            return (sidx.earliest_presentation_time + total) * timescale / sidx.timescale;
+        }
+        ensureAll();
+        synchronized (index) {
+            return nextDts;
+        }
+    }
+}
@@ -42,6 +42,7 @@ public class MP4Demuxer implements Demuxer {
 
     private List<AbstractMP4DemuxerTrack> tracks;
     private TimecodeMP4DemuxerTrack timecodeTrack;
+    private MP4FragmentIndex fragments;
     MovieBox movie;
     protected SeekableByteChannel input;
     
@@ -57,11 +58,22 @@ public class MP4Demuxer implements Demuxer {
             protected AbstractMP4DemuxerTrack newTrack(TrakBox trak) {
                 return new MP4DemuxerTrack(movie, trak, this.input);
             }
+
+            @Override
+            protected AbstractMP4DemuxerTrack newFragmentedTrack(TrakBox trak, MP4FragmentIndex index) {
+                return new FragmentedMP4DemuxerTrack(movie, trak, this.input, index);
+            }
         };
     }
 
-    private AbstractMP4DemuxerTrack fromTrakBox(TrakBox trak) {
+    private AbstractMP4DemuxerTrack fromTrakBox(TrakBox trak) throws IOException {
         SampleSizesBox stsz = NodeBox.findFirstPath(trak, SampleSizesBox.class, Box.path("mdia.minf.stbl.stsz"));
+        if (MP4FragmentIndex.isFragmented(movie) && (stsz == null || stsz.getCount() == 0)) {
+            // All the samples of this track are in the movie fragments
+            if (fragments == null)
+                fragments = new MP4FragmentIndex(input, movie);
+            return newFragmentedTrack(trak, fragments);
+        }
         if (stsz.getDefaultSize() == 0)
             return newTrack(trak);
         return new PCMMP4DemuxerTrack(movie, trak, input);
@@ -71,6 +83,10 @@ public class MP4Demuxer implements Demuxer {
         return new CodecMP4DemuxerTrack(movie, trak, input);
     }
 
+    protected AbstractMP4DemuxerTrack newFragmentedTrack(TrakBox trak, MP4FragmentIndex index) {
+        return new CodecFragmentedMP4DemuxerTrack(movie, trak, input, index);
+    }
+
     MP4Demuxer(SeekableByteChannel input) throws IOException {
         this.input = input;
         tracks = new LinkedList<AbstractMP4DemuxerTrack>();
@@ -98,7 +114,7 @@ public class MP4Demuxer implements Demuxer {
                 tracks.add(fromTrakBox(trak));
             }
         }
-        if (tt != null) {
+        if (tt != null && fragments == null) {
             DemuxerTrack video = getVideoTrack();
             if (video != null)
                 timecodeTrack = new TimecodeMP4DemuxerTrack(movie, tt, input);
@@ -28,6 +28,7 @@ import org.jcodec.containers.mp4.boxes.TrakBox;
  */
 public class MP4DemuxerTrack extends AbstractMP4DemuxerTrack {
 
+    private SampleSizesBox stsz;
     private int[] sizes;
 
     private long offInChunk;
@@ -39,6 +40,7 @@ public class MP4DemuxerTrack extends AbstractMP4DemuxerTrack {
     private int ssOff;
     private int psOff;
 
+    private CompositionOffsetsBox ctts;
     private Entry[] compOffsets;
     private int cttsInd;
     private int cttsSubInd;
@@ -51,33 +53,38 @@ public class MP4DemuxerTrack extends AbstractMP4DemuxerTrack {
         super(trak);
         this.input = input;
         this.movie = mov;
-        SampleSizesBox stsz = NodeBox.findFirstPath(trak, SampleSizesBox.class, Box.path("mdia.minf.stbl.stsz"));
+        stsz = NodeBox.findFirstPath(trak, SampleSizesBox.class, Box.path("mdia.minf.stbl.stsz"));
+        ctts = NodeBox.findFirstPath(trak, CompositionOffsetsBox.class, Box.path("mdia.minf.stbl.ctts"));
         SyncSamplesBox stss = NodeBox.findFirstPath(trak, SyncSamplesBox.class, Box.path("mdia.minf.stbl.stss"));
         SyncSamplesBox stps = NodeBox.findFirstPath(trak, SyncSamplesBox.class, Box.path("mdia.minf.stbl.stps"));
-        CompositionOffsetsBox ctts = NodeBox.findFirstPath(trak, CompositionOffsetsBox.class, Box.path("mdia.minf.stbl.ctts"));
-        compOffsets = ctts == null ? null : ctts.getEntries();
         if (stss != null) {
             syncSamples = stss.getSyncSamples();
         }
         if (stps != null) {
             partialSync = stps.getSyncSamples();
         }
+    }
 
-        sizes = stsz.getSizes();
+    /**
+     * The sample sizes and the composition offsets are only read when the
+     * track is read or seeked, the tracks that are never read don't parse
+     * them
+     */
+    private void loadTables() {
+        if (sizes == null) {
+            sizes = stsz.getSizes();
+            compOffsets = ctts == null ? null : ctts.getEntries();
+        }
     }
 
     @Override
     public synchronized MP4Packet nextFrame() throws IOException {
-        if (curFrame >= sizes.length)
-            return null;
-        int size = sizes[(int) curFrame];
-
-        return getNextFrame(ByteBuffer.allocate(size));
+        return getNextFrame(null);
     }
 
     @Override
     public synchronized MP4Packet getNextFrame(ByteBuffer storage) throws IOException {
-
+        loadTables();
         if (curFrame >= sizes.length)
             return null;
         int size = sizes[(int) curFrame];
@@ -150,52 +157,37 @@ public class MP4DemuxerTrack extends AbstractMP4DemuxerTrack {
             return false;
         if (frameNo == curFrame)
             return true;
-        for (int i = 0; i < syncSamples.length; i++) {
-            if (syncSamples[i] - 1 > frameNo)
-                return gotoFrame(syncSamples[i - 1] - 1);
-        }
-        return gotoFrame(syncSamples[syncSamples.length - 1] - 1);
+        // Last sync sample that is not after the frame
+        int i = MP4SampleIndex.lowerBound(syncSamples, frameNo + 2) - 1;
+        return gotoFrame(syncSamples[Math.max(i, 0)] - 1);
     }
 
     @Override
     protected void seekPointer(long frameNo) {
+        loadTables();
         if (compOffsets != null) {
-            cttsSubInd = (int) frameNo;
-            cttsInd = 0;
-            while (cttsSubInd >= compOffsets[cttsInd].getCount()) {
-                cttsSubInd -= compOffsets[cttsInd].getCount();
-                cttsInd++;
-            }
+            MP4SampleIndex index = getSampleIndex();
+            cttsInd = index.cttsRun(frameNo);
+            cttsSubInd = (int) (frameNo - index.getCttsRunSample(cttsInd));
         }
 
         curFrame = (int) frameNo;
-        stcoInd = 0;
-        stscInd = 0;
-        noInChunk = (int) frameNo;
+        noInChunk = (int) (frameNo - seekChunk(frameNo));
         offInChunk = 0;
 
-        while (noInChunk >= sampleToChunks[stscInd].getCount()) {
-            noInChunk -= sampleToChunks[stscInd].getCount();
-
-            nextChunk();
-        }
-
         for (int i = 0; i < noInChunk; i++) {
             offInChunk += sizes[(int) frameNo - noInChunk + i];
         }
 
         if (syncSamples != null)
-            for (ssOff = 0; ssOff < syncSamples.length && syncSamples[ssOff] < curFrame + 1; ssOff++)
-                ;
+            ssOff = MP4SampleIndex.lowerBound(syncSamples, curFrame + 1);
 
         if (partialSync != null)
-            for (psOff = 0; psOff < partialSync.length && partialSync[psOff] < curFrame + 1; psOff++)
-                ;
-
+            psOff = MP4SampleIndex.lowerBound(partialSync, curFrame + 1);
     }
 
     @Override
     public long getFrameCount() {
-        return sizes.length;
+        return stsz.getCount();
     }
 }
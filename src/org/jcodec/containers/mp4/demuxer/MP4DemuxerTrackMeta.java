@@ -25,7 +25,6 @@ import org.jcodec.containers.mp4.boxes.AudioSampleEntry;
 import org.jcodec.containers.mp4.boxes.Box;
 import org.jcodec.containers.mp4.boxes.NodeBox;
 import org.jcodec.containers.mp4.boxes.PixelAspectExt;
-import org.jcodec.containers.mp4.boxes.SyncSamplesBox;
 import org.jcodec.containers.mp4.boxes.TrackHeaderBox;
 import org.jcodec.containers.mp4.boxes.TrakBox;
 import org.jcodec.containers.mp4.boxes.VideoSampleEntry;
@@ -34,20 +33,18 @@ import org.jcodec.platform.Platform;
 public class MP4DemuxerTrackMeta {
     public static DemuxerTrackMeta fromTrack(AbstractMP4DemuxerTrack track) {
         TrakBox trak = track.getBox();
-        SyncSamplesBox stss = NodeBox.findFirstPath(trak, SyncSamplesBox.class, Box.path("mdia.minf.stbl.stss"));
-        int[] syncSamples = stss == null ? null : stss.getSyncSamples();
-        
+        // Indexes a fragmented file that has no segment index
+        RationalLarge duration = track.getDuration();
         int[] seekFrames;
-        if (syncSamples == null) {
-            // all frames are I-frames
-            seekFrames = new int[(int) track.getFrameCount()];
-            for (int i = 0; i < seekFrames.length; i++) {
-                seekFrames[i] = i;
-            }
+        int frameCount;
+        if (track instanceof FragmentedMP4DemuxerTrack && !((FragmentedMP4DemuxerTrack) track).isIndexed()) {
+            // The fragments are indexed on demand, the meta doesn't index the
+            // whole file
+            seekFrames = ((FragmentedMP4DemuxerTrack) track).getKnownSeekFrames();
+            frameCount = Ints.checkedCast(((FragmentedMP4DemuxerTrack) track).getKnownFrameCount());
         } else {
-            seekFrames = Platform.copyOfInt(syncSamples, syncSamples.length);
-            for (int i = 0; i < seekFrames.length; i++)
-                seekFrames[i]--;
+            seekFrames = getSeekFrames(track);
+            frameCount = Ints.checkedCast(track.getFrameCount());
         }
 
         MP4TrackType type = track.getType();
@@ -63,9 +60,7 @@ public class MP4DemuxerTrackMeta {
             AudioSampleEntry ase = (AudioSampleEntry) track.getSampleEntries()[0];
             audioCodecMeta = AudioCodecMeta.fromAudioFormat(ase.getFormat());
         }
-        RationalLarge duration = track.getDuration();
         double sec = (double) duration.getNum() / duration.getDen();
-        int frameCount = Ints.checkedCast(track.getFrameCount());
         DemuxerTrackMeta meta = new DemuxerTrackMeta(t, Codec.codecByFourcc(track.getFourcc()), sec, seekFrames,
                 frameCount, getCodecPrivate(track), videoCodecMeta, audioCodecMeta);
 
@@ -88,6 +83,23 @@ public class MP4DemuxerTrackMeta {
         return meta;
     }
 
+    private static int[] getSeekFrames(AbstractMP4DemuxerTrack track) {
+        int[] syncSamples = track.getSyncSamples();
+        int[] seekFrames;
+        if (syncSamples == null) {
+            // all frames are I-frames
+            seekFrames = new int[(int) track.getFrameCount()];
+            for (int i = 0; i < seekFrames.length; i++) {
+                seekFrames[i] = i;
+            }
+        } else {
+            seekFrames = Platform.copyOfInt(syncSamples, syncSamples.length);
+            for (int i = 0; i < seekFrames.length; i++)
+                seekFrames[i]--;
+        }
+        return seekFrames;
+    }
+
     protected static ColorSpace getColorInfo(AbstractMP4DemuxerTrack track) {
         Codec codec = Codec.codecByFourcc(track.getFourcc());
         if (codec == Codec.H264) {
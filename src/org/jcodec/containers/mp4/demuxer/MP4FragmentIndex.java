@@ -0,0 +1,321 @@
+package org.jcodec.containers.mp4.demuxer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jcodec.common.IntObjectMap;
+import org.jcodec.common.LongArrayList;
+import org.jcodec.common.io.NIOUtils;
+import org.jcodec.common.io.SeekableByteChannel;
+import org.jcodec.containers.mp4.BoxFactory;
+import org.jcodec.containers.mp4.BoxUtil;
+import org.jcodec.containers.mp4.MP4Util.Atom;
+import org.jcodec.containers.mp4.boxes.Box;
+import org.jcodec.containers.mp4.boxes.Header;
+import org.jcodec.containers.mp4.boxes.MovieBox;
+import org.jcodec.containers.mp4.boxes.MovieExtendsBox;
+import org.jcodec.containers.mp4.boxes.MovieFragmentBox;
+import org.jcodec.containers.mp4.boxes.NodeBox;
+import org.jcodec.containers.mp4.boxes.SegmentIndexBox;
+import org.jcodec.containers.mp4.boxes.SegmentIndexBox.Reference;
+import org.jcodec.containers.mp4.boxes.TrackExtendsBox;
+import org.jcodec.containers.mp4.boxes.TrackFragmentBaseMediaDecodeTimeBox;
+import org.jcodec.containers.mp4.boxes.TrackFragmentBox;
+import org.jcodec.containers.mp4.boxes.TrackFragmentHeaderBox;
+import org.jcodec.containers.mp4.boxes.TrunBox;
+
+/**
+ * This class is part of JCodec ( www.jcodec.org ) This software is distributed
+ * under FreeBSD License
+ *
+ * Incrementally built sample index of a fragmented MP4 file.
+ *
+ * The top level boxes are walked on demand, only the headers of the boxes and
+ * the 'moof' boxes are read, media data is skipped. The samples described by
+ * the 'trun' runs of every track fragment are handed over to the demuxer
+ * track of this fragment. The segment index boxes ( 'sidx' ) found before the
+ * first fragment that cover the whole file are kept to know the duration of
+ * the tracks without indexing it.
+ *
+ * A seek can make the index jump straight to a subsegment of the segment
+ * index, the fragments in between are left out until the index is asked to
+ * fill the gap. Only one gap is kept, a jump drops whatever was indexed after
+ * the previous jump.
+ *
+ * @author The JCodec project
+ *
+ */
+public class MP4FragmentIndex {
+    private static final int DEFAULT_BASE_IS_MOOF = 0x020000;
+    private static final int SAMPLE_IS_NON_SYNC = 0x10000;
+
+    private SeekableByteChannel input;
+    private IntObjectMap<FragmentedMP4DemuxerTrack> tracks;
+    private IntObjectMap<TrackExtendsBox> trex;
+    private List<SegmentIndexBox> sidx;
+    private LongArrayList sidxEnd;
+    private long pos;
+    private boolean done;
+    private long gapStart;
+    private long jumpStart;
+
+    public MP4FragmentIndex(SeekableByteChannel input, MovieBox moov) throws IOException {
+        this.input = input;
+        this.tracks = new IntObjectMap<FragmentedMP4DemuxerTrack>();
+        this.trex = new IntObjectMap<TrackExtendsBox>();
+        this.sidx = new ArrayList<SegmentIndexBox>();
+        this.sidxEnd = LongArrayList.createLongArrayList();
+        this.gapStart = -1;
+        NodeBox mvex = NodeBox.findFirst(moov, NodeBox.class, MovieExtendsBox.fourcc());
+        if (mvex != null) {
+            for (TrackExtendsBox box : NodeBox.findAll(mvex, TrackExtendsBox.class, TrackExtendsBox.fourcc()))
+                trex.put(box.getTrackId(), box);
+        }
+        findFirstFragment();
+    }
+
+    public static boolean isFragmented(MovieBox moov) {
+        return NodeBox.findFirst(moov, NodeBox.class, MovieExtendsBox.fourcc()) != null;
+    }
+
+    void addTrack(int trackId, FragmentedMP4DemuxerTrack track) {
+        tracks.put(trackId, track);
+    }
+
+    /**
+     * Segment index of the track
+     *
+     * @return The 'sidx' box describing the track or null if the file doesn't
+     *         have one
+     */
+    public SegmentIndexBox getSegmentIndex(int trackId) {
+        for (SegmentIndexBox box : sidx) {
+            if (box.reference_ID == trackId)
+                return box;
+        }
+        return null;
+    }
+
+    /**
+     * Default sample duration of the track from the movie extends box
+     *
+     * @return The duration or 0 if it's not known
+     */
+    public int getDefaultSampleDuration(int trackId) {
+        TrackExtendsBox box = trex.get(trackId);
+        return box == null ? 0 : box.getDefaultSampleDuration();
+    }
+
+    /**
+     * Offset of the last subsegment of the track that starts at or before the
+     * time
+     *
+     * @param time
+     *            Presentation time in the timescale of the segment index
+     * @return The offset or -1 if the segment index doesn't tell
+     */
+    public long findSubsegment(int trackId, long time) {
+        for (int s = 0; s < sidx.size(); s++) {
+            SegmentIndexBox box = sidx.get(s);
+            if (box.reference_ID != trackId)
+                continue;
+            if (time < box.earliest_presentation_time)
+                return -1;
+            long start = box.earliest_presentation_time;
+            long offset = sidxEnd.get(s) + box.first_offset;
+            for (int i = 0; i < box.reference_count; i++) {
+                Reference ref = box.references[i];
+                // References to other segment indexes are not followed
+                if (ref.reference_type)
+                    return -1;
+                if (time < start + ref.subsegment_duration)
+                    return offset;
+                start += ref.subsegment_duration;
+                offset += ref.referenced_size;
+            }
+            return -1;
+        }
+        return -1;
+    }
+
+    public synchronized boolean isDone() {
+        return done;
+    }
+
+    /**
+     * Continues indexing at the offset skipping the fragments in between. Does
+     * nothing if the fragment at the offset is already indexed.
+     *
+     * @param offset
+     *            Offset of a top level box
+     */
+    public synchronized void jumpTo(long offset) {
+        if (gapStart == -1 ? offset <= pos : offset <= gapStart || (offset >= jumpStart && offset <= pos))
+            return;
+        if (gapStart == -1)
+            gapStart = pos;
+        jumpStart = offset;
+        pos = offset;
+        done = false;
+        for (FragmentedMP4DemuxerTrack track : tracks.values(new FragmentedMP4DemuxerTrack[0]))
+            track.jumped();
+    }
+
+    /**
+     * Goes back to the fragments the index jumped over, what was indexed after
+     * the jump is dropped and will be indexed again
+     */
+    public synchronized void fillGap() {
+        if (gapStart == -1)
+            return;
+        for (FragmentedMP4DemuxerTrack track : tracks.values(new FragmentedMP4DemuxerTrack[0]))
+            track.gapFilled();
+        pos = gapStart;
+        gapStart = -1;
+        done = false;
+    }
+
+    /**
+     * Indexes the next movie fragment of the file
+     *
+     * @return false if there are no more fragments
+     * @throws IOException
+     */
+    public synchronized boolean indexNext() throws IOException {
+        while (!done) {
+            Atom atom = nextAtom();
+            if (atom == null)
+                break;
+            if (MovieFragmentBox.fourcc().equals(atom.getHeader().getFourcc())) {
+                MovieFragmentBox moof = (MovieFragmentBox) parseBox(atom);
+                addFragment(moof, atom.getOffset());
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Indexes all the remaining fragments of the file
+     *
+     * @throws IOException
+     */
+    public void indexAll() throws IOException {
+        fillGap();
+        while (indexNext())
+            ;
+    }
+
+    private void findFirstFragment() throws IOException {
+        while (!done) {
+            long off = pos;
+            Atom atom = nextAtom();
+            if (atom == null)
+                break;
+            String fourcc = atom.getHeader().getFourcc();
+            if (MovieFragmentBox.fourcc().equals(fourcc)) {
+                pos = off;
+                break;
+            } else if (SegmentIndexBox.fourcc().equals(fourcc)) {
+                SegmentIndexBox box = (SegmentIndexBox) parseBox(atom);
+                if (coversFile(box, atom)) {
+                    sidx.add(box);
+                    sidxEnd.add(atom.getOffset() + atom.getHeader().getSize());
+                }
+            }
+        }
+    }
+
+    /**
+     * Live and low latency files have a 'sidx' in front of every fragment that
+     * only describes this fragment
+     */
+    private boolean coversFile(SegmentIndexBox box, Atom atom) throws IOException {
+        if (box.reference_count > 1)
+            return true;
+        long end = atom.getOffset() + atom.getHeader().getSize() + box.first_offset;
+        for (int i = 0; i < box.reference_count; i++)
+            end += box.references[i].referenced_size;
+        return end >= input.size();
+    }
+
+    private Box parseBox(Atom atom) throws IOException {
+        Header header = atom.getHeader();
+        ByteBuffer body = NIOUtils.fetchAt(input, (int) header.getBodySize(), atom.getOffset() + header.headerSize());
+        return BoxUtil.parseBox(body, header, BoxFactory.getDefault());
+    }
+
+    private Atom nextAtom() throws IOException {
+        if (pos >= input.size()) {
+            done = true;
+            return null;
+        }
+        Header header = Header.read(NIOUtils.fetchAt(input, 16, pos));
+        if (header == null) {
+            done = true;
+            return null;
+        }
+        Atom atom = new Atom(header, pos);
+        pos += header.getSize();
+        return atom;
+    }
+
+    private void addFragment(MovieFragmentBox moof, long moofOff) {
+        long prevEnd = moofOff;
+        TrackFragmentBox[] trafs = moof.getTracks();
+        for (int i = 0; i < trafs.length; i++) {
+            TrackFragmentBox traf = trafs[i];
+            TrackFragmentHeaderBox tfhd = NodeBox.findFirst(traf, TrackFragmentHeaderBox.class,
+                    TrackFragmentHeaderBox.fourcc());
+            TrackFragmentBaseMediaDecodeTimeBox tfdt = NodeBox.findFirst(traf,
+                    TrackFragmentBaseMediaDecodeTimeBox.class, TrackFragmentBaseMediaDecodeTimeBox.fourcc());
+            if (tfhd == null)
+                continue;
+            FragmentedMP4DemuxerTrack track = tracks.get(tfhd.getTrackId());
+            TrackExtendsBox defaults = trex.get(tfhd.getTrackId());
+
+            long base;
+            if (tfhd.isBaseDataOffsetAvailable())
+                base = tfhd.getBaseDataOffset();
+            else if ((tfhd.getFlags() & DEFAULT_BASE_IS_MOOF) != 0 || i == 0)
+                base = moofOff;
+            else
+                base = prevEnd;
+
+            int defDuration = tfhd.isDefaultSampleDurationAvailable() ? tfhd.getDefaultSampleDuration()
+                    : (defaults == null ? 0 : defaults.getDefaultSampleDuration());
+            int defSize = tfhd.isDefaultSampleSizeAvailable() ? tfhd.getDefaultSampleSize()
+                    : (defaults == null ? 0 : defaults.getDefaultSampleBytes());
+            int defFlags = tfhd.isDefaultSampleFlagsAvailable() ? tfhd.getDefaultSampleFlags()
+                    : (defaults == null ? 0 : defaults.getDefaultSampleFlags());
+            int entry = tfhd.isSampleDescriptionIndexAvailable() ? tfhd.getSampleDescriptionIndex()
+                    : (defaults == null ? 1 : defaults.getDefaultSampleDescriptionIndex());
+
+            if (track != null)
+                track.startFragment(tfdt == null ? -1 : tfdt.getBaseMediaDecodeTime(), entry - 1);
+
+            long dataOff = base;
+            for (TrunBox trun : NodeBox.findAll(traf, TrunBox.class, TrunBox.fourcc())) {
+                if (trun.isDataOffsetAvailable())
+                    dataOff = base + trun.getDataOffset();
+                int count = (int) trun.getSampleCount();
+                int[] sizes = trun.getSampleSizes();
+                int[] durations = trun.getSampleDurations();
+                int[] flags = trun.getSamplesFlags();
+                int[] compOffsets = trun.getSampleCompositionOffsets();
+                for (int s = 0; s < count; s++) {
+                    int size = sizes != null ? sizes[s] : defSize;
+                    int sampleFlags = flags != null ? flags[s]
+                            : (s == 0 && trun.isFirstSampleFlagsAvailable() ? trun.getFirstSampleFlags() : defFlags);
+                    if (track != null)
+                        track.addSample(dataOff, size, durations != null ? durations[s] : defDuration,
+                                compOffsets != null ? compOffsets[s] : 0, (sampleFlags & SAMPLE_IS_NON_SYNC) == 0);
+                    dataOff += size;
+                }
+            }
+            prevEnd = dataOff;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package org.jcodec.containers.mp4.demuxer;
+
+import org.jcodec.containers.mp4.boxes.Box;
+import org.jcodec.containers.mp4.boxes.CompositionOffsetsBox;
+import org.jcodec.containers.mp4.boxes.NodeBox;
+import org.jcodec.containers.mp4.boxes.SampleToChunkBox.SampleToChunkEntry;
+import org.jcodec.containers.mp4.boxes.TimeToSampleBox.TimeToSampleEntry;
+import org.jcodec.containers.mp4.boxes.TrakBox;
+
+/**
+ * This class is part of JCodec ( www.jcodec.org ) This software is distributed
+ * under FreeBSD License
+ *
+ * Seek index of a regular MP4 track.
+ *
+ * Holds the first sample and the start time of every 'stts' run, the first
+ * sample and the first chunk of every 'stsc' run and the first sample of every
+ * 'ctts' run so that the position of any sample or time is found with a binary
+ * search instead of walking the tables from the beginning. The index only has
+ * an entry per run and is built from the parsed tables in a single pass.
+ *
+ * @author The JCodec project
+ *
+ */
+public class MP4SampleIndex {
+    private long[] sttsSample;
+    private long[] sttsPts;
+    private int[] sttsDuration;
+    private long sampleCount;
+    private long duration;
+
+    private long[] stscSample;
+    private int[] stscChunk;
+    private int[] stscCount;
+
+    private long[] cttsSample;
+
+    private MP4SampleIndex(int stts, int stsc, int ctts) {
+        this.sttsSample = new long[stts];
+        this.sttsPts = new long[stts];
+        this.sttsDuration = new int[stts];
+        this.stscSample = new long[stsc];
+        this.stscChunk = new int[stsc];
+        this.stscCount = new int[stsc];
+        this.cttsSample = new long[ctts];
+    }
+
+    public static MP4SampleIndex createMP4SampleIndex(AbstractMP4DemuxerTrack track) {
+        TimeToSampleEntry[] stts = track.timeToSamples;
+        SampleToChunkEntry[] stsc = track.sampleToChunks;
+        CompositionOffsetsBox ctts = NodeBox.findFirstPath(track.getBox(), CompositionOffsetsBox.class,
+                Box.path("mdia.minf.stbl.ctts"));
+        CompositionOffsetsBox.Entry[] compOffsets = ctts == null ? new CompositionOffsetsBox.Entry[0] : ctts
+                .getEntries();
+
+        MP4SampleIndex index = new MP4SampleIndex(stts.length, stsc.length, compOffsets.length);
+        for (int i = 0; i < stts.length; i++) {
+            index.sttsSample[i] = index.sampleCount;
+            index.sttsPts[i] = index.duration;
+            index.sttsDuration[i] = stts[i].getSampleDuration();
+            index.sampleCount += stts[i].getSampleCount();
+            index.duration += (long) stts[i].getSampleCount() * stts[i].getSampleDuration();
+        }
+        for (int i = 0; i < stsc.length; i++) {
+            index.stscChunk[i] = (int) stsc[i].getFirst() - 1;
+            index.stscCount[i] = stsc[i].getCount();
+            if (i > 0)
+                index.stscSample[i] = index.stscSample[i - 1] + (long) (index.stscChunk[i] - index.stscChunk[i - 1])
+                        * index.stscCount[i - 1];
+        }
+        for (int i = 1; i < compOffsets.length; i++)
+            index.cttsSample[i] = index.cttsSample[i - 1] + compOffsets[i - 1].getCount();
+        return index;
+    }
+
+    /**
+     * @return The 'stts' run the sample belongs to
+     */
+    public int sttsRun(long sample) {
+        return search(sttsSample, sample);
+    }
+
+    /**
+     * @return The 'stts' run the media time belongs to
+     */
+    public int sttsRunOfPts(long pts) {
+        return search(sttsPts, pts);
+    }
+
+    public long getRunSample(int sttsRun) {
+        return sttsSample[sttsRun];
+    }
+
+    public long getRunPts(int sttsRun) {
+        return sttsPts[sttsRun];
+    }
+
+    public int getRunDuration(int sttsRun) {
+        return sttsDuration[sttsRun];
+    }
+
+    /**
+     * @return The sample that is displayed at the media time
+     */
+    public long pts2Sample(long pts) {
+        int run = sttsRunOfPts(pts);
+        return sttsSample[run] + (pts - sttsPts[run]) / sttsDuration[run];
+    }
+
+    /**
+     * @return The 'stsc' run the sample belongs to
+     */
+    public int stscRun(long sample) {
+        return search(stscSample, sample);
+    }
+
+    /**
+     * @return The chunk the sample belongs to, 0 based
+     */
+    public int chunk(int stscRun, long sample) {
+        return stscChunk[stscRun] + (int) ((sample - stscSample[stscRun]) / stscCount[stscRun]);
+    }
+
+    /**
+     * @return The first sample of the chunk
+     */
+    public long chunkSample(int stscRun, int chunk) {
+        return stscSample[stscRun] + (long) (chunk - stscChunk[stscRun]) * stscCount[stscRun];
+    }
+
+    /**
+     * @return The 'ctts' run the sample belongs to
+     */
+    public int cttsRun(long sample) {
+        return search(cttsSample, sample);
+    }
+
+    public long getCttsRunSample(int cttsRun) {
+        return cttsSample[cttsRun];
+    }
+
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+    public long getDuration() {
+        return duration;
+    }
+
+    /**
+     * Last entry of the sorted array that is not greater then the value, runs
+     * with no samples share the value with the next run and are skipped
+     */
+    private static int search(long[] arr, long val) {
+        int lo = 0, hi = arr.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (arr[mid] <= val)
+                lo = mid;
+            else
+                hi = mid - 1;
+        }
+        return lo;
+    }
+
+    /**
+     * @return The index of the first sample number in the sorted table ( like
+     *         'stss' ) that is not less then the sample number
+     */
+    static int lowerBound(int[] samples, long sampleNo) {
+        int lo = 0, hi = samples.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (samples[mid] < sampleNo)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+}
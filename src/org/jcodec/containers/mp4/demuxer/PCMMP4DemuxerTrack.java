@@ -66,10 +66,7 @@ public class PCMMP4DemuxerTrack extends AbstractMP4DemuxerTrack {
 
     @Override
     public Packet nextFrame() throws IOException {
-        int frameSize = getFrameSize();
-        int chSize = sampleToChunks[stscInd].getCount() * frameSize - posShift;
-
-        return getNextFrame(ByteBuffer.allocate(chSize));
+        return getNextFrame(null);
     }
 
     @Override
@@ -119,13 +116,7 @@ public class PCMMP4DemuxerTrack extends AbstractMP4DemuxerTrack {
 
     @Override
     protected void seekPointer(long frameNo) {
-        for (stcoInd = 0, stscInd = 0, curFrame = 0;;) {
-            long nextFrame = curFrame + sampleToChunks[stscInd].getCount();
-            if (nextFrame > frameNo)
-                break;
-            curFrame = nextFrame;
-            nextChunk();
-        }
+        curFrame = seekChunk(frameNo);
         posShift = (int) ((frameNo - curFrame) * getFrameSize());
         curFrame = frameNo;
     }
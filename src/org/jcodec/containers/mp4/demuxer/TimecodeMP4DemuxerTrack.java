@@ -88,19 +88,15 @@ public class TimecodeMP4DemuxerTrack {
         if (sampleCache != null)
             return sampleCache[sample];
         else {
-            synchronized (input) {
-                int stscInd, stscSubInd;
-                for (stscInd = 0, stscSubInd = sample; stscInd < sampleToChunks.length
-                        && stscSubInd >= sampleToChunks[stscInd].getCount(); stscSubInd -= sampleToChunks[stscInd]
-                        .getCount(), stscInd++)
-                    ;
-                long offset = chunkOffsets[stscInd]
-                        + (Math.min(stscSubInd, sampleToChunks[stscInd].getCount() - 1) << 2);
-                if (input.position() != offset)
-                    input.setPosition(offset);
-                ByteBuffer buf = NIOUtils.fetchFromChannel(input, 4);
-                return buf.getInt();
-            }
+            int stscInd, stscSubInd;
+            for (stscInd = 0, stscSubInd = sample; stscInd < sampleToChunks.length
+                    && stscSubInd >= sampleToChunks[stscInd].getCount(); stscSubInd -= sampleToChunks[stscInd]
+                    .getCount(), stscInd++)
+                ;
+            long offset = chunkOffsets[stscInd]
+                    + (Math.min(stscSubInd, sampleToChunks[stscInd].getCount() - 1) << 2);
+            ByteBuffer buf = NIOUtils.fetchAt(input, 4, offset);
+            return buf.getInt();
         }
     }
 
@@ -109,22 +105,19 @@ public class TimecodeMP4DemuxerTrack {
     }
 
     private void cacheSamples(SampleToChunkEntry[] sampleToChunks, long[] chunkOffsets) throws IOException {
-        synchronized (input) {
-            int stscInd = 0;
-            IntArrayList ss = IntArrayList.createIntArrayList();
-            for (int chunkNo = 0; chunkNo < chunkOffsets.length; chunkNo++) {
-                int nSamples = sampleToChunks[stscInd].getCount();
-                if (stscInd < sampleToChunks.length - 1 && chunkNo + 1 >= sampleToChunks[stscInd + 1].getFirst())
-                    stscInd++;
-                long offset = chunkOffsets[chunkNo];
-                input.setPosition(offset);
-                ByteBuffer buf = NIOUtils.fetchFromChannel(input, nSamples * 4);
-                for (int i = 0; i < nSamples; i++) {
-                    ss.add(buf.getInt());
-                }
+        int stscInd = 0;
+        IntArrayList ss = IntArrayList.createIntArrayList();
+        for (int chunkNo = 0; chunkNo < chunkOffsets.length; chunkNo++) {
+            int nSamples = sampleToChunks[stscInd].getCount();
+            if (stscInd < sampleToChunks.length - 1 && chunkNo + 1 >= sampleToChunks[stscInd + 1].getFirst())
+                stscInd++;
+            long offset = chunkOffsets[chunkNo];
+            ByteBuffer buf = NIOUtils.fetchAt(input, nSamples * 4, offset);
+            for (int i = 0; i < nSamples; i++) {
+                ss.add(buf.getInt());
             }
-            sampleCache = ss.toArray();
         }
+        sampleCache = ss.toArray();
     }
 
     /**
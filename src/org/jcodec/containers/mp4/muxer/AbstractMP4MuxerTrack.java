@@ -10,6 +10,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import org.jcodec.api.UnhandledStateException;
+import org.jcodec.common.IntArrayList;
 import org.jcodec.common.MuxerTrack;
 import org.jcodec.common.io.SeekableByteChannel;
 import org.jcodec.common.model.Rational;
@@ -60,7 +61,9 @@ public abstract class AbstractMP4MuxerTrack implements MuxerTrack {
     protected long chunkDuration;
     protected List<ByteBuffer> curChunk;
 
-    protected List<SampleToChunkEntry> samplesInChunks;
+    // Runs of chunks with the same number of samples, stored as ( first chunk,
+    // samples per chunk, sample entry ) triplets
+    private IntArrayList samplesInChunks;
     protected int samplesInLastChunk = -1;
     protected int chunkNo = 0;
 
@@ -74,7 +77,7 @@ public abstract class AbstractMP4MuxerTrack implements MuxerTrack {
 
     public AbstractMP4MuxerTrack(int trackId, MP4TrackType type) {
         this.curChunk = new ArrayList<ByteBuffer>();
-        this.samplesInChunks = new ArrayList<SampleToChunkEntry>();
+        this.samplesInChunks = IntArrayList.createIntArrayList();
         this.sampleEntries = new ArrayList<SampleEntry>();
 
         this.trackId = trackId;
@@ -139,6 +142,29 @@ public abstract class AbstractMP4MuxerTrack implements MuxerTrack {
         }
     }
 
+    /**
+     * Accounts the chunk that was just written, a new sample to chunk run is
+     * started if the number of samples differs from the previous chunk
+     */
+    protected void chunkWritten(int samples, int entryNo) {
+        if (samplesInLastChunk == -1 || samplesInLastChunk != samples) {
+            samplesInChunks.add(chunkNo + 1);
+            samplesInChunks.add(samples);
+            samplesInChunks.add(entryNo);
+        }
+        samplesInLastChunk = samples;
+        chunkNo++;
+    }
+
+    protected SampleToChunkEntry[] getSamplesInChunks() {
+        SampleToChunkEntry[] result = new SampleToChunkEntry[samplesInChunks.size() / 3];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = new SampleToChunkEntry(samplesInChunks.get(3 * i), samplesInChunks.get(3 * i + 1),
+                    samplesInChunks.get(3 * i + 2));
+        }
+        return result;
+    }
+
     public AbstractMP4MuxerTrack addSampleEntry(SampleEntry se) {
         checkState(!finished, "The muxer track has finished muxing");
         sampleEntries.add(se);
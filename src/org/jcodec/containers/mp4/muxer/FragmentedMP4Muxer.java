@@ -0,0 +1,246 @@
+package org.jcodec.containers.mp4.muxer;
+
+import static org.jcodec.common.Preconditions.checkArgument;
+import static org.jcodec.common.Preconditions.checkState;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.jcodec.common.AudioCodecMeta;
+import org.jcodec.common.Codec;
+import org.jcodec.common.Muxer;
+import org.jcodec.common.MuxerTrack;
+import org.jcodec.common.VideoCodecMeta;
+import org.jcodec.common.model.Packet;
+import org.jcodec.common.model.Rational;
+import org.jcodec.containers.mp4.Brand;
+import org.jcodec.containers.mp4.MP4TrackType;
+import org.jcodec.containers.mp4.MP4Util;
+import org.jcodec.containers.mp4.boxes.FileTypeBox;
+import org.jcodec.containers.mp4.boxes.Header;
+import org.jcodec.containers.mp4.boxes.MovieBox;
+import org.jcodec.containers.mp4.boxes.MovieExtendsBox;
+import org.jcodec.containers.mp4.boxes.MovieFragmentBox;
+import org.jcodec.containers.mp4.boxes.MovieFragmentHeaderBox;
+import org.jcodec.containers.mp4.boxes.MovieHeaderBox;
+import org.jcodec.containers.mp4.boxes.NodeBox;
+import org.jcodec.containers.mp4.boxes.SegmentIndexBox;
+import org.jcodec.containers.mp4.boxes.SegmentIndexBox.Reference;
+import org.jcodec.containers.mp4.boxes.TrackFragmentBox;
+import org.jcodec.containers.mp4.boxes.TrunBox;
+
+/**
+ * This class is part of JCodec ( www.jcodec.org ) This software is distributed
+ * under FreeBSD License
+ *
+ * Creates fragmented MP4 file out of a set of samples
+ *
+ * The movie box with the track extends boxes ( 'trex' ) is written before the
+ * first fragment, then every fragment is written as a 'moof' + 'mdat' pair as
+ * soon as it's complete. A fragment is cut at the first key frame of the
+ * reference track ( video track if there is one ) after the fragment duration
+ * was reached, with zero fragment duration every key frame starts a new
+ * fragment. Optionally every fragment is preceded by a segment index box (
+ * 'sidx' ) referencing it.
+ *
+ * The output is written sequentially so it can be a pipe or a socket, only the
+ * samples of the current fragment are kept in memory.
+ *
+ * @author The JCodec project
+ *
+ */
+public class FragmentedMP4Muxer implements Muxer {
+    private List<FragmentedMP4MuxerTrack> tracks;
+    private WritableByteChannel out;
+
+    private int nextTrackId = 1;
+    private Rational fragmentDuration;
+    private boolean segmentIndex;
+    private boolean headerWritten;
+    private int sequenceNumber;
+
+    public static FragmentedMP4Muxer createFragmentedMP4Muxer(WritableByteChannel output) throws IOException {
+        return new FragmentedMP4Muxer(output, Brand.FMP4.getFileTypeBox());
+    }
+
+    public FragmentedMP4Muxer(WritableByteChannel output, FileTypeBox ftyp) throws IOException {
+        this.tracks = new ArrayList<FragmentedMP4MuxerTrack>();
+        this.out = output;
+        this.fragmentDuration = new Rational(2, 1);
+
+        ByteBuffer buf = ByteBuffer.allocate(1024);
+        ftyp.write(buf);
+        buf.flip();
+        write(buf);
+    }
+
+    /**
+     * Sets minimal duration of a fragment
+     *
+     * @param seconds
+     *            Duration in seconds, zero to start a fragment at every key
+     *            frame
+     */
+    public void setFragmentDuration(Rational seconds) {
+        this.fragmentDuration = seconds;
+    }
+
+    /**
+     * Enables the segment index box ( 'sidx' ) in front of every fragment
+     */
+    public void setSegmentIndex(boolean segmentIndex) {
+        this.segmentIndex = segmentIndex;
+    }
+
+    public FragmentedMP4MuxerTrack addTrack(MP4TrackType type, Codec codec) {
+        checkState(!headerWritten, "Can not add a track after the movie header was written");
+        FragmentedMP4MuxerTrack track = new FragmentedMP4MuxerTrack(this, nextTrackId++, type, codec);
+        tracks.add(track);
+        return track;
+    }
+
+    public List<FragmentedMP4MuxerTrack> getTracks() {
+        return Collections.unmodifiableList(tracks);
+    }
+
+    @Override
+    public MuxerTrack addVideoTrack(Codec codec, VideoCodecMeta meta) {
+        checkArgument(meta != null || codec == Codec.H264,
+                "VideoCodecMeta is required upfront for all codecs but H.264");
+        FragmentedMP4MuxerTrack track = addTrack(MP4TrackType.VIDEO, codec);
+        if (meta != null)
+            track.addVideoSampleEntry(meta);
+        return track;
+    }
+
+    @Override
+    public MuxerTrack addAudioTrack(Codec codec, AudioCodecMeta meta) {
+        checkArgument(codec != Codec.PCM, "PCM audio is not supported in fragmented MP4");
+        FragmentedMP4MuxerTrack track = addTrack(MP4TrackType.SOUND, codec);
+        track.addAudioSampleEntry(meta.getFormat());
+        return track;
+    }
+
+    /**
+     * Called by a track before the sample is added to the current fragment,
+     * the fragment is written if the sample starts a new one
+     */
+    void sampleAdded(FragmentedMP4MuxerTrack track, Packet pkt) throws IOException {
+        if (track != getReferenceTrack() || track.getFragmentSamples() == 0 || !pkt.isKeyFrame())
+            return;
+        if (track.getFragmentDuration() * fragmentDuration.getDen() >= (long) fragmentDuration.getNum()
+                * track.getTimescale())
+            writeFragment();
+    }
+
+    @Override
+    public void finish() throws IOException {
+        checkState(tracks.size() != 0, "Can not save header with 0 tracks.");
+        writeFragment();
+        if (!headerWritten)
+            writeHeader();
+    }
+
+    private FragmentedMP4MuxerTrack getReferenceTrack() {
+        for (FragmentedMP4MuxerTrack track : tracks) {
+            if (track.isVideo())
+                return track;
+        }
+        return tracks.get(0);
+    }
+
+    private void writeHeader() throws IOException {
+        FragmentedMP4MuxerTrack ref = getReferenceTrack();
+        MovieBox movie = MovieBox.createMovieBox();
+        MovieHeaderBox mvhd = MovieHeaderBox.createMovieHeaderBox(ref.getTimescale(), 0, 1.0f, 1.0f,
+                new Date().getTime(), new Date().getTime(),
+                new int[] { 0x10000, 0, 0, 0, 0x10000, 0, 0, 0, 0x40000000 }, nextTrackId);
+        movie.addFirst(mvhd);
+
+        MovieExtendsBox mvex = MovieExtendsBox.createMovieExtendsBox();
+        for (FragmentedMP4MuxerTrack track : tracks) {
+            movie.add(track.header(mvhd));
+            mvex.add(track.trackExtends());
+        }
+        movie.add(mvex);
+
+        ByteBuffer buf = ByteBuffer.allocate(MP4Util.estimateMoovBoxSize(movie) * 4);
+        movie.write(buf);
+        buf.flip();
+        write(buf);
+        headerWritten = true;
+    }
+
+    private void writeFragment() throws IOException {
+        List<FragmentedMP4MuxerTrack> fragmentTracks = new ArrayList<FragmentedMP4MuxerTrack>();
+        for (FragmentedMP4MuxerTrack track : tracks) {
+            if (track.getFragmentSamples() > 0)
+                fragmentTracks.add(track);
+        }
+        if (fragmentTracks.isEmpty())
+            return;
+        if (!headerWritten)
+            writeHeader();
+
+        MovieFragmentBox moof = MovieFragmentBox.createMovieFragmentBox();
+        MovieFragmentHeaderBox mfhd = MovieFragmentHeaderBox.createMovieFragmentHeaderBox();
+        mfhd.setSequenceNumber(++sequenceNumber);
+        moof.add(mfhd);
+        long mdatSize = 8;
+        for (FragmentedMP4MuxerTrack track : fragmentTracks) {
+            moof.add(track.fragment(0));
+            mdatSize += track.getFragmentDataSize();
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate(moof.estimateSize() + 128);
+        moof.write(buf);
+        int moofSize = buf.position();
+
+        // The data offsets don't change the size of the 'moof' box
+        TrackFragmentBox[] trafs = moof.getTracks();
+        long dataOffset = moofSize + 8;
+        for (int i = 0; i < trafs.length; i++) {
+            TrunBox trun = NodeBox.findFirst(trafs[i], TrunBox.class, TrunBox.fourcc());
+            trun.setDataOffset((int) dataOffset);
+            dataOffset += fragmentTracks.get(i).getFragmentDataSize();
+        }
+        buf.clear();
+
+        if (segmentIndex)
+            createSegmentIndex(moofSize + mdatSize).write(buf);
+        moof.write(buf);
+        Header.createHeader("mdat", mdatSize).write(buf);
+        buf.flip();
+        write(buf);
+
+        for (FragmentedMP4MuxerTrack track : fragmentTracks)
+            track.writeFragment(out);
+    }
+
+    private SegmentIndexBox createSegmentIndex(long size) {
+        FragmentedMP4MuxerTrack ref = getReferenceTrack();
+        SegmentIndexBox sidx = SegmentIndexBox.createSegmentIndexBox();
+        sidx.setVersion((byte) 1);
+        sidx.reference_ID = ref.getTrackId();
+        sidx.timescale = ref.getTimescale();
+        sidx.earliest_presentation_time = ref.getEarliestPts();
+        sidx.reference_count = 1;
+        Reference reference = new Reference();
+        reference.referenced_size = size;
+        reference.subsegment_duration = ref.getFragmentDuration();
+        reference.starts_with_SAP = ref.isFragmentKey();
+        reference.SAP_type = reference.starts_with_SAP ? 1 : 0;
+        sidx.references = new Reference[] { reference };
+        return sidx;
+    }
+
+    private void write(ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining())
+            out.write(buf);
+    }
+}
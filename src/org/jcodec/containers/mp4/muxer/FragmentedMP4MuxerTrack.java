@@ -0,0 +1,176 @@
+package org.jcodec.containers.mp4.muxer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+import org.jcodec.common.Codec;
+import org.jcodec.common.IntArrayList;
+import org.jcodec.common.model.Packet;
+import org.jcodec.containers.mp4.MP4TrackType;
+import org.jcodec.containers.mp4.boxes.Box;
+import org.jcodec.containers.mp4.boxes.MovieHeaderBox;
+import org.jcodec.containers.mp4.boxes.TrackExtendsBox;
+import org.jcodec.containers.mp4.boxes.TrackFragmentBaseMediaDecodeTimeBox;
+import org.jcodec.containers.mp4.boxes.TrackFragmentBox;
+import org.jcodec.containers.mp4.boxes.TrackFragmentHeaderBox;
+import org.jcodec.containers.mp4.boxes.TrunBox;
+
+/**
+ * This class is part of JCodec ( www.jcodec.org ) This software is distributed
+ * under FreeBSD License
+ *
+ * Track of a fragmented MP4 file.
+ *
+ * Only the samples of the current fragment are kept, their data is copied
+ * into a buffer that is reused by all the fragments of the track so the memory
+ * used doesn't depend on the length of the movie.
+ *
+ * @author The JCodec project
+ *
+ */
+public class FragmentedMP4MuxerTrack extends CodecMP4MuxerTrack {
+    private static final int SAMPLE_DEPENDS_ON_NOTHING = 0x02000000;
+    private static final int SAMPLE_DEPENDS_ON_OTHERS = 0x01000000;
+    private static final int SAMPLE_IS_NON_SYNC = 0x10000;
+
+    private FragmentedMP4Muxer muxer;
+
+    private ByteBuffer data;
+    private IntArrayList sizes;
+    private IntArrayList durations;
+    private IntArrayList flags;
+    private IntArrayList compOffsets;
+    private boolean hasCompOffsets;
+
+    private long fragmentDts;
+    private long nextDts;
+    private long earliestPts;
+
+    public FragmentedMP4MuxerTrack(FragmentedMP4Muxer muxer, int trackId, MP4TrackType type, Codec codec) {
+        super(trackId, type, codec);
+        this.muxer = muxer;
+        this.data = ByteBuffer.allocate(1 << 16);
+        this.sizes = IntArrayList.createIntArrayList();
+        this.durations = IntArrayList.createIntArrayList();
+        this.flags = IntArrayList.createIntArrayList();
+        this.compOffsets = IntArrayList.createIntArrayList();
+    }
+
+    @Override
+    protected void addSample(Packet pkt, int entryNo) throws IOException {
+        muxer.sampleAdded(this, pkt);
+
+        ByteBuffer sample = pkt.getData().duplicate();
+        if (data.remaining() < sample.remaining()) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(data.capacity() << 1, data.position() + sample.remaining()));
+            data.flip();
+            grown.put(data);
+            data = grown;
+        }
+        int compOffset = (int) (pkt.getPts() - nextDts);
+        if (sizes.size() == 0 || pkt.getPts() < earliestPts)
+            earliestPts = pkt.getPts();
+
+        sizes.add(sample.remaining());
+        data.put(sample);
+        durations.add((int) pkt.getDuration());
+        flags.add(pkt.isKeyFrame() ? SAMPLE_DEPENDS_ON_NOTHING : SAMPLE_DEPENDS_ON_OTHERS | SAMPLE_IS_NON_SYNC);
+        compOffsets.add(compOffset);
+        hasCompOffsets |= compOffset != 0;
+        nextDts += pkt.getDuration();
+    }
+
+    /**
+     * Creates the track box of the movie header, the sample tables of this box
+     * are empty since all the samples are stored in the fragments
+     */
+    Box header(MovieHeaderBox mvhd) throws IOException {
+        Box trak = finish(mvhd);
+        finished = false;
+        return trak;
+    }
+
+    TrackExtendsBox trackExtends() {
+        TrackExtendsBox trex = TrackExtendsBox.createTrackExtendsBox();
+        trex.setTrackId(trackId);
+        trex.setDefaultSampleDescriptionIndex(1);
+        return trex;
+    }
+
+    int getFragmentSamples() {
+        return sizes.size();
+    }
+
+    boolean isFragmentKey() {
+        return flags.size() > 0 && (flags.get(0) & SAMPLE_IS_NON_SYNC) == 0;
+    }
+
+    /**
+     * @return Duration of the current fragment in the track timescale
+     */
+    long getFragmentDuration() {
+        return nextDts - fragmentDts;
+    }
+
+    long getFragmentDts() {
+        return fragmentDts;
+    }
+
+    long getEarliestPts() {
+        return earliestPts;
+    }
+
+    int getFragmentDataSize() {
+        return data.position();
+    }
+
+    /**
+     * Describes the samples of the current fragment
+     *
+     * @param dataOffset
+     *            Offset of the sample data relative to the beginning of the
+     *            'moof' box
+     */
+    TrackFragmentBox fragment(long dataOffset) {
+        TrackFragmentBox traf = TrackFragmentBox.createTrackFragmentBox();
+        TrackFragmentHeaderBox tfhd = TrackFragmentHeaderBox.create(trackId).create();
+        tfhd.setFlags(TrackFragmentHeaderBox.FLAG_DEFAULT_BASE_IS_MOOF);
+        traf.add(tfhd);
+        TrackFragmentBaseMediaDecodeTimeBox tfdt = TrackFragmentBaseMediaDecodeTimeBox
+                .createTrackFragmentBaseMediaDecodeTimeBox(fragmentDts);
+        tfdt.setVersion((byte) 1);
+        traf.add(tfdt);
+
+        TrunBox.Factory trun = TrunBox.create(sizes.size()).dataOffset(dataOffset)
+                .sampleDuration(durations.toArray()).sampleSize(sizes.toArray()).sampleFlags(flags.toArray());
+        if (hasCompOffsets)
+            trun.sampleCompositionOffset(compOffsets.toArray());
+        TrunBox box = trun.create();
+        // Signed composition offsets, no edit list is needed for the B-frames
+        box.setVersion((byte) 1);
+        traf.add(box);
+        return traf;
+    }
+
+    /**
+     * Writes the sample data of the current fragment and starts the next one
+     */
+    void writeFragment(WritableByteChannel out) throws IOException {
+        data.flip();
+        while (data.hasRemaining())
+            out.write(data);
+        data.clear();
+        sizes.clear();
+        durations.clear();
+        flags.clear();
+        compOffsets.clear();
+        hasCompOffsets = false;
+        fragmentDts = nextDts;
+    }
+
+    @Override
+    public long getTrackTotalDuration() {
+        return nextDts;
+    }
+}
@@ -33,7 +33,6 @@ import org.jcodec.containers.mp4.boxes.SampleDescriptionBox;
 import org.jcodec.containers.mp4.boxes.SampleEntry;
 import org.jcodec.containers.mp4.boxes.SampleSizesBox;
 import org.jcodec.containers.mp4.boxes.SampleToChunkBox;
-import org.jcodec.containers.mp4.boxes.SampleToChunkBox.SampleToChunkEntry;
 import org.jcodec.containers.mp4.boxes.SyncSamplesBox;
 import org.jcodec.containers.mp4.boxes.TimeToSampleBox;
 import org.jcodec.containers.mp4.boxes.TimeToSampleBox.TimeToSampleEntry;
@@ -49,15 +48,19 @@ import org.jcodec.containers.mp4.boxes.TrakBox;
  */
 public class MP4MuxerTrack extends AbstractMP4MuxerTrack {
 
-    private List<TimeToSampleEntry> sampleDurations;
+    // Runs of samples with the same duration, ( count, duration ) pairs
+    private IntArrayList sampleDurations;
     private long sameDurCount = 0;
     private long curDuration = -1;
 
     private LongArrayList chunkOffsets;
     private IntArrayList sampleSizes;
+    // Not stored while all the samples are sync samples
     private IntArrayList iframes;
 
-    private List<LongEntry> compositionOffsets;
+    // Runs of samples with the same composition offset
+    private IntArrayList compositionCounts;
+    private LongArrayList compositionOffsets;
     private long lastCompositionOffset = 0;
     private long lastCompositionSamples = 0;
     private long ptsEstimate = 0;
@@ -70,11 +73,12 @@ public class MP4MuxerTrack extends AbstractMP4MuxerTrack {
     private TimecodeMP4MuxerTrack timecodeTrack;
     public MP4MuxerTrack(int trackId, MP4TrackType type) {
         super(trackId, type);
-        this.sampleDurations = new ArrayList<TimeToSampleEntry>();
+        this.sampleDurations = IntArrayList.createIntArrayList();
         this.chunkOffsets = LongArrayList.createLongArrayList();
         this.sampleSizes = IntArrayList.createIntArrayList();
         this.iframes = IntArrayList.createIntArrayList();
-        this.compositionOffsets = new ArrayList<LongEntry>();
+        this.compositionCounts = IntArrayList.createIntArrayList();
+        this.compositionOffsets = LongArrayList.createLongArrayList();
 
         setTgtChunkDuration(new Rational(1, 1), Unit.FRAME);
     }
@@ -97,12 +101,22 @@ public class MP4MuxerTrack extends AbstractMP4MuxerTrack {
             pkt.setPts((pkt.getPts() * _timescale) / pkt.getTimescale());
             pkt.setDuration((pkt.getPts() * _timescale) / pkt.getDuration());
         }
-        
+
+        addSample(pkt, entryNo);
+    }
+
+    /**
+     * Stores the sample into the track, timestamps of the packet are in the
+     * track timescale
+     */
+    protected void addSample(Packet pkt, int entryNo) throws IOException {
         if(type == MP4TrackType.VIDEO) {
             long compositionOffset = pkt.getPts() - ptsEstimate;
             if (compositionOffset != lastCompositionOffset) {
-                if (lastCompositionSamples > 0)
-                    compositionOffsets.add(new LongEntry(lastCompositionSamples, lastCompositionOffset));
+                if (lastCompositionSamples > 0) {
+                    compositionCounts.add(checkedCast(lastCompositionSamples));
+                    compositionOffsets.add(lastCompositionOffset);
+                }
                 lastCompositionOffset = compositionOffset;
                 lastCompositionSamples = 0;
             }
@@ -117,16 +131,20 @@ public class MP4MuxerTrack extends AbstractMP4MuxerTrack {
 
         curChunk.add(pkt.getData());
 
-        if (pkt.isKeyFrame())
-            iframes.add(curFrame + 1);
-        else
+        if (!pkt.isKeyFrame() && allIframes) {
+            for (int i = 1; i <= curFrame; i++)
+                iframes.add(i);
             allIframes = false;
+        } else if (pkt.isKeyFrame() && !allIframes) {
+            iframes.add(curFrame + 1);
+        }
 
         curFrame++;
 
         chunkDuration += pkt.getDuration();
         if (curDuration != -1 && pkt.getDuration() != curDuration) {
-            sampleDurations.add(new TimeToSampleEntry((int) sameDurCount, (int) curDuration));
+            sampleDurations.add((int) sameDurCount);
+            sampleDurations.add((int) curDuration);
             sameDurCount = 0;
         }
         curDuration = pkt.getDuration();
@@ -166,11 +184,7 @@ public class MP4MuxerTrack extends AbstractMP4MuxerTrack {
             out.write(bs);
         }
 
-        if (samplesInLastChunk == -1 || samplesInLastChunk != curChunk.size()) {
-            samplesInChunks.add(new SampleToChunkEntry(chunkNo + 1, curChunk.size(), entryNo));
-        }
-        samplesInLastChunk = curChunk.size();
-        chunkNo++;
+        chunkWritten(curChunk.size(), entryNo);
 
         chunkDuration = 0;
         curChunk.clear();
@@ -183,7 +197,8 @@ public class MP4MuxerTrack extends AbstractMP4MuxerTrack {
         outChunk(lastEntry);
 
         if (sameDurCount > 0) {
-            sampleDurations.add(new TimeToSampleEntry((int) sameDurCount, (int) curDuration));
+            sampleDurations.add((int) sameDurCount);
+            sampleDurations.add((int) curDuration);
         }
         finished = true;
 
@@ -219,9 +234,9 @@ public class MP4MuxerTrack extends AbstractMP4MuxerTrack {
         putName(trak);
 
         stbl.add(SampleDescriptionBox.createSampleDescriptionBox(sampleEntries.toArray(new SampleEntry[0])));
-        stbl.add(SampleToChunkBox.createSampleToChunkBox(samplesInChunks.toArray(new SampleToChunkEntry[0])));
+        stbl.add(SampleToChunkBox.createSampleToChunkBox(getSamplesInChunks()));
         stbl.add(SampleSizesBox.createSampleSizesBox2(sampleSizes.toArray()));
-        stbl.add(TimeToSampleBox.createTimeToSampleBox(sampleDurations.toArray(new TimeToSampleEntry[] {})));
+        stbl.add(TimeToSampleBox.createTimeToSampleBox(getSampleDurations()));
         stbl.add(ChunkOffsets64Box.createChunkOffsets64Box(chunkOffsets.toArray()));
         if (!allIframes && iframes.size() > 0)
             stbl.add(SyncSamplesBox.createSyncSamplesBox(iframes.toArray()));
@@ -229,33 +244,39 @@ public class MP4MuxerTrack extends AbstractMP4MuxerTrack {
         return trak;
     }
 
+    private TimeToSampleEntry[] getSampleDurations() {
+        TimeToSampleEntry[] result = new TimeToSampleEntry[sampleDurations.size() >> 1];
+        for (int i = 0; i < result.length; i++)
+            result[i] = new TimeToSampleEntry(sampleDurations.get(2 * i), sampleDurations.get(2 * i + 1));
+        return result;
+    }
+
     private void putCompositionOffsets(NodeBox stbl) {
         if (compositionOffsets.size() > 0) {
-            compositionOffsets.add(new LongEntry(lastCompositionSamples, lastCompositionOffset));
+            compositionCounts.add(checkedCast(lastCompositionSamples));
+            compositionOffsets.add(lastCompositionOffset);
 
-            long min = minLongOffset(compositionOffsets);
-            if (min > 0) {
-                for (LongEntry entry : compositionOffsets) {
-                    entry.offset -= min;
-                }
-            }
+            long min = Long.MAX_VALUE;
+            for (int i = 0; i < compositionOffsets.size(); i++)
+                min = Math.min(min, compositionOffsets.get(i));
+            if (min < 0)
+                min = 0;
 
-            LongEntry first = compositionOffsets.get(0);
-            if (first.getOffset() > 0) {
+            long first = compositionOffsets.get(0) - min;
+            if (first > 0) {
                 if (edits == null) {
                     edits = new ArrayList<Edit>();
-                    edits.add(new Edit(trackTotalDuration, first.getOffset(), 1.0f));
+                    edits.add(new Edit(trackTotalDuration, first, 1.0f));
                 } else {
                     for (Edit edit : edits) {
-                        edit.setMediaTime(edit.getMediaTime() + first.getOffset());
+                        edit.setMediaTime(edit.getMediaTime() + first);
                     }
                 }
             }
             
             Entry[] intEntries = new Entry[compositionOffsets.size()];
-            for (int i = 0; i < compositionOffsets.size(); i++) {
-                LongEntry longEntry = compositionOffsets.get(i);
-                intEntries[i] = new Entry(checkedCast(longEntry.count), checkedCast(longEntry.offset));
+            for (int i = 0; i < intEntries.length; i++) {
+                intEntries[i] = new Entry(compositionCounts.get(i), checkedCast(compositionOffsets.get(i) - min));
             }
 
             stbl.add(CompositionOffsetsBox.createCompositionOffsetsBox(intEntries));
@@ -20,7 +20,6 @@ import org.jcodec.containers.mp4.boxes.SampleDescriptionBox;
 import org.jcodec.containers.mp4.boxes.SampleEntry;
 import org.jcodec.containers.mp4.boxes.SampleSizesBox;
 import org.jcodec.containers.mp4.boxes.SampleToChunkBox;
-import org.jcodec.containers.mp4.boxes.SampleToChunkBox.SampleToChunkEntry;
 import org.jcodec.containers.mp4.boxes.TimeToSampleBox;
 import org.jcodec.containers.mp4.boxes.TimeToSampleBox.TimeToSampleEntry;
 import org.jcodec.containers.mp4.boxes.TrackHeaderBox;
@@ -99,12 +98,7 @@ public class PCMMP4MuxerTrack extends AbstractMP4MuxerTrack {
         }
         curChunk.clear();
 
-        if (samplesInLastChunk == -1 || framesInCurChunk != samplesInLastChunk) {
-            samplesInChunks.add(new SampleToChunkEntry(chunkNo + 1, framesInCurChunk, 1));
-        }
-        samplesInLastChunk = framesInCurChunk;
-
-        chunkNo++;
+        chunkWritten(framesInCurChunk, 1);
 
         framesInCurChunk = 0;
         chunkDuration = 0;
@@ -150,7 +144,7 @@ public class PCMMP4MuxerTrack extends AbstractMP4MuxerTrack {
         putName(trak);
 
         stbl.add(SampleDescriptionBox.createSampleDescriptionBox(sampleEntries.toArray(new SampleEntry[0])));
-        stbl.add(SampleToChunkBox.createSampleToChunkBox(samplesInChunks.toArray(new SampleToChunkEntry[0])));
+        stbl.add(SampleToChunkBox.createSampleToChunkBox(getSamplesInChunks()));
         stbl.add(SampleSizesBox.createSampleSizesBox(frameSize, totalFrames));
         stbl.add(TimeToSampleBox
                 .createTimeToSampleBox(new TimeToSampleEntry[] { new TimeToSampleEntry(totalFrames, frameDuration) }));
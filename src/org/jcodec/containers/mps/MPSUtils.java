@@ -150,6 +150,40 @@ public class MPSUtils {
                 pes1(pesBuffer, pesFileStart, pesBuffer.position(), stream);
             }
         }
+
+        /**
+         * Saves the state of the reader in the middle of the stream, including
+         * the PES packet being read
+         */
+        public void saveState(ByteBuffer buf) {
+            buf.putInt(marker);
+            buf.putInt(lenFieldLeft);
+            buf.putInt(pesLen);
+            buf.putLong(pesFileStart);
+            buf.putInt(stream);
+            buf.put((byte) (_pes ? 1 : 0));
+            buf.putInt(pesLeft);
+            ByteBuffer data = pesBuffer.duplicate();
+            data.flip();
+            buf.putInt(data.remaining());
+            buf.put(data);
+        }
+
+        public void restoreState(ByteBuffer buf) {
+            marker = buf.getInt();
+            lenFieldLeft = buf.getInt();
+            pesLen = buf.getInt();
+            pesFileStart = buf.getLong();
+            stream = buf.getInt();
+            _pes = buf.get() != 0;
+            pesLeft = buf.getInt();
+            pesBuffer.clear();
+            pesBuffer.put(NIOUtils.read(buf, buf.getInt()));
+        }
+
+        public int estimateStateSize() {
+            return pesBuffer.position() + 32;
+        }
     }
 
     public static PESPacket readPESHeader(ByteBuffer iss, long pos) {
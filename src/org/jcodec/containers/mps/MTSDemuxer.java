@@ -22,12 +22,21 @@ import static org.jcodec.common.Preconditions.checkState;
  * 
  * MPEG TS demuxer
  * 
+ * The transport stream is read in large blocks of whole packets, the packet
+ * headers are parsed in place and the payloads are copied straight from the
+ * block into the ring buffer of the program, nothing is allocated per packet.
+ * 
  * @author The JCodec project
  * 
  */
 public class MTSDemuxer {
+    private static final int TS_PKT_SIZE = 188;
+    private static final int TS_SYNC_MARKER = 0x47;
+
     private SeekableByteChannel channel;
     private Map<Integer, ProgramChannel> programs;
+    private ProgramChannel[] pidPrograms;
+    private ByteBuffer readBuf;
 
     public Set<Integer> getPrograms() {
         return programs.keySet();
@@ -36,15 +45,22 @@ public class MTSDemuxer {
     public Set<Integer> findPrograms(SeekableByteChannel src) throws IOException {
         long rem = src.position();
         Set<Integer> guids = new HashSet<Integer>();
+        ByteBuffer buf = ByteBuffer.allocate(MTSUtils.TSReader.BUFFER_SIZE);
+        buf.flip();
         for (int i = 0; guids.size() == 0 || i < guids.size() * 500; i++) {
-            MTSPacket pkt = readPacket(src);
-            if (pkt == null)
+            if (!fill(src, buf))
                 break;
-            if (pkt.payload == null)
+            int pkt = buf.position();
+            buf.position(pkt + TS_PKT_SIZE);
+            byte[] arr = buf.array();
+            int base = buf.arrayOffset() + pkt;
+            int payload = payloadOffset(arr, base);
+            if (payload == -1 || TS_PKT_SIZE - payload < 4)
                 continue;
-            ByteBuffer payload = pkt.payload;
-            if (!guids.contains(pkt.pid) && (payload.duplicate().getInt() & ~0xff) == 0x100) {
-                guids.add(pkt.pid);
+            int pid = pid(arr, base);
+            int off = base + payload;
+            if (!guids.contains(pid) && arr[off] == 0 && arr[off + 1] == 0 && arr[off + 2] == 1) {
+                guids.add(pid);
             }
         }
         src.setPosition(rem);
@@ -54,10 +70,15 @@ public class MTSDemuxer {
     public MTSDemuxer(SeekableByteChannel src) throws IOException {
         this.channel = src;
         programs = new HashMap<Integer, ProgramChannel>();
+        pidPrograms = new ProgramChannel[0x2000];
         for (int pid : findPrograms(src)) {
-            programs.put(pid, new ProgramChannel(this));
+            ProgramChannel program = new ProgramChannel(this);
+            programs.put(pid, program);
+            pidPrograms[pid] = program;
         }
         src.setPosition(0);
+        readBuf = ByteBuffer.allocate(MTSUtils.TSReader.BUFFER_SIZE);
+        readBuf.flip();
     }
 
     public ReadableByteChannel getProgram(int pid) {
@@ -68,12 +89,16 @@ public class MTSDemuxer {
     //In Javascript you cannot call methods or fields from the outer type. You should define a variable var that=this outside your function definition and call the methods on this object
     private static class ProgramChannel implements ReadableByteChannel {
         private final MTSDemuxer demuxer;
-        private List<ByteBuffer> data;
+        // Ring buffer of the payloads not read yet, grows when the reader
+        // lags behind
+        private byte[] ring;
+        private int head;
+        private int size;
         private boolean closed;
 
         public ProgramChannel(MTSDemuxer demuxer) {
             this.demuxer = demuxer;
-            this.data = new ArrayList<ByteBuffer>();
+            this.ring = new byte[TS_PKT_SIZE << 6];
         }
 
         @Override
@@ -84,45 +109,100 @@ public class MTSDemuxer {
         @Override
         public void close() throws IOException {
             closed = true;
-            data.clear();
+            head = size = 0;
         }
 
         @Override
         public int read(ByteBuffer dst) throws IOException {
             int bytesRead = 0;
             while (dst.hasRemaining()) {
-                while (data.size() == 0) {
+                while (size == 0) {
                     if (!demuxer.readAndDispatchNextTSPacket())
                         return bytesRead > 0 ? bytesRead : -1;
                 }
-                ByteBuffer first = data.get(0);
-                int toRead = Math.min(dst.remaining(), first.remaining());
-                dst.put(NIOUtils.read(first, toRead));
-                if (!first.hasRemaining())
-                    data.remove(0);
+                int toRead = Math.min(dst.remaining(), Math.min(size, ring.length - head));
+                dst.put(ring, head, toRead);
+                head = (head + toRead) % ring.length;
+                size -= toRead;
                 bytesRead += toRead;
             }
             return bytesRead;
         }
 
-        public void storePacket(MTSPacket pkt) {
-            if(closed)
+        public void storePayload(byte[] src, int off, int len) {
+            if (closed)
                 return;
-            data.add(pkt.payload);
+            if (size + len > ring.length)
+                grow(size + len);
+            int tail = (head + size) % ring.length;
+            int first = Math.min(len, ring.length - tail);
+            System.arraycopy(src, off, ring, tail, first);
+            System.arraycopy(src, off + first, ring, 0, len - first);
+            size += len;
+        }
+
+        private void grow(int min) {
+            byte[] bigger = new byte[Math.max(min, ring.length << 1)];
+            int first = Math.min(size, ring.length - head);
+            System.arraycopy(ring, head, bigger, 0, first);
+            System.arraycopy(ring, 0, bigger, first, size - first);
+            ring = bigger;
+            head = 0;
         }
     }
 
     private boolean readAndDispatchNextTSPacket() throws IOException {
-        MTSPacket pkt = readPacket(channel);
-        if (pkt == null)
+        if (!fill(channel, readBuf))
             return false;
-        ProgramChannel program = programs.get(pkt.pid);
+        int pkt = readBuf.position();
+        readBuf.position(pkt + TS_PKT_SIZE);
+        byte[] arr = readBuf.array();
+        int base = readBuf.arrayOffset() + pkt;
+        int payload = payloadOffset(arr, base);
+        if (payload == -1)
+            return true;
+        ProgramChannel program = pidPrograms[pid(arr, base)];
         if (program != null) {
-            program.storePacket(pkt);
+            program.storePayload(arr, base + payload, TS_PKT_SIZE - payload);
         }
         return true;
     }
 
+    /**
+     * Makes sure the buffer has a whole transport packet, the next block of
+     * the channel is read into the buffer when it runs out
+     * 
+     * @return false at the end of the channel
+     */
+    private static boolean fill(ReadableByteChannel ch, ByteBuffer buf) throws IOException {
+        if (buf.remaining() >= TS_PKT_SIZE)
+            return true;
+        buf.compact();
+        while (buf.hasRemaining() && ch.read(buf) > 0)
+            ;
+        buf.flip();
+        return buf.remaining() >= TS_PKT_SIZE;
+    }
+
+    private static int pid(byte[] pkt, int base) {
+        return ((pkt[base + 1] & 0x1f) << 8) | (pkt[base + 2] & 0xff);
+    }
+
+    /**
+     * @return Offset of the payload in the transport packet or -1 if the
+     *         packet has no payload
+     */
+    private static int payloadOffset(byte[] pkt, int base) {
+        checkState(TS_SYNC_MARKER == (pkt[base] & 0xff));
+        int b0 = pkt[base + 3] & 0xff;
+        if ((b0 & 0x10) == 0)
+            return -1;
+        int off = 4;
+        if ((b0 & 0x20) != 0)
+            off += 1 + (pkt[base + 4] & 0xff);
+        return off > TS_PKT_SIZE ? -1 : off;
+    }
+
     public static class MTSPacket {
         public ByteBuffer payload;
         public boolean payloadStart;
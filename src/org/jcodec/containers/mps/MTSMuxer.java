@@ -0,0 +1,369 @@
+package org.jcodec.containers.mps;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jcodec.common.AudioCodecMeta;
+import org.jcodec.common.Codec;
+import org.jcodec.common.Muxer;
+import org.jcodec.common.MuxerTrack;
+import org.jcodec.common.VideoCodecMeta;
+import org.jcodec.common.io.SeekableByteChannel;
+import org.jcodec.common.model.Packet;
+
+/**
+ * This class is part of JCodec ( www.jcodec.org ) This software is distributed
+ * under FreeBSD License
+ * 
+ * MPEG transport stream muxer.
+ * 
+ * Writes a single program with the PAT and PMT in front of the stream and of
+ * every key frame of the first video track. Every frame is one PES packet,
+ * the program clock reference is carried by the first video track ( or the
+ * first track when there is no video ) and is derived from the decode time of
+ * its frames, the presentation time stamps are ahead of it by
+ * {@link #PTS_OFFSET}. Only the presentation time stamps are written so the
+ * video is expected without frame reordering. H.264 frames are expected in
+ * Annex B format and AAC frames with ADTS headers.
+ * 
+ * The segmented muxer starts a new segment at the first key frame of the
+ * clock track after the segment duration has passed, every segment starts
+ * with the PAT and PMT and can be played on its own, like the HLS segments.
+ * 
+ * @author The JCodec project
+ * 
+ */
+public class MTSMuxer implements Muxer {
+    public static final int TS_PKT_SIZE = 188;
+    public static final int PAT_PID = 0;
+    public static final int PMT_PID = 0x1000;
+    public static final int FIRST_ES_PID = 0x100;
+    public static final int PTS_OFFSET = 63000;
+
+    private static final int TIMESCALE = 90000;
+    private static final int PROGRAM_NUMBER = 1;
+    private static final long TS_MASK = 0x1ffffffffL;
+    private static final int[] CRC_TABLE = crcTable();
+
+    /**
+     * Supplies the channels for the segments of the segmented muxer
+     */
+    public static interface SegmentFactory {
+        SeekableByteChannel openSegment(int segmentNo) throws IOException;
+
+        /**
+         * Called once the segment is fully written
+         * 
+         * @param duration
+         *            Duration of the segment in seconds
+         */
+        void closeSegment(int segmentNo, SeekableByteChannel ch, double duration) throws IOException;
+    }
+
+    private List<MTSMuxerTrack> tracks;
+    private MTSMuxerTrack clockTrack;
+    private SeekableByteChannel out;
+    private ByteBuffer buf;
+
+    private SegmentFactory factory;
+    private long segmentDuration;
+    private int segmentNo;
+    private long segmentStart;
+    private long end;
+
+    private boolean started;
+    private boolean psiPending;
+    private int patCounter;
+    private int pmtCounter;
+
+    public MTSMuxer(SeekableByteChannel out) {
+        this.out = out;
+        this.tracks = new ArrayList<MTSMuxerTrack>();
+        this.buf = ByteBuffer.allocate(MTSUtils.TSReader.BUFFER_SIZE);
+    }
+
+    /**
+     * Creates a muxer that splits the stream into segments
+     * 
+     * @param segmentDuration
+     *            Minimum duration of the segments in seconds
+     */
+    public static MTSMuxer createSegmentedMTSMuxer(SegmentFactory factory, double segmentDuration) {
+        MTSMuxer muxer = new MTSMuxer(null);
+        muxer.factory = factory;
+        muxer.segmentDuration = (long) (segmentDuration * TIMESCALE);
+        return muxer;
+    }
+
+    @Override
+    public MuxerTrack addVideoTrack(Codec codec, VideoCodecMeta meta) {
+        return addTrack(videoStreamType(codec), true);
+    }
+
+    @Override
+    public MuxerTrack addAudioTrack(Codec codec, AudioCodecMeta meta) {
+        return addTrack(audioStreamType(codec), false);
+    }
+
+    private MuxerTrack addTrack(MTSStreamType streamType, boolean video) {
+        if (started)
+            throw new IllegalStateException("Tracks can not be added after the first frame.");
+        int streamId;
+        if (!video && (streamType == MTSStreamType.AUDIO_AC3 || streamType == MTSStreamType.AUDIO_DTS)) {
+            streamId = 0xbd;
+        } else {
+            int n = 0;
+            for (MTSMuxerTrack track : tracks) {
+                if (track.video == video)
+                    n++;
+            }
+            streamId = (video ? 0xe0 : 0xc0) + n;
+        }
+        MTSMuxerTrack track = new MTSMuxerTrack(this, FIRST_ES_PID + tracks.size(), streamType, streamId, video);
+        tracks.add(track);
+        if (clockTrack == null || video && !clockTrack.video)
+            clockTrack = track;
+        return track;
+    }
+
+    private static MTSStreamType videoStreamType(Codec codec) {
+        if (codec == Codec.H264)
+            return MTSStreamType.VIDEO_H264;
+        else if (codec == Codec.MPEG2)
+            return MTSStreamType.VIDEO_MPEG2;
+        else if (codec == Codec.MPEG4)
+            return MTSStreamType.VIDEO_MPEG4;
+        throw new RuntimeException("Video codec " + codec + " is not supported in MPEG TS.");
+    }
+
+    private static MTSStreamType audioStreamType(Codec codec) {
+        if (codec == Codec.AAC)
+            return MTSStreamType.AUDIO_AAC_ADTS;
+        else if (codec == Codec.MP1 || codec == Codec.MP2 || codec == Codec.MP3)
+            return MTSStreamType.AUDIO_MPEG1;
+        else if (codec == Codec.AC3)
+            return MTSStreamType.AUDIO_AC3;
+        else if (codec == Codec.DTS)
+            return MTSStreamType.AUDIO_DTS;
+        throw new RuntimeException("Audio codec " + codec + " is not supported in MPEG TS.");
+    }
+
+    void writeFrame(MTSMuxerTrack track, Packet pkt) throws IOException {
+        long pts = pkt.getPts() * TIMESCALE / pkt.getTimescale();
+        long duration = pkt.getDuration() * TIMESCALE / pkt.getTimescale();
+        boolean clock = track == clockTrack;
+        boolean key = clock && (pkt.isKeyFrame() || !track.video);
+
+        if (!started) {
+            started = true;
+            segmentStart = pts;
+            openSegment();
+        } else if (key && factory != null && pts - segmentStart >= segmentDuration) {
+            closeSegment(pts);
+            segmentNo++;
+            segmentStart = pts;
+            openSegment();
+        }
+        if (key && track.video && psiPending)
+            writePsi();
+        psiPending = true;
+
+        if (track.dts == -1)
+            track.dts = pts;
+        long pcr = clock ? track.dts : -1;
+        track.dts += duration;
+        end = Math.max(end, pts + duration);
+
+        writePes(track, pkt.getData().duplicate(), (pts + PTS_OFFSET) & TS_MASK, pcr, key && track.video);
+    }
+
+    private void openSegment() throws IOException {
+        if (factory != null)
+            out = factory.openSegment(segmentNo);
+        writePsi();
+    }
+
+    private void closeSegment(long segmentEnd) throws IOException {
+        flush();
+        if (factory != null)
+            factory.closeSegment(segmentNo, out, (double) (segmentEnd - segmentStart) / TIMESCALE);
+    }
+
+    @Override
+    public void finish() throws IOException {
+        if (started)
+            closeSegment(end);
+        else
+            flush();
+    }
+
+    private void flush() throws IOException {
+        buf.flip();
+        while (buf.hasRemaining())
+            out.write(buf);
+        buf.clear();
+    }
+
+    private ByteBuffer nextPacket() throws IOException {
+        if (buf.remaining() < TS_PKT_SIZE)
+            flush();
+        return buf;
+    }
+
+    private void writePsi() throws IOException {
+        ByteBuffer pat = nextPacket();
+        int start = pat.position();
+        psiHeader(pat, PAT_PID, patCounter++, 0, 9);
+        pat.putShort((short) PROGRAM_NUMBER);
+        pat.putShort((short) (0xe000 | PMT_PID));
+        psiEnd(pat, start);
+
+        ByteBuffer pmt = nextPacket();
+        start = pmt.position();
+        psiHeader(pmt, PMT_PID, pmtCounter++, 2, 9 + tracks.size() * 5);
+        pmt.putShort((short) (0xe000 | clockTrack.pid));
+        pmt.putShort((short) 0xf000);
+        for (MTSMuxerTrack track : tracks) {
+            pmt.put((byte) track.streamType.getTag());
+            pmt.putShort((short) (0xe000 | track.pid));
+            pmt.putShort((short) 0xf000);
+        }
+        psiEnd(pmt, start);
+        psiPending = false;
+    }
+
+    /**
+     * TS header, pointer field and the section header up to the table
+     * specific data, the table id extension is the program number for both
+     * tables
+     */
+    private static void psiHeader(ByteBuffer pkt, int pid, int counter, int tableId, int sectionData) {
+        pkt.put((byte) 0x47);
+        pkt.putShort((short) (0x4000 | pid));
+        pkt.put((byte) (0x10 | (counter & 0xf)));
+        pkt.put((byte) 0);
+        int sectionLength = sectionData + 4;
+        pkt.put((byte) tableId);
+        pkt.putShort((short) (0xb000 | sectionLength));
+        pkt.putShort((short) PROGRAM_NUMBER);
+        pkt.put((byte) 0xc1);
+        pkt.put((byte) 0);
+        pkt.put((byte) 0);
+    }
+
+    private static void psiEnd(ByteBuffer pkt, int start) {
+        pkt.putInt(crc32(pkt, start + 5, pkt.position()));
+        while (pkt.position() < start + TS_PKT_SIZE)
+            pkt.put((byte) 0xff);
+    }
+
+    private void writePes(MTSMuxerTrack track, ByteBuffer data, long pts, long pcr, boolean randomAccess)
+            throws IOException {
+        int pesLength = data.remaining() + 8;
+        ByteBuffer header = track.pesHeader;
+        header.clear();
+        header.putInt(0x100 | track.streamId);
+        header.putShort((short) (pesLength > 0xffff ? 0 : pesLength));
+        header.put((byte) 0x80);
+        header.put((byte) 0x80);
+        header.put((byte) 5);
+        header.put((byte) (0x21 | ((pts >> 29) & 0xe)));
+        header.putShort((short) (((pts >> 14) & 0xfffe) | 1));
+        header.putShort((short) (((pts << 1) & 0xfffe) | 1));
+        header.flip();
+
+        boolean first = true;
+        while (header.hasRemaining() || data.hasRemaining()) {
+            int remaining = header.remaining() + data.remaining();
+            boolean withPcr = first && pcr != -1;
+            int afLength = withPcr ? 8 : 0;
+            if (remaining < TS_PKT_SIZE - 4 - afLength)
+                afLength = TS_PKT_SIZE - 4 - remaining;
+
+            ByteBuffer pkt = nextPacket();
+            pkt.put((byte) 0x47);
+            pkt.putShort((short) ((first ? 0x4000 : 0) | track.pid));
+            pkt.put((byte) ((afLength > 0 ? 0x30 : 0x10) | (track.counter++ & 0xf)));
+            if (afLength > 0) {
+                int afEnd = pkt.position() + afLength;
+                pkt.put((byte) (afLength - 1));
+                if (afLength > 1) {
+                    pkt.put((byte) ((withPcr ? 0x10 : 0) | (first && randomAccess ? 0x40 : 0)));
+                    if (withPcr) {
+                        long base = pcr & TS_MASK;
+                        pkt.putInt((int) (base >> 1));
+                        pkt.putShort((short) (((base & 1) << 15) | 0x7e00));
+                    }
+                    while (pkt.position() < afEnd)
+                        pkt.put((byte) 0xff);
+                }
+            }
+
+            int payload = TS_PKT_SIZE - 4 - afLength;
+            while (payload > 0 && header.hasRemaining()) {
+                pkt.put(header.get());
+                payload--;
+            }
+            if (payload > 0) {
+                int limit = data.limit();
+                data.limit(data.position() + payload);
+                pkt.put(data);
+                data.limit(limit);
+            }
+            first = false;
+        }
+    }
+
+    /**
+     * CRC-32 of the MPEG-2 sections, not reflected
+     */
+    private static int crc32(ByteBuffer buf, int from, int to) {
+        int crc = 0xffffffff;
+        for (int i = from; i < to; i++)
+            crc = (crc << 8) ^ CRC_TABLE[((crc >>> 24) ^ buf.get(i)) & 0xff];
+        return crc;
+    }
+
+    private static int[] crcTable() {
+        int[] table = new int[256];
+        for (int i = 0; i < 256; i++) {
+            int crc = i << 24;
+            for (int j = 0; j < 8; j++)
+                crc = (crc & 0x80000000) != 0 ? (crc << 1) ^ 0x04c11db7 : crc << 1;
+            table[i] = crc;
+        }
+        return table;
+    }
+
+    public static class MTSMuxerTrack implements MuxerTrack {
+        private MTSMuxer muxer;
+        private int pid;
+        private MTSStreamType streamType;
+        private int streamId;
+        private boolean video;
+        private int counter;
+        private long dts;
+        private ByteBuffer pesHeader;
+
+        private MTSMuxerTrack(MTSMuxer muxer, int pid, MTSStreamType streamType, int streamId, boolean video) {
+            this.muxer = muxer;
+            this.pid = pid;
+            this.streamType = streamType;
+            this.streamId = streamId;
+            this.video = video;
+            this.dts = -1;
+            this.pesHeader = ByteBuffer.allocate(14);
+        }
+
+        @Override
+        public void addFrame(Packet pkt) throws IOException {
+            muxer.writeFrame(this, pkt);
+        }
+
+        public int getPid() {
+            return pid;
+        }
+    }
+}
@@ -1,15 +1,19 @@
 package org.jcodec.containers.mps.index;
+import org.jcodec.codecs.h264.io.model.NALUnitType;
 import org.jcodec.codecs.mpeg12.MPEGConst;
 import org.jcodec.common.ArrayUtil;
 import org.jcodec.common.IntArrayList;
 import org.jcodec.common.LongArrayList;
 import org.jcodec.common.RunLength;
+import org.jcodec.common.io.NIOUtils;
+import org.jcodec.common.io.SeekableByteChannel;
 import org.jcodec.common.logging.Logger;
 import org.jcodec.common.tools.MathUtil;
 import org.jcodec.containers.mps.MPSUtils;
 import org.jcodec.containers.mps.PESPacket;
 import org.jcodec.containers.mps.index.MPSIndex.MPSStreamIndex;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -19,6 +23,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * This class is part of JCodec ( www.jcodec.org ) This software is distributed
@@ -26,15 +34,40 @@ import java.util.Set;
  * 
  * Indexes MPEG PS/TS file for the purpose of quick random access in the future
  * 
+ * The file can be indexed in byte ranges on several threads. Every stream of a
+ * range starts at the first PES packet after the start of the range where the
+ * analysis can start from scratch ( for MPEG video a PES packet that begins
+ * with a sequence header or a GOP, for H.264 video one that begins with an
+ * access unit delimiter, a SPS or an IDR slice ), the range before continues
+ * the stream up to this packet. The ranges are then merged into the index of the whole
+ * file.
+ * 
+ * The state of the indexer can be saved and restored to continue indexing a
+ * file that is still being written.
+ * 
  * @author The JCodec project
  * 
  */
 public abstract class BaseIndexer extends MPSUtils.PESReader {
+    private static final int NOT_STARTED = 0;
+    private static final int STARTED = 1;
+    private static final int DONE = 2;
 
     private Map<Integer, BaseAnalyser> analyzers;
     private LongArrayList tokens;
     private RunLength.Integer streams;
 
+    // Range indexing, the PES packets are turned into tokens when the ranges
+    // are merged
+    private long rangeStart;
+    private long rangeEnd;
+    private int[] rangeState;
+    private boolean h264;
+    private LongArrayList pesStarts;
+    private IntArrayList pesLens;
+    private IntArrayList pesPayloads;
+    private IntArrayList pesStreams;
+
     public BaseIndexer() {
         this.analyzers = new HashMap<Integer, BaseAnalyser>();
         this.tokens = LongArrayList.createLongArrayList();
@@ -62,10 +95,36 @@ public abstract class BaseIndexer extends MPSUtils.PESReader {
 
         public abstract void finishAnalyse();
 
+        /**
+         * Called when the stream continues in the next range
+         */
+        public void finishRange() {
+            finishAnalyse();
+        }
+
+        /**
+         * Appends the analysis of the next range of the stream
+         */
+        public abstract void append(BaseAnalyser next);
+
         public int estimateSize() {
             return (pts.size() << 2) + 4;
         }
 
+        public void saveState(ByteBuffer buf) {
+            putInts(buf, pts);
+            putInts(buf, dur);
+        }
+
+        public void restoreState(ByteBuffer buf) {
+            getInts(buf, pts);
+            getInts(buf, dur);
+        }
+
+        public int estimateStateSize() {
+            return ((pts.size() + dur.size()) << 2) + 8;
+        }
+
         public abstract MPSStreamIndex serialize(int streamId);
     }
 
@@ -75,25 +134,64 @@ public abstract class BaseIndexer extends MPSUtils.PESReader {
         private IntArrayList sizes;
         private int knownDuration;
         private long lastPts;
+        // PTS as found in the PES headers, kept to replay a range after the
+        // previous one
+        private LongArrayList rawPts;
 
-        public GenericAnalyser() {
+        public GenericAnalyser(boolean range) {
             super();
             this.sizes = new IntArrayList(250000);
+            if (range)
+                this.rawPts = LongArrayList.createLongArrayList();
         }
 
         public void pkt(ByteBuffer pkt, PESPacket pesHeader) {
-            sizes.add(pkt.remaining());
+            if (rawPts != null)
+                rawPts.add(pesHeader.pts);
+            add(pkt.remaining(), pesHeader.pts);
+        }
 
-            if (pesHeader.pts == -1) {
-                pesHeader.pts = lastPts + knownDuration;
+        private void add(int size, long pesPts) {
+            sizes.add(size);
+
+            if (pesPts == -1) {
+                pesPts = lastPts + knownDuration;
             } else {
-                knownDuration = (int) (pesHeader.pts - lastPts);
-                lastPts = pesHeader.pts;
+                knownDuration = (int) (pesPts - lastPts);
+                lastPts = pesPts;
             }
-            pts.add((int) pesHeader.pts);
+            pts.add((int) pesPts);
             dur.add(knownDuration);
         }
 
+        @Override
+        public void append(BaseAnalyser next) {
+            GenericAnalyser range = (GenericAnalyser) next;
+            for (int i = 0; i < range.rawPts.size(); i++)
+                add(range.sizes.get(i), range.rawPts.get(i));
+        }
+
+        @Override
+        public void saveState(ByteBuffer buf) {
+            super.saveState(buf);
+            putInts(buf, sizes);
+            buf.putInt(knownDuration);
+            buf.putLong(lastPts);
+        }
+
+        @Override
+        public void restoreState(ByteBuffer buf) {
+            super.restoreState(buf);
+            getInts(buf, sizes);
+            knownDuration = buf.getInt();
+            lastPts = buf.getLong();
+        }
+
+        @Override
+        public int estimateStateSize() {
+            return super.estimateStateSize() + (sizes.size() << 2) + 16;
+        }
+
         public MPSStreamIndex serialize(int streamId) {
             return new MPSStreamIndex(streamId, sizes.toArray(), pts.toArray(), dur.toArray(), new int[0]);
         }
@@ -120,6 +218,7 @@ public abstract class BaseIndexer extends MPSUtils.PESReader {
         private List<Frame> curGop;
         private long phPos = -1;
         private Frame lastFrameOfLastGop;
+        private Frame firstGopHead;
 
         public MPEGVideoAnalyser() {
             super();
@@ -133,6 +232,27 @@ public abstract class BaseIndexer extends MPSUtils.PESReader {
             int size;
             int pts;
             int tempRef;
+
+            static void save(ByteBuffer buf, Frame frame) {
+                buf.put((byte) (frame == null ? 0 : 1));
+                if (frame == null)
+                    return;
+                buf.putLong(frame.offset);
+                buf.putInt(frame.size);
+                buf.putInt(frame.pts);
+                buf.putInt(frame.tempRef);
+            }
+
+            static Frame restore(ByteBuffer buf) {
+                if (buf.get() == 0)
+                    return null;
+                Frame frame = new Frame();
+                frame.offset = buf.getLong();
+                frame.size = buf.getInt();
+                frame.pts = buf.getInt();
+                frame.tempRef = buf.getInt();
+                return frame;
+            }
         }
 
         public void pkt(ByteBuffer pkt, PESPacket pesHeader) {
@@ -218,6 +338,8 @@ public abstract class BaseIndexer extends MPSUtils.PESReader {
             }
             if (lastFrameOfLastGop != null) {
                 dur.add(frames[0].pts - lastFrameOfLastGop.pts);
+            } else if (firstGopHead == null) {
+                firstGopHead = frames[0];
             }
             for (int i = 1; i < frames.length; i++) {
                 dur.add(frames[i].pts - frames[i - 1].pts);
@@ -234,6 +356,75 @@ public abstract class BaseIndexer extends MPSUtils.PESReader {
             outGop();
         }
 
+        /**
+         * The next range starts with a sequence header or a GOP, the frame in
+         * progress ends here
+         */
+        @Override
+        public void finishRange() {
+            if (lastFrame != null)
+                finishAnalyse();
+            else if (curGop.size() > 0)
+                outGop();
+        }
+
+        @Override
+        public void append(BaseAnalyser next) {
+            MPEGVideoAnalyser range = (MPEGVideoAnalyser) next;
+            if (lastFrameOfLastGop != null && range.firstGopHead != null)
+                dur.add(range.firstGopHead.pts - lastFrameOfLastGop.pts);
+            sizes.addAll(range.sizes.toArray());
+            pts.addAll(range.pts.toArray());
+            dur.addAll(range.dur.toArray());
+            for (int i = 0; i < range.keyFrames.size(); i++)
+                keyFrames.add(frameNo + range.keyFrames.get(i));
+            frameNo += range.frameNo;
+            if (range.lastFrameOfLastGop != null)
+                lastFrameOfLastGop = range.lastFrameOfLastGop;
+        }
+
+        @Override
+        public void saveState(ByteBuffer buf) {
+            super.saveState(buf);
+            putInts(buf, sizes);
+            putInts(buf, keyFrames);
+            buf.putInt(marker);
+            buf.putLong(position);
+            buf.putInt(frameNo);
+            buf.put((byte) (inFrameData ? 1 : 0));
+            buf.putLong(phPos);
+            Frame.save(buf, lastFrame);
+            buf.putInt(curGop.size());
+            for (Frame frame : curGop)
+                Frame.save(buf, frame);
+            Frame.save(buf, lastFrameOfLastGop);
+            Frame.save(buf, firstGopHead);
+        }
+
+        @Override
+        public void restoreState(ByteBuffer buf) {
+            super.restoreState(buf);
+            getInts(buf, sizes);
+            getInts(buf, keyFrames);
+            marker = buf.getInt();
+            position = buf.getLong();
+            frameNo = buf.getInt();
+            inFrameData = buf.get() != 0;
+            phPos = buf.getLong();
+            lastFrame = Frame.restore(buf);
+            curGop.clear();
+            for (int n = buf.getInt(); n > 0; n--)
+                curGop.add(Frame.restore(buf));
+            lastFrameOfLastGop = Frame.restore(buf);
+            firstGopHead = Frame.restore(buf);
+        }
+
+        @Override
+        public int estimateStateSize() {
+            return super.estimateStateSize() + ((sizes.size() + keyFrames.size()) << 2) + (curGop.size() + 3) * 21
+                    + 40;
+        }
+
         public MPSStreamIndex serialize(int streamId) {
             return new MPSStreamIndex(streamId, sizes.toArray(), pts.toArray(), dur.toArray(), keyFrames.toArray());
         }
@@ -242,7 +433,7 @@ public abstract class BaseIndexer extends MPSUtils.PESReader {
     protected BaseAnalyser getAnalyser(int stream) {
         BaseAnalyser analizer = analyzers.get(stream);
         if (analizer == null) {
-            analizer = stream >= 0xe0 && stream <= 0xef ? new MPEGVideoAnalyser() : new GenericAnalyser();
+            analizer = isVideo(stream) ? new MPEGVideoAnalyser() : new GenericAnalyser(rangeState != null);
             analyzers.put(stream, analizer);
         }
         return analyzers.get(stream);
@@ -254,7 +445,66 @@ public abstract class BaseIndexer extends MPSUtils.PESReader {
         for (Entry<Integer, BaseAnalyser> entry : entrySet) {
             streamsIndices.add(entry.getValue().serialize(entry.getKey()));
         }
-        return new MPSIndex(tokens.toArray(), streams, streamsIndices.toArray(new MPSStreamIndex[0]));
+        return new MPSIndex(tokens.toArray(), streams.copy(), streamsIndices.toArray(new MPSStreamIndex[0]));
+    }
+
+    /**
+     * Saves the state of the indexer so that the indexing of a file that is
+     * still being written can be continued later from where it stopped
+     */
+    @Override
+    public void saveState(ByteBuffer buf) {
+        super.saveState(buf);
+        long[] tokenArray = tokens.toArray();
+        buf.putInt(tokenArray.length);
+        for (int i = 0; i < tokenArray.length; i++)
+            buf.putLong(tokenArray[i]);
+        streams.copy().serialize(buf);
+        buf.putInt(analyzers.size());
+        for (Entry<Integer, BaseAnalyser> entry : analyzers.entrySet()) {
+            buf.put((byte) (int) entry.getKey());
+            entry.getValue().saveState(buf);
+        }
+    }
+
+    @Override
+    public void restoreState(ByteBuffer buf) {
+        super.restoreState(buf);
+        tokens.clear();
+        for (int n = buf.getInt(); n > 0; n--)
+            tokens.add(buf.getLong());
+        // The last run is kept open like it was before saving
+        int[] streamIds = RunLength.Integer.parse(buf).flattern();
+        streams = new RunLength.Integer();
+        for (int i = 0; i < streamIds.length; i++)
+            streams.add(streamIds[i]);
+        analyzers.clear();
+        for (int n = buf.getInt(); n > 0; n--)
+            getAnalyser(buf.get() & 0xff).restoreState(buf);
+    }
+
+    @Override
+    public int estimateStateSize() {
+        int size = super.estimateStateSize() + (tokens.size() << 3) + streams.copy().estimateSize() + 16;
+        for (BaseAnalyser analyser : analyzers.values())
+            size += analyser.estimateStateSize() + 1;
+        return size;
+    }
+
+    static void putInts(ByteBuffer buf, IntArrayList list) {
+        buf.putInt(list.size());
+        for (int i = 0; i < list.size(); i++)
+            buf.putInt(list.get(i));
+    }
+
+    static void getInts(ByteBuffer buf, IntArrayList list) {
+        list.clear();
+        for (int n = buf.getInt(); n > 0; n--)
+            list.add(buf.getInt());
+    }
+
+    private static boolean isVideo(int stream) {
+        return stream >= 0xe0 && stream <= 0xef;
     }
 
     protected void savePESMeta(int stream, long token) {
@@ -262,10 +512,219 @@ public abstract class BaseIndexer extends MPSUtils.PESReader {
         streams.add(stream);
     }
 
+    protected void savePES(int stream, long start, int pesLen, int payloadLen) {
+        if (pesStarts == null) {
+            savePESMeta(stream, pesToken(start, pesLen, payloadLen));
+            return;
+        }
+        pesStarts.add(start);
+        pesLens.add(pesLen);
+        pesPayloads.add(payloadLen);
+        pesStreams.add(stream);
+    }
+
+    /**
+     * Makes the index token of the PES packet, called for the PES packets in
+     * the file order
+     */
+    protected abstract long pesToken(long start, int pesLen, int payloadLen);
+
     void finishAnalyse() {
         super.finishRead();
         for (BaseAnalyser baseAnalyser : analyzers.values()) {
             baseAnalyser.finishAnalyse();
         }
     }
+
+    /**
+     * Makes this indexer index only the PES packets that belong to the byte
+     * range
+     */
+    void setRange(long start, long end) {
+        this.rangeStart = start;
+        this.rangeEnd = end;
+        this.rangeState = new int[256];
+        this.pesStarts = LongArrayList.createLongArrayList();
+        this.pesLens = IntArrayList.createIntArrayList();
+        this.pesPayloads = IntArrayList.createIntArrayList();
+        this.pesStreams = IntArrayList.createIntArrayList();
+    }
+
+    /**
+     * Makes the ranges start the video streams on H.264 access units instead
+     * of MPEG video sequence headers and GOPs
+     */
+    void setH264(boolean h264) {
+        this.h264 = h264;
+    }
+
+    /**
+     * Checks if the PES packet belongs to the range being indexed
+     */
+    protected boolean inRange(int stream, long start, ByteBuffer pes) {
+        if (rangeState == null)
+            return true;
+        int state = rangeState[stream];
+        if (state == NOT_STARTED) {
+            if (start >= rangeEnd) {
+                rangeState[stream] = DONE;
+                return false;
+            }
+            if (rangeStart > 0 && !canStart(stream, pes))
+                return false;
+            rangeState[stream] = STARTED;
+            return true;
+        }
+        if (state == STARTED && start >= rangeEnd && canStart(stream, pes))
+            rangeState[stream] = DONE;
+        return rangeState[stream] == STARTED;
+    }
+
+    private boolean canStart(int stream, ByteBuffer pes) {
+        if (!isVideo(stream))
+            return true;
+        ByteBuffer dup = pes.duplicate();
+        MPSUtils.readPESHeader(dup, 0);
+        if (h264)
+            return isH264Start(dup);
+        if (dup.remaining() < 4)
+            return false;
+        int code = dup.getInt();
+        return code == (0x100 | MPEGConst.SEQUENCE_HEADER_CODE) || code == (0x100 | MPEGConst.GROUP_START_CODE);
+    }
+
+    private static boolean isH264Start(ByteBuffer payload) {
+        int zeros = 0;
+        while (payload.hasRemaining() && payload.get(payload.position()) == 0) {
+            payload.get();
+            zeros++;
+        }
+        if (zeros < 2 || payload.remaining() < 2 || payload.get() != 1)
+            return false;
+        int type = payload.get() & 0x1f;
+        return type == NALUnitType.ACC_UNIT_DELIM.getValue() || type == NALUnitType.SPS.getValue()
+                || type == NALUnitType.IDR_SLICE.getValue();
+    }
+
+    /**
+     * @return If some stream started in the range is not finished yet, the
+     *         file is read past the end of the range until it is
+     */
+    boolean rangePending() {
+        for (int i = 0; i < rangeState.length; i++) {
+            if (rangeState[i] == STARTED)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param eof
+     *            If the range was read up to the end of the file, the streams
+     *            that didn't move to the next range are finished like in the
+     *            whole file
+     */
+    void finishRange(boolean eof) {
+        if (eof)
+            super.finishRead();
+        for (Entry<Integer, BaseAnalyser> entry : analyzers.entrySet()) {
+            if (eof && rangeState[entry.getKey()] == STARTED)
+                entry.getValue().finishAnalyse();
+            else
+                entry.getValue().finishRange();
+        }
+    }
+
+    /**
+     * Merges the ranges into this indexer, this indexer is the first range.
+     * The PES packets of the ranges are tokenized in the file order, a range
+     * continues its streams past the start of the next range.
+     */
+    void mergeRanges(List<? extends BaseIndexer> ranges) {
+        for (int r = 1; r < ranges.size(); r++) {
+            BaseIndexer range = ranges.get(r);
+            for (Entry<Integer, BaseAnalyser> entry : range.analyzers.entrySet()) {
+                BaseAnalyser analyser = analyzers.get(entry.getKey());
+                if (analyser == null)
+                    analyzers.put(entry.getKey(), entry.getValue());
+                else
+                    analyser.append(entry.getValue());
+            }
+        }
+
+        int[] next = new int[ranges.size()];
+        while (true) {
+            BaseIndexer first = null;
+            int firstRange = -1;
+            for (int r = 0; r < ranges.size(); r++) {
+                BaseIndexer range = ranges.get(r);
+                if (next[r] < range.pesStarts.size()
+                        && (first == null || range.pesStarts.get(next[r]) < first.pesStarts.get(next[firstRange]))) {
+                    first = range;
+                    firstRange = r;
+                }
+            }
+            if (first == null)
+                break;
+            int i = next[firstRange]++;
+            savePESMeta(first.pesStreams.get(i),
+                    pesToken(first.pesStarts.get(i), first.pesLens.get(i), first.pesPayloads.get(i)));
+        }
+        for (BaseIndexer range : ranges) {
+            range.rangeState = null;
+            range.pesStarts = null;
+        }
+    }
+
+    static interface RangeReader {
+        void data(ByteBuffer data, long filePos);
+    }
+
+    /**
+     * Reads the range of the file from the start until the streams started in
+     * the range are finished
+     */
+    static void readRange(SeekableByteChannel ch, BaseIndexer[] indexers, RangeReader reader, long start,
+            long end, int bufferSize) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(bufferSize);
+        for (long pos = start; pos < end || pending(indexers); pos += buf.limit()) {
+            buf.clear();
+            if (NIOUtils.readAt(ch, buf, bufferSize, pos) == -1) {
+                for (BaseIndexer indexer : indexers)
+                    indexer.finishRange(true);
+                return;
+            }
+            buf.flip();
+            reader.data(buf.duplicate(), pos);
+        }
+        for (BaseIndexer indexer : indexers)
+            indexer.finishRange(false);
+    }
+
+    private static boolean pending(BaseIndexer[] indexers) {
+        for (BaseIndexer indexer : indexers) {
+            if (indexer.rangePending())
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Indexes the ranges on the executor and waits for all of them
+     */
+    static void indexRanges(ExecutorService executor, List<Callable<Void>> ranges) throws IOException {
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for (Callable<Void> range : ranges)
+            futures.add(executor.submit(range));
+        try {
+            for (Future<Void> future : futures)
+                future.get();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new RuntimeException(e.getCause());
+        }
+    }
 }
\ No newline at end of file
@@ -1,4 +1,5 @@
 package org.jcodec.containers.mps.index;
+import static org.jcodec.containers.mps.MPSUtils.PACK;
 import static org.jcodec.containers.mps.MPSUtils.mediaStream;
 import static org.jcodec.containers.mps.MPSUtils.readPESHeader;
 
@@ -11,6 +12,10 @@ import java.io.File;
 import java.io.IOException;
 import java.lang.System;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 
 /**
  * This class is part of JCodec ( www.jcodec.org ) This software is distributed
@@ -22,14 +27,79 @@ import java.nio.ByteBuffer;
  * 
  */
 public class MPSIndexer extends BaseIndexer {
+    private static final int BUFFER_SIZE = 0x10000;
     private long predFileStart;
 
     public void index(File source, NIOUtils.FileReaderListener listener) throws IOException {
-        newReader().readFile(source, 0x10000, listener);
+        newReader().readFile(source, BUFFER_SIZE, listener);
     }
 
     public void indexChannel(SeekableByteChannel source, NIOUtils.FileReaderListener listener) throws IOException {
-        newReader().readChannel(source, 0x10000, listener);
+        newReader().readChannel(source, BUFFER_SIZE, listener);
+    }
+
+    /**
+     * Indexes the file in byte ranges starting at pack headers, the ranges are
+     * indexed concurrently on the executor. Every range has its own analysis
+     * buffers, the number of ranges is normally about the number of threads.
+     * 
+     * A program stream doesn't tell the video format, the video streams are
+     * split between the ranges only on MPEG video sequence headers and GOPs.
+     * Video in another format is indexed by the first range through to the
+     * end of the file.
+     */
+    public void indexParallel(final SeekableByteChannel source, ExecutorService executor, int nRanges)
+            throws IOException {
+        long size = source.size();
+        long[] bounds = new long[nRanges + 1];
+        bounds[nRanges] = size;
+        for (int i = 1; i < nRanges; i++)
+            bounds[i] = nextPack(source, Math.max(size * i / nRanges, bounds[i - 1]));
+
+        final List<MPSIndexer> ranges = new ArrayList<MPSIndexer>();
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (int i = 0; i < nRanges; i++) {
+            if (i > 0 && bounds[i] == bounds[i + 1])
+                continue;
+            final MPSIndexer range = i == 0 ? this : new MPSIndexer();
+            final long start = bounds[i], end = bounds[i + 1];
+            range.setRange(start, end);
+            ranges.add(range);
+            tasks.add(new Callable<Void>() {
+                public Void call() throws IOException {
+                    readRange(source, new BaseIndexer[] { range }, new RangeReader() {
+                        public void data(ByteBuffer data, long filePos) {
+                            range.analyseBuffer(data, filePos);
+                        }
+                    }, start, end, BUFFER_SIZE);
+                    return null;
+                }
+            });
+        }
+        indexRanges(executor, tasks);
+        mergeRanges(ranges);
+    }
+
+    /**
+     * @return Position of the first pack header at or after the position or
+     *         the size of the file
+     */
+    private static long nextPack(SeekableByteChannel source, long pos) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+        for (int marker = -1;; pos += buf.limit() - 3) {
+            buf.clear();
+            if (NIOUtils.readAt(source, buf, BUFFER_SIZE, pos) == -1)
+                return source.size();
+            buf.flip();
+            for (int i = 0; i < buf.limit(); i++) {
+                marker = (marker << 8) | (buf.get(i) & 0xff);
+                if (marker == PACK)
+                    return pos + i - 3;
+            }
+            if (buf.limit() < 4)
+                return source.size();
+            marker = -1;
+        }
     }
 
     private FileReader newReader() {
@@ -50,14 +120,21 @@ public class MPSIndexer extends BaseIndexer {
     protected void pes(ByteBuffer pesBuffer, long start, int pesLen, int stream) {
         if (!mediaStream(stream))
             return;
+        if (!inRange(stream, start, pesBuffer))
+            return;
         PESPacket pesHeader = readPESHeader(pesBuffer, start);
+        savePES(stream, start, pesLen, pesBuffer.remaining());
+        getAnalyser(stream).pkt(pesBuffer, pesHeader);
+    }
+
+    @Override
+    protected long pesToken(long start, int pesLen, int payloadLen) {
         int leading = 0;
         if (predFileStart != start) {
             leading += (int) (start - predFileStart);
         }
         predFileStart = start + pesLen;
-        savePESMeta(stream, MPSIndex.makePESToken(leading, pesLen, pesBuffer.remaining()));
-        getAnalyser(stream).pkt(pesBuffer, pesHeader);
+        return MPSIndex.makePESToken(leading, pesLen, payloadLen);
     }
 
     public static void main1(String[] args) throws IOException {
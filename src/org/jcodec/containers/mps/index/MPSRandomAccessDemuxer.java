@@ -30,8 +30,10 @@ public class MPSRandomAccessDemuxer {
     private Stream[] streams;
     private long[] pesTokens;
     private int[] pesStreamIds;
+    private SeekableByteChannel ch;
 
     public MPSRandomAccessDemuxer(SeekableByteChannel ch, MPSIndex mpsIndex) throws IOException {
+        this.ch = ch;
         pesTokens = mpsIndex.getPesTokens();
         pesStreamIds = mpsIndex.getPesStreamIds().flattern();
         MPSStreamIndex[] streamIndices = mpsIndex.getStreams();
@@ -49,6 +51,28 @@ public class MPSRandomAccessDemuxer {
         return streams;
     }
 
+    /**
+     * Switches to the extended index of a file that is still being written,
+     * the streams continue from the frames they are at
+     */
+    public void updateIndex(MPSIndex mpsIndex) throws IOException {
+        pesTokens = mpsIndex.getPesTokens();
+        pesStreamIds = mpsIndex.getPesStreamIds().flattern();
+        MPSStreamIndex[] streamIndices = mpsIndex.getStreams();
+        Stream[] updated = new Stream[streamIndices.length];
+        for (int i = 0; i < streamIndices.length; i++) {
+            for (Stream stream : streams) {
+                if (stream.getStreamId() == streamIndices[i].getStreamId()) {
+                    stream.update(streamIndices[i]);
+                    updated[i] = stream;
+                }
+            }
+            if (updated[i] == null)
+                updated[i] = newStream(ch, streamIndices[i]);
+        }
+        streams = updated;
+    }
+
     public static class Stream extends MPSStreamIndex implements SeekableDemuxerTrack {
 
         private static final int MPEG_TIMESCALE = 90000;
@@ -79,6 +103,18 @@ public class MPSRandomAccessDemuxer {
             seekToFrame();
         }
 
+        void update(MPSStreamIndex streamIndex) {
+            int known = fsizes.length;
+            fsizes = streamIndex.fsizes;
+            fpts = streamIndex.fpts;
+            fdur = streamIndex.fdur;
+            sync = streamIndex.sync;
+
+            foffs = Platform.copyOfLong(foffs, fsizes.length);
+            for (int i = known; i < fsizes.length; i++)
+                foffs[i] = i == 0 ? 0 : foffs[i - 1] + fsizes[i - 1];
+        }
+
         @Override
         public Packet nextFrame() throws IOException {
             seekToFrame();
@@ -120,7 +156,9 @@ public class MPSRandomAccessDemuxer {
             }
             result.flip();
 
-            Packet pkt = Packet.createPacket(result, fpts[curFrame], MPEG_TIMESCALE, fdur[curFrame], curFrame, sync.length == 0
+            // The duration of the last frame is not known until the next one
+            int duration = curFrame < fdur.length ? fdur[curFrame] : 0;
+            Packet pkt = Packet.createPacket(result, fpts[curFrame], MPEG_TIMESCALE, duration, curFrame, sync.length == 0
                     || Arrays.binarySearch(sync, curFrame) >= 0 ? FrameType.KEY : FrameType.INTER, null);
 
             curFrame++;
@@ -4,18 +4,25 @@ import static org.jcodec.containers.mps.MPSUtils.mediaStream;
 import static org.jcodec.containers.mps.MPSUtils.readPESHeader;
 import static org.jcodec.containers.mps.index.MTSIndex.createMTSProgram;
 
+import org.jcodec.common.IntArrayList;
 import org.jcodec.common.io.NIOUtils;
 import org.jcodec.common.io.NIOUtils.FileReader;
 import org.jcodec.common.io.SeekableByteChannel;
 import org.jcodec.common.logging.Logger;
+import org.jcodec.containers.mps.MTSStreamType;
 import org.jcodec.containers.mps.MTSUtils;
 import org.jcodec.containers.mps.PESPacket;
 import org.jcodec.containers.mps.index.MTSIndex.MTSProgram;
+import org.jcodec.containers.mps.psi.PMTSection.PMTStream;
 
 import java.io.File;
 import java.io.IOException;
 import java.lang.System;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 
 /**
  * This class is part of JCodec ( www.jcodec.org ) This software is distributed
@@ -23,12 +30,18 @@ import java.nio.ByteBuffer;
  * 
  * Indexes MPEG TS file for the purpose of quick random access in the future
  * 
+ * A recording that is still being written is indexed incrementally, every
+ * update only reads the data appended since the previous one. The state of
+ * the indexer can be saved next to the index and restored to continue after
+ * a restart.
+ * 
  * @author The JCodec project
  * 
  */
 public class MTSIndexer {
     public static final int BUFFER_SIZE = 188 << 9;
     private MTSAnalyser[] indexers;
+    private long indexedPos;
 
     public void index(File source, NIOUtils.FileReaderListener listener) throws IOException {
         indexReader(listener, MTSUtils.getMediaPids(source)).readFile(source, BUFFER_SIZE, listener);
@@ -38,6 +51,132 @@ public class MTSIndexer {
         indexReader(listener, MTSUtils.getMediaPidsFromChannel(source)).readChannel(source, BUFFER_SIZE, listener);
     }
 
+    /**
+     * Indexes the file in byte ranges aligned on TS packets, the ranges are
+     * indexed concurrently on the executor. Every range has its own analysis
+     * buffers, the number of ranges is normally about the number of threads.
+     * 
+     * The video streams are split between the ranges on MPEG video sequence
+     * headers and GOPs or on H.264 access units. A file with the video in any
+     * other format is indexed as one range.
+     */
+    public void indexParallel(final SeekableByteChannel source, ExecutorService executor, int nRanges)
+            throws IOException {
+        int[] targetGuids = MTSUtils.getMediaPidsFromChannel(source);
+        IntArrayList h264Guids = IntArrayList.createIntArrayList();
+        for (PMTStream stream : MTSUtils.getProgramGuidsFromChannel(source)) {
+            MTSStreamType type = stream.getStreamType();
+            if (type == MTSStreamType.VIDEO_H264 || type == MTSStreamType.VIDEO_AVC_SVC
+                    || type == MTSStreamType.VIDEO_AVC_MVC || type == MTSStreamType.VIDEO_H264_3D)
+                h264Guids.add(stream.getPid());
+            else if (type != null && type.isVideo() && type != MTSStreamType.VIDEO_MPEG1
+                    && type != MTSStreamType.VIDEO_MPEG2)
+                nRanges = 1;
+        }
+        long size = source.size();
+        long packets = size / 188;
+
+        final List<MTSIndexer> ranges = new ArrayList<MTSIndexer>();
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (int i = 0; i < nRanges; i++) {
+            final long start = packets * i / nRanges * 188;
+            final long end = i == nRanges - 1 ? size : packets * (i + 1) / nRanges * 188;
+            if (i > 0 && start == end)
+                continue;
+            final MTSIndexer range = i == 0 ? this : new MTSIndexer();
+            final MTSFileReader reader = (MTSFileReader) range.indexReader(null, targetGuids);
+            for (MTSAnalyser analyser : range.indexers) {
+                analyser.setRange(start, end);
+                analyser.setH264(h264Guids.contains(analyser.targetGuid));
+                analyser.synced = start == 0;
+            }
+            ranges.add(range);
+            tasks.add(new Callable<Void>() {
+                public Void call() throws IOException {
+                    BaseIndexer.readRange(source, range.indexers, new BaseIndexer.RangeReader() {
+                        public void data(ByteBuffer data, long filePos) {
+                            reader.analyseBuffer(data, filePos);
+                        }
+                    }, start, end, BUFFER_SIZE);
+                    return null;
+                }
+            });
+        }
+        BaseIndexer.indexRanges(executor, tasks);
+
+        for (int i = 0; i < indexers.length; i++) {
+            List<MTSAnalyser> analysers = new ArrayList<MTSAnalyser>();
+            for (MTSIndexer range : ranges)
+                analysers.add(range.indexers[i]);
+            indexers[i].mergeRanges(analysers);
+        }
+    }
+
+    /**
+     * Indexes the TS packets appended to the file since the previous update,
+     * the index of the data so far is then given by serialize. The PAT and PMT
+     * must already be in the file on the first update.
+     * 
+     * @return The position in the file up to which it's indexed
+     */
+    public long indexIncrement(SeekableByteChannel source) throws IOException {
+        if (indexers == null)
+            indexReader(null, MTSUtils.getMediaPidsFromChannel(source));
+        MTSFileReader reader = new MTSFileReader(this);
+        long end = source.size() / 188 * 188;
+        ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+        while (indexedPos < end) {
+            buf.clear();
+            int read = NIOUtils.readAt(source, buf, (int) Math.min(BUFFER_SIZE, end - indexedPos), indexedPos);
+            if (read < 188)
+                break;
+            buf.flip();
+            buf.limit(read / 188 * 188);
+            reader.analyseBuffer(buf, indexedPos);
+            indexedPos += buf.limit();
+        }
+        return indexedPos;
+    }
+
+    /**
+     * Completes the index once the recording is finished
+     */
+    public void finishIncrement() {
+        for (MTSAnalyser analyser : indexers)
+            analyser.finishAnalyse();
+    }
+
+    public void saveState(ByteBuffer buf) {
+        buf.putLong(indexedPos);
+        buf.putInt(indexers.length);
+        for (MTSAnalyser analyser : indexers) {
+            buf.putInt(analyser.targetGuid);
+            analyser.saveState(buf);
+        }
+    }
+
+    public int estimateStateSize() {
+        int size = 12;
+        for (MTSAnalyser analyser : indexers)
+            size += analyser.estimateStateSize() + 4;
+        return size;
+    }
+
+    /**
+     * Restores the indexer saved with saveState, the indexing continues with
+     * the next indexIncrement
+     */
+    public static MTSIndexer parseState(ByteBuffer buf) {
+        MTSIndexer indexer = new MTSIndexer();
+        indexer.indexedPos = buf.getLong();
+        indexer.indexers = new MTSAnalyser[buf.getInt()];
+        for (int i = 0; i < indexer.indexers.length; i++) {
+            indexer.indexers[i] = new MTSAnalyser(buf.getInt());
+            indexer.indexers[i].restoreState(buf);
+        }
+        return indexer;
+    }
+
     public FileReader indexReader(NIOUtils.FileReaderListener listener, int[] targetGuids) throws IOException {
         indexers = new MTSAnalyser[targetGuids.length];
         for (int i = 0; i < targetGuids.length; i++) {
@@ -76,6 +215,13 @@ public class MTSIndexer {
 
                     if (guid == indexer.indexers[i].targetGuid) {
                         int payloadStart = (guidFlags >> 14) & 0x1;
+                        // A range starts the PES packets of a stream from the
+                        // first one that begins in the range
+                        if (!indexer.indexers[i].synced) {
+                            if (payloadStart == 0)
+                                continue;
+                            indexer.indexers[i].synced = true;
+                        }
                         int b0 = tsBuf.get() & 0xff;
                         int counter = b0 & 0xf;
                         if ((b0 & 0x20) != 0) {
@@ -99,9 +245,11 @@ public class MTSIndexer {
 
         private int targetGuid;
         private long predFileStartInTsPkt;
+        private boolean synced;
 
         public MTSAnalyser(int targetGuid) {
             this.targetGuid = targetGuid;
+            this.synced = true;
         }
 
         public MTSProgram serializeTo() {
@@ -109,18 +257,42 @@ public class MTSIndexer {
         }
 
         protected void pes(ByteBuffer pesBuffer, long start, int pesLen, int stream) {
-            if (!mediaStream(stream))
+            if (!mediaStream(stream) || !inRange(stream, start, pesBuffer))
                 return;
             Logger.debug(String.format("PES: %08x, %d", start, pesLen));
             PESPacket pesHeader = readPESHeader(pesBuffer, start);
+            savePES(stream, start, pesLen, pesBuffer.remaining());
+            getAnalyser(stream).pkt(pesBuffer, pesHeader);
+        }
+
+        @Override
+        public void saveState(ByteBuffer buf) {
+            buf.putLong(predFileStartInTsPkt);
+            buf.put((byte) (synced ? 1 : 0));
+            super.saveState(buf);
+        }
+
+        @Override
+        public void restoreState(ByteBuffer buf) {
+            predFileStartInTsPkt = buf.getLong();
+            synced = buf.get() != 0;
+            super.restoreState(buf);
+        }
+
+        @Override
+        public int estimateStateSize() {
+            return super.estimateStateSize() + 9;
+        }
+
+        @Override
+        protected long pesToken(long start, int pesLen, int payloadLen) {
             int leadingTsPkt = 0;// pesBuffer.position();
             if (predFileStartInTsPkt != start) {
                 leadingTsPkt = (int) (start / 188 - predFileStartInTsPkt);
             }
             predFileStartInTsPkt = (start + pesLen) / 188;
             int tsPktInPes = (int) (predFileStartInTsPkt - start / 188);
-            savePESMeta(stream, MPSIndex.makePESToken(leadingTsPkt, tsPktInPes, pesBuffer.remaining()));
-            getAnalyser(stream).pkt(pesBuffer, pesHeader);
+            return MPSIndex.makePESToken(leadingTsPkt, tsPktInPes, payloadLen);
         }
     }
 
@@ -6,6 +6,8 @@ import org.jcodec.containers.mps.index.MTSIndex.MTSProgram;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.jcodec.common.Preconditions.checkState;
 
@@ -20,10 +22,28 @@ public class MTSRandomAccessDemuxer {
 
     private MTSProgram[] programs;
     private SeekableByteChannel ch;
+    private List<MPSRandomAccessDemuxer> demuxers;
+    private List<Integer> demuxerGuids;
 
     public MTSRandomAccessDemuxer(SeekableByteChannel ch, MTSIndex index) {
         programs = index.getPrograms();
         this.ch = ch;
+        this.demuxers = new ArrayList<MPSRandomAccessDemuxer>();
+        this.demuxerGuids = new ArrayList<Integer>();
+    }
+
+    /**
+     * Switches to the extended index of a recording that is still being
+     * written, see MTSIndexer.indexIncrement. The program demuxers that were
+     * already created are updated and continue from where they are.
+     */
+    public void updateIndex(MTSIndex index) throws IOException {
+        programs = index.getPrograms();
+        for (int i = 0; i < demuxers.size(); i++) {
+            MPSIndex program = getProgram(demuxerGuids.get(i));
+            if (program != null)
+                demuxers.get(i).updateIndex(program);
+        }
     }
 
     public int[] getGuids() {
@@ -35,7 +55,7 @@ public class MTSRandomAccessDemuxer {
 
     public MPSRandomAccessDemuxer getProgramDemuxer(final int tgtGuid) throws IOException {
         MPSIndex index = getProgram(tgtGuid);
-        return new MPSRandomAccessDemuxer(ch, index) {
+        MPSRandomAccessDemuxer demuxer = new MPSRandomAccessDemuxer(ch, index) {
             @Override
             protected Stream newStream(SeekableByteChannel ch, MPSStreamIndex streamIndex) throws IOException {
                 return new Stream(this, streamIndex, ch) {
@@ -75,6 +95,9 @@ public class MTSRandomAccessDemuxer {
                 };
             }
         };
+        demuxers.add(demuxer);
+        demuxerGuids.add(tgtGuid);
+        return demuxer;
     }
 
     private MPSIndex getProgram(int guid) {
@@ -8,6 +8,7 @@ import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.jcodec.common.io.ChannelCopier;
 import org.jcodec.common.io.SeekableByteChannel;
 import org.jcodec.containers.mp4.Chunk;
 import org.jcodec.containers.mp4.ChunkReader;
@@ -65,6 +66,19 @@ public class Flattern {
         public void trigger(int progress);
     }
 
+    /**
+     * Progress listener that is also told how fast the media data is copied
+     */
+    public interface ThroughputListener extends ProgressListener {
+        /**
+         * @param bytes
+         *            Media data copied so far
+         * @param bytesPerSecond
+         *            Average copy speed
+         */
+        public void throughput(long bytes, long bytesPerSecond);
+    }
+
     public void addProgressListener(ProgressListener listener) {
         this.listeners.add(listener);
     }
@@ -93,38 +107,50 @@ public class Flattern {
         Chunk[] head = new Chunk[tracks.length];
         int totalChunks = 0, writtenChunks = 0, lastProgress = 0;
         long[] off = new long[tracks.length];
+        // The chunks that follow each other in the input are copied with one
+        // large transfer
+        ChannelCopier copier = new ChannelCopier(out);
         for (int i = 0; i < tracks.length; i++) {
             readers[i] = new ChunkReader(tracks[i]);
             totalChunks += readers[i].size();
 
-            writers[i] = new ChunkWriter(tracks[i], inputs[i], out);
+            writers[i] = ChunkWriter.createChunkWriter(tracks[i], inputs[i], copier);
             head[i] = readers[i].next();
             if (tracks[i].isVideo())
                 off[i] = 2 * moov.getTimescale();
         }
 
-        while (true) {
-            int min = -1;
-            for (int i = 0; i < readers.length; i++) {
-                if (head[i] == null)
-                    continue;
+        long start = System.currentTimeMillis();
+        try {
+            while (true) {
+                int min = -1;
+                for (int i = 0; i < readers.length; i++) {
+                    if (head[i] == null)
+                        continue;
 
-                if (min == -1)
-                    min = i;
-                else {
-                    long iTv = moov.rescale(head[i].getStartTv(), tracks[i].getTimescale()) + off[i];
-                    long minTv = moov.rescale(head[min].getStartTv(), tracks[min].getTimescale()) + off[min];
-                    if (iTv < minTv)
+                    if (min == -1)
                         min = i;
+                    else {
+                        long iTv = moov.rescale(head[i].getStartTv(), tracks[i].getTimescale()) + off[i];
+                        long minTv = moov.rescale(head[min].getStartTv(), tracks[min].getTimescale()) + off[min];
+                        if (iTv < minTv)
+                            min = i;
+                    }
                 }
-            }
-            if (min == -1)
-                break;
-            writers[min].write(head[min]);
-            head[min] = readers[min].next();
-            writtenChunks++;
+                if (min == -1)
+                    break;
+                writers[min].write(head[min]);
+                head[min] = readers[min].next();
+                writtenChunks++;
 
-            lastProgress = calcProgress(totalChunks, writtenChunks, lastProgress);
+                int progress = calcProgress(totalChunks, writtenChunks, lastProgress);
+                if (progress > lastProgress)
+                    reportThroughput(copier.getCopied(), System.currentTimeMillis() - start);
+                lastProgress = progress;
+            }
+            copier.flush();
+        } finally {
+            copier.close();
         }
 
         for (int i = 0; i < tracks.length; i++) {
@@ -151,6 +177,14 @@ public class Flattern {
         out.write(bb);
     }
 
+    private void reportThroughput(long bytes, long millis) {
+        long bytesPerSecond = millis == 0 ? 0 : bytes * 1000 / millis;
+        for (ProgressListener pl : this.listeners) {
+            if (pl instanceof ThroughputListener)
+                ((ThroughputListener) pl).throughput(bytes, bytesPerSecond);
+        }
+    }
+
     private int calcProgress(int totalChunks, int writtenChunks, int lastProgress) {
         int curProgress = 100 * writtenChunks / totalChunks;
         if (lastProgress < curProgress) {
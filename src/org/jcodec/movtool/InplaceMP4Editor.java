@@ -196,16 +196,24 @@ public class InplaceMP4Editor {
         fi.write(buffer);
     }
 
+    /**
+     * Serializes the box into a scratch buffer first, sample tables parse
+     * lazily from views of the very buffer being rewritten and would be
+     * clobbered by an edit that grows any box written before them.
+     */
     private boolean rewriteBox(ByteBuffer buffer, Box box) {
         try {
-            buffer.clear();
-            box.write(buffer);
-            if (buffer.hasRemaining()) {
-                if (buffer.remaining() < 8)
+            ByteBuffer out = ByteBuffer.allocate(buffer.capacity());
+            box.write(out);
+            if (out.hasRemaining()) {
+                if (out.remaining() < 8)
                     return false;
-                buffer.putInt(buffer.remaining());
-                buffer.put(new byte[] { 'f', 'r', 'e', 'e' });
+                out.putInt(out.remaining());
+                out.put(new byte[] { 'f', 'r', 'e', 'e' });
             }
+            out.flip();
+            buffer.clear();
+            buffer.put(out);
             buffer.flip();
             return true;
         } catch (BufferOverflowException e) {